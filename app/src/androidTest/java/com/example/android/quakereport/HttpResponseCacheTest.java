@@ -0,0 +1,179 @@
+package com.example.android.quakereport;
+
+import android.net.http.HttpResponseCache;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.TextUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The disk cache installed by EarthquakeActivity, against a loopback server counting the body
+ * bytes it sends. It runs on a device: the cache only works with the HttpURLConnection of
+ * Android.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HttpResponseCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String ETAG = "\"1497960000000\"";
+
+    private final byte[] mBody = geoJson(200).getBytes(UTF_8);
+
+    private volatile String mCacheControl;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConditionalCount = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    private ServerSocket mServerSocket;
+    private File mCacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mCacheDir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "http-test");
+        HttpResponseCache.install(mCacheDir, 1024 * 1024);
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "HttpResponseCacheTest").start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServerSocket.close();
+        HttpResponseCache.getInstalled().delete();
+    }
+
+    @Test
+    public void freshResponse_servedFromDisk() throws Exception {
+        mCacheControl = "max-age=60";
+        UrlConnectionHttpClient httpClient = new UrlConnectionHttpClient(1000, 1000);
+
+        assertFalse(fetch(httpClient));
+        assertTrue(fetch(httpClient));
+
+        assertEquals(1, mRequestCount.get());
+        assertEquals(mBody.length, mBytesSent.get());
+        assertEquals(1, HttpResponseCache.getInstalled().getHitCount());
+    }
+
+    @Test
+    public void staleResponse_revalidatedWithoutBody() throws Exception {
+        mCacheControl = "max-age=0";
+        UrlConnectionHttpClient httpClient = new UrlConnectionHttpClient(1000, 1000);
+
+        assertFalse(fetch(httpClient));
+        assertTrue(fetch(httpClient));
+
+        // the second request only carried the headers, the body came from the disk
+        assertEquals(2, mRequestCount.get());
+        assertEquals(1, mConditionalCount.get());
+        assertEquals(mBody.length, mBytesSent.get());
+    }
+
+    /**
+     * Downloads and parses the feed.
+     * @return true if the body came from the cache
+     */
+    private boolean fetch(UrlConnectionHttpClient httpClient) throws IOException {
+        EarthquakeHttpClient.Response response = httpClient.get(new URL(
+                "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/query?format=geojson"));
+        try {
+            assertEquals(200, response.getCode());
+            List<Earthquake> earthquakes = QueryUtils.extractEarthquakes(
+                    QueryUtils.decode(response.getBody(), response.getContentEncoding()),
+                    new LoadCancellation(), null);
+            assertEquals(200, earthquakes.size());
+            return response.isFromCache();
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Answers every request with the feed, or with a 304 if it carries the ETag.
+     */
+    private void serve() {
+        while (true) {
+            try {
+                Socket socket = mServerSocket.accept();
+                try {
+                    BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), UTF_8));
+                    boolean conditional = false;
+                    String line;
+                    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                        if (line.equalsIgnoreCase("If-None-Match: " + ETAG)) {
+                            conditional = true;
+                        }
+                    }
+                    mRequestCount.incrementAndGet();
+                    OutputStream output = socket.getOutputStream();
+                    String headers = "ETag: " + ETAG + "\r\n"
+                            + "Cache-Control: " + mCacheControl + "\r\n"
+                            + "Connection: close\r\n";
+                    if (conditional) {
+                        mConditionalCount.incrementAndGet();
+                        output.write(("HTTP/1.1 304 Not Modified\r\n" + headers + "\r\n")
+                                .getBytes(UTF_8));
+                    } else {
+                        output.write(("HTTP/1.1 200 OK\r\n" + headers
+                                + "Content-Type: application/json\r\n"
+                                + "Content-Length: " + mBody.length + "\r\n\r\n")
+                                .getBytes(UTF_8));
+                        mBytesSent.addAndGet(mBody.length);
+                        output.write(mBody);
+                    }
+                    output.flush();
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // closed by tearDown()
+                return;
+            }
+        }
+    }
+
+    private static String geoJson(int count) {
+        List<String> features = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            features.add("{\"type\":\"Feature\",\"properties\":{\"mag\":" + (2.5 + i % 40 / 10.0)
+                    + ",\"place\":\"" + (i % 90 + 1) + "km NNW of Ridgecrest, CA\","
+                    + "\"time\":" + (1497960000000L - i * 60000L) + ",\"updated\":1497960000000,"
+                    + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/ci" + i
+                    + "\",\"status\":\"reviewed\"},\"geometry\":{\"type\":\"Point\","
+                    + "\"coordinates\":[-117.6,35.7,8.1]},\"id\":\"ci" + i + "\"}");
+        }
+        return "{\"type\":\"FeatureCollection\",\"features\":["
+                + TextUtils.join(",", features) + "]}";
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.android.quakereport;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps the store current while the app is closed, so the list is up to date when it opens.
+ * A periodic job syncs the query of the preferences on an unmetered network while the device
+ * is charging. A failed sync is retried by a one-off job after an exponential backoff.
+ * The clock and the HTTP client are handed in, the retry logic can run with fake ones.
+ * JobScheduler needs API 21, older devices only sync while the app is open.
+ */
+
+public class BackgroundSync {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = BackgroundSync.class.getName();
+
+    /** Job ids of the app */
+    static final int PERIODIC_JOB_ID = 1;
+    static final int RETRY_JOB_ID = 2;
+
+    /** Interval of the periodic sync, in milliseconds */
+    static final long SYNC_PERIOD = 60 * 60 * 1000; // 1 hour
+
+    /** Delay before the first retry, it doubles after each failure */
+    static final long INITIAL_BACKOFF = 60 * 1000; // 1 minute
+
+    /** Longest delay between retries, after that the periodic sync is as early */
+    static final long MAX_BACKOFF = SYNC_PERIOD;
+
+    /** A sync younger than this is not repeated, e.g. when a retry ran just before */
+    static final long FRESH_PERIOD = SYNC_PERIOD / 2;
+
+    private static final String PREFS_NAME = "earthquake_background_sync";
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_LAST_SUCCESS = "last_success";
+
+    /**
+     * Source of the current time.
+     */
+    public interface Clock {
+
+        /**
+         * Gets the current time in milliseconds (UNIX time).
+         */
+        long currentTimeMillis();
+    }
+
+    /** The clock of the device */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final Context mContext;
+    private final EarthquakeHttpClient mHttpClient;
+    private final Clock mClock;
+
+    /**
+     * Constructor
+     * @param context any context, used for the store and the preferences
+     * @param httpClient client executing the requests
+     * @param clock source of the time of the successes and of the coverage
+     */
+    public BackgroundSync(Context context, EarthquakeHttpClient httpClient, Clock clock) {
+        mContext = context.getApplicationContext();
+        mHttpClient = httpClient;
+        mClock = clock;
+    }
+
+    /**
+     * Syncs the query unless it was synced recently. On success the query engine and the
+     * snapshot are refreshed too, so the list opens on the new rows.
+     * @param queryUrl the USGS query URL, see EarthquakeActivity.buildQueryUrl()
+     * @param cancellation aborts the sync when the job is stopped
+     * @return delay in milliseconds until the sync has to be retried, 0 if it does not
+     */
+    public long run(String queryUrl, LoadCancellation cancellation) {
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long now = mClock.currentTimeMillis();
+        long lastSuccess = prefs.getLong(KEY_LAST_SUCCESS, 0);
+        if (now - lastSuccess < FRESH_PERIOD && now >= lastSuccess) {
+            Log.i(LOG_TAG, "TEST: synced " + (now - lastSuccess) / 1000 + " s ago, skipped");
+            return 0;
+        }
+
+        // the merge of EarthquakeSync writes the whole batch in one transaction, the stages
+        // of the pipeline run the queries of the list first
+        if (EarthquakeSync.sync(mContext, mHttpClient, queryUrl, LoadMetrics.NO_TRACE,
+                cancellation, null, EarthquakePipeline.PRIORITY_BACKGROUND, now)) {
+            prefs.edit()
+                    .putInt(KEY_FAILURES, 0)
+                    .putLong(KEY_LAST_SUCCESS, mClock.currentTimeMillis())
+                    .apply();
+            refreshLocalCopies(queryUrl, cancellation);
+            return 0;
+        }
+        if (cancellation.isCanceled()) {
+            // stopped by the system, not a failure: the job is rescheduled as it is
+            return 0;
+        }
+
+        int failures = prefs.getInt(KEY_FAILURES, 0) + 1;
+        prefs.edit().putInt(KEY_FAILURES, failures).apply();
+        long backoff = getBackoff(failures);
+        Log.i(LOG_TAG, "TEST: sync failed " + failures + " times, retry in " + backoff / 1000
+                + " s");
+        return backoff;
+    }
+
+    /**
+     * Gets the delay before retrying after a number of failures in a row: INITIAL_BACKOFF,
+     * then doubled after each failure, up to MAX_BACKOFF.
+     */
+    static long getBackoff(int failures) {
+        long backoff = INITIAL_BACKOFF;
+        for (int i = 1; i < failures && backoff < MAX_BACKOFF; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, MAX_BACKOFF);
+    }
+
+    /**
+     * Reloads the query engine from the store and saves the query result as the snapshot read
+     * when the app starts. It runs on the index stage of the pipeline, after the queries of
+     * the list.
+     */
+    private void refreshLocalCopies(final String queryUrl, LoadCancellation cancellation) {
+        Uri uri = Uri.parse(queryUrl);
+        final double minMagnitude = QueryUtils.parseDouble(uri.getQueryParameter("minmag"), 0);
+        final String orderBy = uri.getQueryParameter("orderby");
+        final int limit = (int) QueryUtils.parseDouble(uri.getQueryParameter("limit"), 100);
+        final long startTime = QueryUtils.getStartTime(uri, mClock.currentTimeMillis());
+
+        EarthquakePipeline.getInstance().run(EarthquakePipeline.STAGE_INDEX,
+                EarthquakePipeline.PRIORITY_BACKGROUND, cancellation, new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        EarthquakeQueryEngine engine = EarthquakeQueryEngine.getInstance();
+                        engine.load(EarthquakeStore.getInstance(mContext).query(startTime));
+                        EarthquakeTable earthquakes =
+                                engine.query(startTime, minMagnitude, orderBy, limit);
+                        if (EarthquakeSync.isComplete(mContext, queryUrl)) {
+                            engine.addCoverage(startTime, minMagnitude, orderBy, limit,
+                                    earthquakes, mClock.currentTimeMillis());
+                        }
+                        EarthquakeSnapshot.writeAsync(
+                                EarthquakeSnapshot.getFile(mContext.getFilesDir()), queryUrl,
+                                earthquakes);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Schedules the periodic sync, if it is not scheduled yet. Call it when the app starts.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == PERIODIC_JOB_ID) {
+                // rescheduling would restart its period
+                return;
+            }
+        }
+        JobInfo job = newJob(context, PERIODIC_JOB_ID)
+                .setPeriodic(SYNC_PERIOD)
+                // survives a reboot, needs RECEIVE_BOOT_COMPLETED
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Could not schedule the background sync");
+        }
+    }
+
+    /**
+     * Schedules a one-off retry of the sync, replacing a pending one.
+     * @param delay backoff in milliseconds, see {@link #run(String, LoadCancellation)}
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    static void scheduleRetry(Context context, long delay) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        JobInfo job = newJob(context, RETRY_JOB_ID)
+                .setMinimumLatency(delay)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(LOG_TAG, "Could not schedule the sync retry");
+        }
+    }
+
+    /**
+     * Starts a job of the sync service with the conditions of every sync.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static JobInfo.Builder newJob(Context context, int jobId) {
+        ComponentName service = new ComponentName(context, EarthquakeSyncJobService.class);
+        return new JobInfo.Builder(jobId, service)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream counting the bytes read through it, used to report transferred
+ * (compressed) and decoded (uncompressed) response sizes. It also measures the time spent
+ * waiting in its read calls.
+ */
+
+public class CountingInputStream extends FilterInputStream {
+
+    // number of bytes read so far
+    private long mCount;
+
+    // time spent in read calls so far, in nanoseconds
+    private long mReadNanos;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Gets the number of bytes read so far.
+     * @return current value of mCount.
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets the time spent in read calls so far.
+     * @return current value of mReadNanos.
+     */
+    public long getReadNanos() {
+        return mReadNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = super.read();
+        mReadNanos += System.nanoTime() - start;
+        if (b != -1) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        int n = super.read(buffer, offset, length);
+        mReadNanos += System.nanoTime() - start;
+        if (n > 0) {
+            mCount += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        mCount += skipped;
+        return skipped;
+    }
+
+    // marking would make the count go back and forth, it is not worth supporting
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,377 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Parser of the USGS "format=csv" responses, about a third of the size of the GeoJSON ones.
+ * The bytes are read through a single buffer and each field is decoded where it lies:
+ * magnitudes, coordinates and times are computed from the digits without building a String,
+ * only the id and the place become Strings. The columns are found by name in the header row.
+ * A response which does not look like the expected CSV throws a {@link MalformedCsvException},
+ * so the caller can ask for GeoJSON instead.
+ */
+
+final class CsvEarthquakeParser {
+
+    /** Value of the "format" query parameter selecting this parser */
+    static final String FORMAT = "csv";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final byte[] DELETED = "deleted".getBytes(UTF_8);
+
+    /** Exact powers of ten, a mantissa below 2^53 divided by one of them is correctly rounded */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    // columns used, by their name in the header
+    private static final String[] COLUMN_NAMES =
+            {"id", "time", "updated", "mag", "place", "longitude", "latitude", "depth", "status"};
+    private static final int ID = 0;
+    private static final int TIME = 1;
+    private static final int UPDATED = 2;
+    private static final int MAGNITUDE = 3;
+    private static final int PLACE = 4;
+    private static final int LONGITUDE = 5;
+    private static final int LATITUDE = 6;
+    private static final int DEPTH = 7;
+    private static final int STATUS = 8;
+
+    /**
+     * Thrown when the response is not the CSV this parser expects.
+     */
+    static class MalformedCsvException extends IOException {
+        MalformedCsvException(String message) {
+            super(message);
+        }
+    }
+
+    private final InputStream mInput;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+
+    // the current field, unquoted
+    private byte[] mField = new byte[256];
+    private int mFieldLength;
+
+    // index of the used column of each CSV column, -1 if it is not used
+    private int[] mUsedColumns;
+
+    private CsvEarthquakeParser(InputStream input) {
+        mInput = input;
+    }
+
+    /**
+     * Reads every earthquake of the response.
+     * @param cancellation stops the parsing between two rows with an InterruptedIOException
+     * @param listener gets each earthquake as soon as it is parsed, may be null
+     */
+    static ArrayList<Earthquake> parse(InputStream input, LoadCancellation cancellation,
+                                       QueryUtils.ParseListener listener) throws IOException {
+        return new CsvEarthquakeParser(input).parseRows(cancellation, listener);
+    }
+
+    private ArrayList<Earthquake> parseRows(LoadCancellation cancellation,
+                                            QueryUtils.ParseListener listener) throws IOException {
+        ArrayList<Earthquake> earthquakes = new ArrayList<>();
+        readHeader();
+
+        while (true) {
+            cancellation.throwIfCanceled();
+            String id = null;
+            String place = "";
+            long time = 0;
+            long updated = 0;
+            double magnitude = 0;
+            double longitude = Double.NaN;
+            double latitude = Double.NaN;
+            double depth = Double.NaN;
+            boolean deleted = false;
+
+            int column = 0;
+            int end;
+            do {
+                end = readField();
+                int used = column < mUsedColumns.length ? mUsedColumns[column] : -1;
+                // empty fields keep their default, like the null values of the GeoJSON
+                if (used >= 0 && mFieldLength > 0) {
+                    switch (used) {
+                        case ID:
+                            id = new String(mField, 0, mFieldLength, UTF_8);
+                            break;
+                        case TIME:
+                            time = parseTime();
+                            break;
+                        case UPDATED:
+                            updated = parseTime();
+                            break;
+                        case MAGNITUDE:
+                            magnitude = parseDouble();
+                            break;
+                        case PLACE:
+                            place = new String(mField, 0, mFieldLength, UTF_8);
+                            break;
+                        case LONGITUDE:
+                            longitude = parseDouble();
+                            break;
+                        case LATITUDE:
+                            latitude = parseDouble();
+                            break;
+                        case DEPTH:
+                            depth = parseDouble();
+                            break;
+                        case STATUS:
+                            deleted = fieldEquals(DELETED);
+                            break;
+                    }
+                }
+                column++;
+            } while (end == ',');
+
+            if (column == 1 && mFieldLength == 0) {
+                // blank line, usually the last one
+                if (end == -1) {
+                    break;
+                }
+                continue;
+            }
+            if (id == null) {
+                throw new MalformedCsvException("row without id");
+            }
+            Earthquake earthquake = new Earthquake(id, magnitude, place, time, updated,
+                    EarthquakeTable.EVENT_PAGE_PREFIX + id, deleted, longitude, latitude, depth);
+            earthquakes.add(earthquake);
+            if (listener != null) {
+                listener.onParsed(earthquake);
+            }
+            if (end == -1) {
+                break;
+            }
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Maps the columns of the header row to the used columns.
+     */
+    private void readHeader() throws IOException {
+        ArrayList<String> names = new ArrayList<>();
+        int end;
+        do {
+            end = readField();
+            names.add(new String(mField, 0, mFieldLength, UTF_8));
+        } while (end == ',');
+
+        mUsedColumns = new int[names.size()];
+        boolean[] found = new boolean[COLUMN_NAMES.length];
+        for (int column = 0; column < names.size(); column++) {
+            mUsedColumns[column] = -1;
+            for (int used = 0; used < COLUMN_NAMES.length; used++) {
+                if (COLUMN_NAMES[used].equals(names.get(column))) {
+                    mUsedColumns[column] = used;
+                    found[used] = true;
+                }
+            }
+        }
+        // the coordinates and the status are optional, the list can do without them
+        if (!found[ID] || !found[TIME] || !found[MAGNITUDE] || !found[PLACE]) {
+            throw new MalformedCsvException("unexpected header " + names);
+        }
+    }
+
+    /**
+     * Reads the next field into mField, removing the quotes.
+     * @return what ended it: ',', '\n' or -1 at the end of the response
+     */
+    private int readField() throws IOException {
+        mFieldLength = 0;
+        int b = read();
+        if (b == '"') {
+            // quoted: commas and line breaks are data, "" is a quote
+            while (true) {
+                b = read();
+                if (b == -1) {
+                    throw new MalformedCsvException("unterminated quote");
+                }
+                if (b == '"') {
+                    b = read();
+                    if (b != '"') {
+                        break;
+                    }
+                }
+                appendToField(b);
+            }
+        } else {
+            while (b != ',' && b != '\n' && b != -1) {
+                appendToField(b);
+                b = read();
+            }
+        }
+        if (b == '\r') {
+            b = read();
+        }
+        if (b != ',' && b != '\n' && b != -1) {
+            throw new MalformedCsvException("unexpected character after a quoted field");
+        }
+        // a CRLF line ending leaves its \r at the end of an unquoted field
+        if (mFieldLength > 0 && mField[mFieldLength - 1] == '\r') {
+            mFieldLength--;
+        }
+        return b;
+    }
+
+    private void appendToField(int b) {
+        if (mFieldLength == mField.length) {
+            byte[] field = new byte[mField.length * 2];
+            System.arraycopy(mField, 0, field, 0, mFieldLength);
+            mField = field;
+        }
+        mField[mFieldLength++] = (byte) b;
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mInput.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition++] & 0xFF;
+    }
+
+    private boolean fieldEquals(byte[] value) {
+        if (mFieldLength != value.length) {
+            return false;
+        }
+        for (int i = 0; i < mFieldLength; i++) {
+            if (mField[i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a decimal number like "-12.345" or "1.2e-3" from the field.
+     */
+    private double parseDouble() throws MalformedCsvException {
+        int i = 0;
+        boolean negative = false;
+        if (mField[i] == '-' || mField[i] == '+') {
+            negative = mField[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean point = false;
+        for (; i < mFieldLength; i++) {
+            byte b = mField[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (point) {
+                    decimals++;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        int exponent = 0;
+        if (i < mFieldLength && (mField[i] == 'e' || mField[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < mFieldLength && (mField[i] == '-' || mField[i] == '+')) {
+                negativeExponent = mField[i] == '-';
+                i++;
+            }
+            for (; i < mFieldLength && mField[i] >= '0' && mField[i] <= '9'; i++) {
+                exponent = exponent * 10 + (mField[i] - '0');
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (digits == 0 || i != mFieldLength) {
+            throw new MalformedCsvException("bad number "
+                    + new String(mField, 0, mFieldLength, UTF_8));
+        }
+
+        int scale = exponent - decimals;
+        double value;
+        if (digits <= 15 && scale >= -22 && scale <= 22) {
+            value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale]
+                    : mantissa * POWERS_OF_TEN[scale];
+        } else {
+            // too many digits to be exact, rare enough to let the JDK do it
+            return Double.parseDouble(new String(mField, 0, mFieldLength, UTF_8));
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Decodes an ISO 8601 UTC time like "2017-06-20T12:34:56.789Z" into milliseconds
+     * (UNIX time). The fraction of second is optional.
+     */
+    private long parseTime() throws MalformedCsvException {
+        if (mFieldLength < 20 || mField[4] != '-' || mField[7] != '-' || mField[10] != 'T'
+                || mField[13] != ':' || mField[16] != ':' || mField[mFieldLength - 1] != 'Z') {
+            throw new MalformedCsvException("bad time "
+                    + new String(mField, 0, mFieldLength, UTF_8));
+        }
+        int year = digits(0, 4);
+        int month = digits(5, 2);
+        int day = digits(8, 2);
+        int hour = digits(11, 2);
+        int minute = digits(14, 2);
+        int second = digits(17, 2);
+        int millis = 0;
+        if (mField[19] == '.') {
+            // only the first three digits of the fraction count
+            int fractionDigits = Math.min(3, mFieldLength - 21);
+            millis = digits(20, fractionDigits);
+            for (int i = fractionDigits; i < 3; i++) {
+                millis *= 10;
+            }
+        }
+        long days = daysFromCivil(year, month, day);
+        return (((days * 24 + hour) * 60 + minute) * 60 + second) * 1000 + millis;
+    }
+
+    private int digits(int start, int count) throws MalformedCsvException {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = mField[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new MalformedCsvException("bad time "
+                        + new String(mField, 0, mFieldLength, UTF_8));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the number of days since 1970-01-01 of a date of the proleptic Gregorian calendar
+     * (H. Hinnant's days_from_civil).
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.android.quakereport;
+
+import android.app.LoaderManager;
+import android.content.Loader;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+
+/**
+ * Dashboard of the saved regions (see the dashboard_regions array), all loaded at once.
+ */
+
+public class DashboardActivity extends AppCompatActivity implements
+        LoaderManager.LoaderCallbacks<ArrayList<RegionScheduler.RegionResult>> {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = DashboardActivity.class.getName();
+
+    private static final int DASHBOARD_LOADER_ID = 1;
+
+    private RegionAdapter mAdapter;
+
+    /** TextView that is displayed when the list is empty */
+    private TextView mEmptyStateTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.dashboard_activity);
+
+        RecyclerView regionListView = (RecyclerView) findViewById(R.id.list);
+        regionListView.setLayoutManager(new LinearLayoutManager(this));
+        mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
+        mAdapter = new RegionAdapter(this);
+        regionListView.setAdapter(mAdapter);
+
+        getLoaderManager().initLoader(DASHBOARD_LOADER_ID, null, this);
+    }
+
+    @Override
+    public Loader<ArrayList<RegionScheduler.RegionResult>> onCreateLoader(int i, Bundle bundle) {
+        ArrayList<RegionQuery> queries = new ArrayList<>();
+        for (String saved : getResources().getStringArray(R.array.dashboard_regions)) {
+            try {
+                queries.add(RegionQuery.parse(saved));
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG_TAG, "Skipped a saved region", e);
+            }
+        }
+        return new DashboardLoader(this, queries, EarthquakeActivity.USGS_REQUEST_URL,
+                EarthquakeActivity.getFormat(this));
+    }
+
+    @Override
+    public void onLoadFinished(Loader<ArrayList<RegionScheduler.RegionResult>> loader,
+                               ArrayList<RegionScheduler.RegionResult> results) {
+        findViewById(R.id.loading_spinner).setVisibility(View.GONE);
+        if (results != null && !results.isEmpty()) {
+            mEmptyStateTextView.setVisibility(View.GONE);
+            mAdapter.setResults(results);
+        } else {
+            mEmptyStateTextView.setText(R.string.no_earthquakes);
+            mEmptyStateTextView.setVisibility(View.VISIBLE);
+            mAdapter.clear();
+        }
+    }
+
+    @Override
+    public void onLoaderReset(Loader<ArrayList<RegionScheduler.RegionResult>> loader) {
+        mAdapter.clear();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads every saved query of the dashboard through the shared {@link RegionScheduler}.
+ */
+
+public class DashboardLoader extends AsyncTaskLoader<ArrayList<RegionScheduler.RegionResult>> {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = DashboardLoader.class.getName();
+
+    /** Requests running at once for the whole dashboard, whatever the number of regions */
+    private static final int MAX_CONNECTIONS = 4;
+
+    /** A result younger than this is shown again without reloading, in milliseconds */
+    private static final long RESULT_FRESHNESS = 5 * 60 * 1000;
+
+    /** Shared by every dashboard load, created on first use */
+    private static RegionScheduler sScheduler;
+
+    private final List<RegionQuery> mQueries;
+    private final String mBaseUrl;
+    private final String mFormat;
+
+    /** Last delivered result, kept for the next start of the loader */
+    private ArrayList<RegionScheduler.RegionResult> mResults;
+
+    /** When the last result was loaded, 0 if it was not */
+    private volatile long mLoadedAt;
+
+    /** Cancellation of the load running in the background, null if none */
+    private volatile LoadCancellation mCancellation;
+
+    /**
+     * Constructor
+     * @param queries saved queries, in the order they are shown
+     * @param baseUrl the USGS query endpoint
+     * @param format value of the "format" parameter
+     */
+    public DashboardLoader(Context context, List<RegionQuery> queries, String baseUrl,
+                           String format) {
+        super(context);
+        mQueries = queries;
+        mBaseUrl = baseUrl;
+        mFormat = format;
+    }
+
+    private static synchronized RegionScheduler getScheduler() {
+        if (sScheduler == null) {
+            sScheduler = new RegionScheduler(QueryUtils.getDefaultHttpClient(), MAX_CONNECTIONS);
+        }
+        return sScheduler;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mResults != null) {
+            deliverResult(mResults);
+        }
+        boolean fresh = System.currentTimeMillis() - mLoadedAt < RESULT_FRESHNESS;
+        if (takeContentChanged() || mResults == null || !fresh) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void deliverResult(ArrayList<RegionScheduler.RegionResult> results) {
+        mResults = results;
+        super.deliverResult(results);
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        LoadCancellation cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+        mResults = null;
+        mLoadedAt = 0;
+    }
+
+    @Override
+    public ArrayList<RegionScheduler.RegionResult> loadInBackground() {
+        Log.i(LOG_TAG, "TEST: loadInBackground " + mQueries.size() + " regions");
+        LoadMetrics.Trace trace = LoadMetrics.begin();
+        LoadCancellation cancellation = new LoadCancellation();
+        mCancellation = cancellation;
+        // whole minutes, so the URLs of two loads in the same minute hit the HTTP cache
+        long now = System.currentTimeMillis() / 60000 * 60000;
+        ArrayList<RegionScheduler.RegionResult> results = getScheduler().load(mQueries,
+                mBaseUrl, mFormat, now, trace, cancellation);
+        trace.finish();
+        if (cancellation.isCanceled()) {
+            return null;
+        }
+        mLoadedAt = System.currentTimeMillis();
+        return results;
+    }
+}
@@ -6,6 +6,9 @@ package com.example.android.quakereport;
 
 public class Earthquake {
 
+    // USGS event id of the earthquake (e.g. "us10009yfr")
+    private String mId;
+
     // magnitude of the earthquake
     private double mMagnitude;
 
@@ -15,15 +18,50 @@ public class Earthquake {
     // date of the earthquake in milliseconds (UNIX time)
     private long mDate;
 
+    // time of the last update of the event in milliseconds (UNIX time)
+    private long mUpdated;
+
     // website uri of the earthquake
     private String mWeb;
 
+    // epicenter longitude and latitude in degrees, NaN if unknown
+    private double mLongitude;
+    private double mLatitude;
+
+    // depth of the hypocenter in kilometers, NaN if unknown
+    private double mDepth;
+
+    // true if USGS deleted the event (only reported when asked with "includedeleted")
+    private boolean mDeleted;
+
     // constructor of the class
-    public Earthquake (double magnitude, String location, long date, String web){
+    public Earthquake (String id, double magnitude, String location, long date, String web){
+        this(id, magnitude, location, date, date, web, false, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    // constructor of the class, with the update time and status needed for syncing
+    // and the coordinates of the event
+    public Earthquake (String id, double magnitude, String location, long date, long updated,
+                       String web, boolean deleted,
+                       double longitude, double latitude, double depth){
+        mId = id;
         mMagnitude = magnitude;
         mLocation = location;
         mDate = date;
+        mUpdated = updated;
         mWeb = web;
+        mDeleted = deleted;
+        mLongitude = longitude;
+        mLatitude = latitude;
+        mDepth = depth;
+    }
+
+    /**
+     * Gets the USGS event id of the earthquake.
+     * @return current value of mId.
+     */
+    public String getId(){
+        return mId;
     }
 
     /**
@@ -50,6 +88,14 @@ public class Earthquake {
         return mDate;
     }
 
+    /**
+     * Gets the time of the last update of the earthquake.
+     * @return the current value of mUpdated.
+     */
+    public long getUpdated(){
+        return mUpdated;
+    }
+
     /**
      * Gets the web page uri of the earthquake
      */
@@ -57,4 +103,36 @@ public class Earthquake {
         return mWeb;
     }
 
+    /**
+     * Gets the longitude of the epicenter in degrees.
+     * @return the current value of mLongitude.
+     */
+    public double getLongitude(){
+        return mLongitude;
+    }
+
+    /**
+     * Gets the latitude of the epicenter in degrees.
+     * @return the current value of mLatitude.
+     */
+    public double getLatitude(){
+        return mLatitude;
+    }
+
+    /**
+     * Gets the depth of the hypocenter in kilometers.
+     * @return the current value of mDepth.
+     */
+    public double getDepth(){
+        return mDepth;
+    }
+
+    /**
+     * Tells if the event was deleted by USGS.
+     * @return the current value of mDeleted.
+     */
+    public boolean isDeleted(){
+        return mDeleted;
+    }
+
 }
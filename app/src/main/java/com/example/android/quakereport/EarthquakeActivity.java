@@ -23,23 +23,27 @@ import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.net.http.HttpResponseCache;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 
 //import android.os.AsyncTask;
 
 public class EarthquakeActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<ArrayList<Earthquake>> {
+        LoaderManager.LoaderCallbacks<EarthquakeTable> {
 
     /**
      * Constant value for the earthquake loader ID. We can choose any integer.
@@ -54,15 +58,30 @@ public class EarthquakeActivity extends AppCompatActivity implements
      *  as a query parameter. We could do this with some tricky string concatenation, but there's a
      *  better way using the Uri.Builder class.
      */
-    private static final String USGS_REQUEST_URL =
+    static final String USGS_REQUEST_URL =
             // ?format=geojson&eventtype=earthquake&orderby=time&minmag=3&limit=100
             "https://earthquake.usgs.gov/fdsnws/event/1/query";
 
+    /**
+     * Size limit of the disk cache for the USGS responses. When it is full, the least recently
+     * used responses are evicted.
+     */
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024; // 10 MiB
+
+    /** Magnitude bucket from which the earthquakes are counted in the subtitle */
+    private static final int STRONG_MAGNITUDE = 5;
+
     private EarthquakeAdapter mAdapter;
 
     /** TextView that is displayed when the list is empty */
     private TextView mEmptyStateTextView;
 
+    /** Last result of the loader, the base of the live mode */
+    private EarthquakeTable mEarthquakes;
+
+    /** Polls the summary feeds while the live mode is on and the activity is started */
+    private LiveTail mLiveTail;
+
 
 
     @Override
@@ -70,47 +89,21 @@ public class EarthquakeActivity extends AppCompatActivity implements
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
-        mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-        earthquakeListView.setEmptyView(mEmptyStateTextView);
-        // Create a new adapter that takes an empty list of earthquakes as input
-        mAdapter = new EarthquakeAdapter(this, new ArrayList<Earthquake>());
-
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        earthquakeListView.setAdapter(mAdapter);
-
-        // Get a reference to the ConnectivityManager to check state of network connectivity
-        ConnectivityManager connectivityManager = (ConnectivityManager)
-                this.getSystemService(Context.CONNECTIVITY_SERVICE);
-        // Get details on the currently active default data network
-        NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
-
-        // If there is a network connection, fetch data
-        if (activeNetwork != null && activeNetwork.isConnected()) {
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            Log.i(LOG_TAG, "TEST: initLoader");
-            loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
-        } else {
-            // Otherwise display error
-            // First, hide loading indicator so error message will be visible
-            View loadingSpinner = findViewById(R.id.loading_spinner);
-            loadingSpinner.setVisibility(View.GONE);
-            // Update empty state with no connection error message
-            mEmptyStateTextView.setText(R.string.no_internet);
-        }
+        installHttpCache();
+        // stage timings of every load, only in debug builds (see metrics.log in the files dir)
+        LoadMetrics.setEnabled(BuildConfig.DEBUG, getFilesDir());
+        // keeps the store current while the app is closed (API 21+)
+        BackgroundSync.schedule(this);
 
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        earthquakeListView.setLayoutManager(new LinearLayoutManager(this));
+        earthquakeListView.setHasFixedSize(true);
+        mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
+        // Create a new adapter, it starts with an empty table of earthquakes
+        mAdapter = new EarthquakeAdapter(new EarthquakeAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // find the current earthquake that was clicked on
-                Earthquake currentEarthquake = mAdapter.getItem(position); // earthquakes.get(position) also worked
-
+            public void onItemClick(EarthquakeRow currentEarthquake) {
                 // Convert the String URL into URI object (to pass into the Intent constructor)
                 Uri earthquakeUri = Uri.parse(currentEarthquake.getWeb());
 
@@ -125,6 +118,36 @@ public class EarthquakeActivity extends AppCompatActivity implements
 //                startActivity(new Intent(android.content.Intent.ACTION_VIEW, Uri.parse(webUrl)));
             }
         });
+        // RecyclerView has no empty view, show it whenever the adapter becomes empty
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        earthquakeListView.setAdapter(mAdapter);
+
+        // Get a reference to the LoaderManager, in order to interact with loaders.
+        LoaderManager loaderManager = getLoaderManager();
+        // Initialize the loader. Pass in the int ID constant defined above and pass in null for
+        // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
+        // because this activity implements the LoaderCallbacks interface).
+        // The loader is started even without network, it shows the locally stored earthquakes.
+        Log.i(LOG_TAG, "TEST: initLoader");
+        loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
 
 //        NetTask task = new NetTask();
 //
@@ -133,6 +156,61 @@ public class EarthquakeActivity extends AppCompatActivity implements
 
     }
 
+    /**
+     * Coming back from SettingsActivity, the loader is restarted only if the query changed,
+     * otherwise it shows its last result again.
+     */
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        Loader<EarthquakeTable> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+        if (loader instanceof EarthquakeLoader
+                && !buildQueryUrl(this).equals(((EarthquakeLoader) loader).getUrl())) {
+            Log.i(LOG_TAG, "TEST: restartLoader");
+            getLoaderManager().restartLoader(EARTHQUAKE_LOADER_ID, null, this);
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (isLiveModeOn()) {
+            startLiveTail();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        stopLiveTail();
+        // write the cache journal to the disk, so the next start can reuse the cached responses
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        if (cache != null) {
+            Log.i(LOG_TAG, "HTTP cache hits: " + cache.getHitCount()
+                    + ", network requests: " + cache.getNetworkCount());
+            cache.flush();
+        }
+        Log.i(LOG_TAG, "TEST: load metrics\n" + LoadMetrics.dump());
+    }
+
+    /**
+     * Installs a disk cache for every HttpURLConnection of the app (once per process).
+     * Responses are keyed by their URL, so each query built in onCreateLoader() gets its own
+     * entry. The connection stores ETag/Last-Modified, sends If-None-Match/If-Modified-Since
+     * when the cached copy gets stale, and serves the body from the disk on a 304.
+     */
+    private void installHttpCache() {
+        if (HttpResponseCache.getInstalled() != null) {
+            return;
+        }
+        try {
+            File httpCacheDir = new File(getCacheDir(), "http");
+            HttpResponseCache.install(httpCacheDir, HTTP_CACHE_SIZE);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "HTTP response cache installation failed", e);
+        }
+    }
+
     /**
      * And override a couple methods in EarthquakeActivity.java to inflate the menu,
      * and respond when users click on our menu item:
@@ -143,6 +221,23 @@ public class EarthquakeActivity extends AppCompatActivity implements
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_live).setChecked(isLiveModeOn());
+        // type-ahead search of the places, the list is filtered on every key
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // already filtered while typing
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mAdapter.getFilter().filter(newText);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -156,6 +251,28 @@ public class EarthquakeActivity extends AppCompatActivity implements
             startActivity(settingsIntent);
             return true;
         }
+        if (id == R.id.action_dashboard) {
+            startActivity(new Intent(this, DashboardActivity.class));
+            return true;
+        }
+        if (id == R.id.action_live) {
+            boolean liveModeOn = !item.isChecked();
+            item.setChecked(liveModeOn);
+            PreferenceManager.getDefaultSharedPreferences(this).edit()
+                    .putBoolean(getString(R.string.live_mode_key), liveModeOn)
+                    .apply();
+            if (liveModeOn) {
+                startLiveTail();
+            } else {
+                stopLiveTail();
+                // back to the plain query result
+                if (mEarthquakes != null) {
+                    mAdapter.setEarthquakes(mEarthquakes);
+                    showStats(mEarthquakes);
+                }
+            }
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
@@ -168,58 +285,168 @@ public class EarthquakeActivity extends AppCompatActivity implements
      * @return
      */
     @Override
-    public Loader<ArrayList<Earthquake>> onCreateLoader(int i, Bundle bundle) {
+    public Loader<EarthquakeTable> onCreateLoader(int i, Bundle bundle) {
         Log.i(LOG_TAG, "TEST: onCreateLoader");
+        return new EarthquakeLoader(this, buildQueryUrl(this));
+    }
+
+    /**
+     * Builds the USGS query URL from the preferences, also used by the background sync.
+     */
+    static String buildQueryUrl(Context context) {
         // get the preferences' values to update query URL
         // cf. SettingsActivity bindPreferenceSummaryToValue(Preference preference)
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         // preference for min. magnitude
         String minMagnitude = sharedPrefs.getString(
-                getString(R.string.settings_min_magnitude_key),
-                getString(R.string.settings_min_magnitude_default)
+                context.getString(R.string.settings_min_magnitude_key),
+                context.getString(R.string.settings_min_magnitude_default)
         );
         // preference for order the list of earthquakes by
         String orderBy = sharedPrefs.getString(
-                getString(R.string.settings_order_by_key),
-                getString(R.string.settings_order_by_default)
+                context.getString(R.string.settings_order_by_key),
+                context.getString(R.string.settings_order_by_default)
         );
 
+        // wire format, CSV is smaller and has a faster parser
+        String format = getFormat(context);
+
         // create base Uri
         Uri baseUri = Uri.parse(USGS_REQUEST_URL);
         Uri.Builder uriBuilder = baseUri.buildUpon();
 
         // add query parameters
-        uriBuilder.appendQueryParameter("format", "geojson");
+        uriBuilder.appendQueryParameter("format", format);
         uriBuilder.appendQueryParameter("limit", "100");
         uriBuilder.appendQueryParameter("minmag", minMagnitude);
         uriBuilder.appendQueryParameter("orderby", orderBy);
 
-        return new EarthquakeLoader(this, uriBuilder.toString());
+        return uriBuilder.toString();
+    }
+
+    /**
+     * Gets the wire format of the preferences, the value of the "format" query parameter.
+     */
+    static String getFormat(Context context) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return sharedPrefs.getString(
+                context.getString(R.string.settings_format_key),
+                context.getString(R.string.settings_format_default)
+        );
     }
 
     @Override
-    public void onLoadFinished(Loader<ArrayList<Earthquake>> loader, ArrayList<Earthquake> earthquakes) {
+    public void onLoadFinished(Loader<EarthquakeTable> loader, EarthquakeTable earthquakes) {
         Log.i(LOG_TAG, "TEST: onLoadFinished");
         View loadingSpinner = findViewById(R.id.loading_spinner);
         loadingSpinner.setVisibility(View.GONE);
 
-        // Set empty state text to display "No earthquakes found."
-        mEmptyStateTextView.setText(R.string.no_earthquakes);
+        if (isConnected()) {
+            // Set empty state text to display "No earthquakes found."
+            mEmptyStateTextView.setText(R.string.no_earthquakes);
+        } else {
+            // Nothing stored and nothing downloaded, update empty state with no connection error
+            mEmptyStateTextView.setText(R.string.no_internet);
+        }
+
+        // If there is a valid table of {@link Earthquake}s, then show it instead of the
+        // previous earthquake data. Only the changed rows of the RecyclerView are updated.
+        mEarthquakes = earthquakes;
+        if (earthquakes != null && mLiveTail != null) {
+            // shown once the live events are merged into it
+            mLiveTail.setBase(earthquakes);
+        } else if (earthquakes != null) {
+            mAdapter.setEarthquakes(earthquakes);
+            showStats(earthquakes);
+        } else {
+            mAdapter.clear();
+            showStats(null);
+        }
 
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
 
-        // If there is a valid list of {@link Earthquake}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (earthquakes != null && !earthquakes.isEmpty()) {
-            mAdapter.addAll(earthquakes);
+    }
+
+    private boolean isLiveModeOn() {
+        return PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(getString(R.string.live_mode_key), false);
+    }
+
+    /**
+     * Starts polling the summary feeds, the query may have changed since the last start.
+     */
+    private void startLiveTail() {
+        if (mLiveTail != null) {
+            return;
+        }
+        mLiveTail = new LiveTail(QueryUtils.getDefaultHttpClient(), buildQueryUrl(this),
+                new EarthquakeFormatter(MagnitudeColors.resolve(this)), new LiveTail.Listener() {
+                    @Override
+                    public void onLiveUpdate(EarthquakeTable earthquakes) {
+                        // only the new and revised rows are dispatched
+                        mAdapter.setEarthquakes(earthquakes);
+                        showStats(earthquakes);
+                    }
+                });
+        mLiveTail.start();
+        if (mEarthquakes != null) {
+            mLiveTail.setBase(mEarthquakes);
         }
+    }
 
+    private void stopLiveTail() {
+        if (mLiveTail != null) {
+            mLiveTail.stop();
+            mLiveTail = null;
+        }
+    }
 
+    /**
+     * Shows the summary of the earthquakes below the title: the events of the last 24 hours
+     * and the strong ones, from the stats computed with the table.
+     */
+    private void showStats(EarthquakeTable earthquakes) {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar == null) {
+            return;
+        }
+        EarthquakeStats stats = earthquakes != null ? earthquakes.getStats() : null;
+        if (stats == null || stats.getCount() == 0) {
+            actionBar.setSubtitle(null);
+            return;
+        }
+        int strongCount = 0;
+        for (int bucket = STRONG_MAGNITUDE; bucket < EarthquakeStats.MAGNITUDE_BUCKETS;
+             bucket++) {
+            strongCount += stats.getMagnitudeCount(bucket);
+        }
+        long dayAgo = System.currentTimeMillis() - EarthquakeStats.DAY;
+        actionBar.setSubtitle(getString(R.string.list_stats,
+                stats.getCountSince(dayAgo), strongCount, STRONG_MAGNITUDE));
+    }
+
+    /**
+     * Shows the empty state text only when there is nothing in the list.
+     */
+    private void updateEmptyView() {
+        mEmptyStateTextView.setVisibility(
+                mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Checks the state of network connectivity.
+     * @return true if there is a network connection to fetch data with
+     */
+    private boolean isConnected() {
+        // Get a reference to the ConnectivityManager to check state of network connectivity
+        ConnectivityManager connectivityManager = (ConnectivityManager)
+                this.getSystemService(Context.CONNECTIVITY_SERVICE);
+        // Get details on the currently active default data network
+        NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected();
     }
 
     @Override
-    public void onLoaderReset(Loader<ArrayList<Earthquake>> loader) {
+    public void onLoaderReset(Loader<EarthquakeTable> loader) {
         Log.i(LOG_TAG, "TEST: onLoaderReset");
         // Loader reset, so we can clear out our existing data.
         mAdapter.clear();
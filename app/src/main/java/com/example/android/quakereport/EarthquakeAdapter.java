@@ -1,205 +1,270 @@
 package com.example.android.quakereport;
 
-import android.app.Activity;
 import android.graphics.drawable.GradientDrawable;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-import android.support.v4.content.ContextCompat;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 
 /**
- * Custom ArrayAdapter for an ArrayList of custom Earthquake objects.
+ * Custom RecyclerView adapter for an {@link EarthquakeTable} rendered by the loader.
+ * All the formatting is done on the loader thread, binding a row only copies the prepared
+ * {@link EarthquakeRow} values into the views of the item.
+ * A new table is compared with the displayed one by event id on a background thread, and only
+ * the inserted, changed or removed rows are dispatched to the RecyclerView.
+ * {@link #getFilter()} narrows the list to the places with a word starting with the typed text,
+ * through the {@link PlaceIndex} of the table; a new table is filtered with the same text.
  */
 
-public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
+public class EarthquakeAdapter extends RecyclerView.Adapter<EarthquakeAdapter.ViewHolder>
+        implements Filterable {
+
+    /**
+     * Called when a list item is clicked.
+     */
+    public interface OnItemClickListener {
+        void onItemClick(EarthquakeRow row);
+    }
+
+    /** Computes the diffs, one at a time, off the main thread */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final OnItemClickListener mOnItemClickListener;
+
+    /** Earthquakes displayed, rendered in the background */
+    private EarthquakeTable mEarthquakes = new EarthquakeTable();
+
+    /** Earthquakes set, before the filter, read by the filter thread */
+    private volatile EarthquakeTable mAllEarthquakes = mEarthquakes;
+
+    /** Text of the last filtering, empty if the list is not filtered */
+    private volatile String mQuery = "";
+
+    private PlaceFilter mFilter;
+
+    /** Increased for each new table, a diff finishing after a newer table was set is dropped */
+    private int mGeneration;
 
     /**
      * Constructor
-     * @param context
-     * @param earthquakes list of Earthquake.java objects to be displayed
+     * @param onItemClickListener listener of the clicks on list items
      */
-    public EarthquakeAdapter(Activity context, ArrayList<Earthquake> earthquakes){
-        super(context, 0, earthquakes);
+    public EarthquakeAdapter(OnItemClickListener onItemClickListener) {
+        mOnItemClickListener = onItemClickListener;
+    }
+
+    /**
+     * Replaces the earthquakes, once filtered and once the difference is computed.
+     * Must be called on the main thread.
+     * @param earthquakes table of earthquakes, already rendered
+     */
+    public void setEarthquakes(EarthquakeTable earthquakes) {
+        mAllEarthquakes = earthquakes;
+        if (mQuery.isEmpty() || earthquakes.isEmpty()) {
+            show(earthquakes);
+        } else {
+            getFilter().filter(mQuery);
+        }
     }
 
-    @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+    public Filter getFilter() {
+        if (mFilter == null) {
+            mFilter = new PlaceFilter();
+        }
+        return mFilter;
+    }
 
-        // pass in the custom layout for a list item
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(R.layout.list_item,
-                    parent, false);
+    /**
+     * Replaces the displayed earthquakes, once the difference is computed.
+     */
+    private void show(final EarthquakeTable earthquakes) {
+        final int generation = ++mGeneration;
+        final EarthquakeTable oldEarthquakes = mEarthquakes;
+        if (oldEarthquakes.isEmpty() || earthquakes.isEmpty()) {
+            // nothing to compare, everything is inserted or removed
+            mEarthquakes = earthquakes;
+            notifyDataSetChanged();
+            return;
         }
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff =
+                        DiffUtil.calculateDiff(new TableDiff(oldEarthquakes, earthquakes), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mEarthquakes = earthquakes;
+                        diff.dispatchUpdatesTo(EarthquakeAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Removes every earthquake from the list.
+     */
+    public void clear() {
+        setEarthquakes(new EarthquakeTable());
+    }
+
+    @Override
+    public int getItemCount() {
+        return mEarthquakes.size();
+    }
+
+    /**
+     * Gets the rendered row at the position.
+     */
+    public EarthquakeRow getItem(int position) {
+        return mEarthquakes.getRow(position);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // pass in the custom layout for a list item, the views are only looked up once
+        View listItemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item,
+                parent, false);
+        return new ViewHolder(listItemView);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        // get current row and copy its prepared values
+        EarthquakeRow currentRow = getItem(position);
+        holder.magnitude.setText(currentRow.getMagnitude());
+        holder.magnitudeCircle.setColor(currentRow.getMagnitudeColor());
+        holder.locationOffset.setText(currentRow.getLocationOffset());
+        holder.location.setText(currentRow.getPrimaryLocation());
+        holder.date.setText(currentRow.getDate());
+        holder.time.setText(currentRow.getTime());
+        // the first row bound after a load is when the user sees the result
+        LoadMetrics.onRowBound();
+    }
 
-        // get current Earthquake.java element
-        Earthquake currentEarthquake = getItem(position);
-
-        /**
-         * Magnitude data
-         */
-        // Initialize new DecimalFormat instance with the desired pattern, on decimal
-        DecimalFormat magFormatter = new DecimalFormat("0.0");
-        // format the data from the Earthquake.java object with the DecimalFormat instance
-        // (magFormatter) and store it in a String variable, DecimalFormat.format(double d)
-        String formattedMag = magFormatter.format(currentEarthquake.getMagnitude());
-        // Find the vie you want to show the magnitude value in
-        TextView textViewMagnitude = (TextView) listItemView.findViewById(R.id.textViewMagnitude);
-        // set the magnitude value (now formatted and store in String formattedMag) on that vie
-        textViewMagnitude.setText(formattedMag);
-        /**
-         * Magnitude background
-         * Set the proper background color on the magnitude circle.
-         */
-        // Fetch the background from the TextView, which is a GradientDrawable.
-        GradientDrawable magnitudeCircle = (GradientDrawable) textViewMagnitude.getBackground();
-        // Get the appropriate background color based on the current earthquake magnitude
-        int magnitudeColor = getMagnitudeColor(currentEarthquake.getMagnitude());
-        // Set the color on the magnitude circle
-        magnitudeCircle.setColor(magnitudeColor);
-
-        /**
-         * Location
-         */
+    /**
+     * Views of a list item.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView magnitude;
+        // background of the magnitude TextView, a GradientDrawable
+        final GradientDrawable magnitudeCircle;
         // TextView for 1st part of location ("xxkm N of ", OR "Near the ")
-        TextView textViewLocationOffset =
-                (TextView) listItemView.findViewById(R.id.textViewLocationOffset);
+        final TextView locationOffset;
         // TextView for 2nd half of location ("Budapest, Hungary")
-        TextView textViewLocation = (TextView) listItemView.findViewById(R.id.textViewLocation);
-        // String variables for storing 1st and 2nd half of the location
-        String offsetLocation, primaryLocation;
-        // original not split location information
-        String location = currentEarthquake.getLocation();
-        // see if there is a "xxkm N of " part in the location information
-        if (location.contains("of")){
-            //get the index of the firs "f" character
-            int splitPoint = location.indexOf("f");
-            //increase it by one, as substring() 2nd argument is exclusive, we need the "f"
-            splitPoint++;
-            //create substring for the 1st half of the location
-            offsetLocation = location.substring(0, splitPoint);
-            //set it on the appropriate TextView
-            textViewLocationOffset.setText(offsetLocation);
-            //increase index further by one, as substring() 1st argument is inclusive,
-            // we do not need the space
-            splitPoint++;
-            //create substring for the 2nd half of the location
-            primaryLocation = location.substring(splitPoint);
-            //set it on the appropriate TextView
-            textViewLocation.setText(primaryLocation);
-
-        // if not, 1st half, for UI purposes, will be "Near the "
-        } else {
-            offsetLocation = "Near the ";
-            //set offsetLocation on the appropriate TextView
-            textViewLocationOffset.setText(offsetLocation);
-            //set original location data on the second TextView
-            textViewLocation.setText(location);
+        final TextView location;
+        final TextView date;
+        final TextView time;
+
+        ViewHolder(View listItemView) {
+            super(listItemView);
+            magnitude = (TextView) listItemView.findViewById(R.id.textViewMagnitude);
+            magnitudeCircle = (GradientDrawable) magnitude.getBackground();
+            locationOffset = (TextView) listItemView.findViewById(R.id.textViewLocationOffset);
+            location = (TextView) listItemView.findViewById(R.id.textViewLocation);
+            date = (TextView) listItemView.findViewById(R.id.textViewDate);
+            time = (TextView) listItemView.findViewById(R.id.textViewTime);
+            listItemView.setOnClickListener(this);
         }
 
-        // alternative solution of string manipulation
-//        String string = "004-034556";
-//        String[] parts = string.split("(?<=-)");
-//        String part1 = parts[0]; // 004-
-//        String part2 = parts[1]; // 034556
-
-
-        /**
-         * Date
-         */
-        // Create new Date object from the time in milliseconds of the Earthquake.java
-        Date dateObject = new Date(currentEarthquake.getDate());
-        // Initialize SimpleDateFormat instance with the desired pattern
-        SimpleDateFormat simpleDateFormatter = new SimpleDateFormat("MMM dd, yyyy");
-        // Format the date string (i.e. "Mar 3, 1984"), SimpleDateFormat.format(Date dateObject)
-        String formattedDate = simpleDateFormatter.format(dateObject);
-        // Find the TextView containing the date
-        TextView textViewDate = (TextView) listItemView.findViewById(R.id.textViewDate);
-        // Set formatted date as a string to the TextView
-        textViewDate.setText(formattedDate);
-
-        // repeat process for Time and pass in the same dateObject (UNIX time stores date and time)
-        SimpleDateFormat simpleTimeFormatter = new SimpleDateFormat("h:mm a");
-        String formattedTime = simpleTimeFormatter.format(dateObject);
-        TextView textView = (TextView) listItemView.findViewById(R.id.textViewTime);
-        textView.setText(formattedTime);
-
-        return listItemView;
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                mOnItemClickListener.onItemClick(getItem(position));
+            }
+        }
     }
 
     /**
-     * Helper method to get appropriate integer color value based on the magnitude
-     * @param magnitude earthquake magnitude
-     * @return integer color value
+     * Keeps the rows whose place has a word starting with the text, on the filter thread.
      */
-    private int getMagnitudeColor(double magnitude){
-        // feed into this variable the color resource ID which will be converted into
-        // a color integer value at the end of the method
-        int magnitudeResourceColorId;
-        // the passed in double is rounded to fit into a category and converted into an integer
-        // According to the documentation, the switch statement cannot accept a double value,
-        // so we should convert our decimal magnitude value into an integer.
-        // This means finding the closest integer less than the decimal value.
-        // The floor of the value 1.2 would be the integer 1. Informally,
-        // for a positive decimal number, you can think of it as truncating the part of the number
-        // after the decimal point.
-        int magnitudeFloor = (int) Math.floor(magnitude);
-        // the passed in magnitude (now magnitudeFloor integer) is categorized
-        switch (magnitudeFloor) {
-            case 0:
-            case 1:
-                magnitudeResourceColorId = R.color.magnitude1;
-                break;
-            case 2:
-                magnitudeResourceColorId = R.color.magnitude2;
-                break;
-            case 3:
-                magnitudeResourceColorId = R.color.magnitude3;
-                break;
-            case 4:
-                magnitudeResourceColorId = R.color.magnitude4;
-                break;
-            case 5:
-                magnitudeResourceColorId = R.color.magnitude5;
-                break;
-            case 6:
-                magnitudeResourceColorId = R.color.magnitude6;
-                break;
-            case 7:
-                magnitudeResourceColorId = R.color.magnitude7;
-                break;
-            case 8:
-                magnitudeResourceColorId = R.color.magnitude8;
-                break;
-            case 9:
-                magnitudeResourceColorId = R.color.magnitude9;
-                break;
-            case 10:
-                magnitudeResourceColorId = R.color.magnitude10plus;
-                break;
-            default:
-                magnitudeResourceColorId = R.color.magnitude1;
-                break;
+    private class PlaceFilter extends Filter {
+
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            String query = constraint != null ? constraint.toString().trim() : "";
+            mQuery = query;
+            EarthquakeTable earthquakes = mAllEarthquakes;
+            EarthquakeTable filtered = earthquakes;
+            if (!query.isEmpty()) {
+                // built by the loader, unless the table comes from an early result
+                earthquakes.indexPlaces();
+                boolean[] matches = earthquakes.getPlaceIndex().search(query, true);
+                filtered = new EarthquakeTable();
+                for (int row = 0; row < earthquakes.size(); row++) {
+                    if (matches[earthquakes.getPlaceId(row)]) {
+                        // with its rendered values
+                        filtered.addRowFrom(earthquakes, row);
+                    }
+                }
+            }
+            FilterResults results = new FilterResults();
+            results.values = new EarthquakeTable[]{earthquakes, filtered};
+            results.count = filtered.size();
+            return results;
         }
 
-        // Remember that color resource IDs just point to the resource we defined,
-        // but not the value of the color.
-        // you refer to color with a resource ID which is an integer, you still have to convert
-        // them to an integer though:
-        // call ContextCompat.getColor() to convert the color resource ID into
-        // an actual integer color value
-        // int magnitude1Color = ContextCompat.getColor(getContext(), R.color.magnitude1);
-        return ContextCompat.getColor(getContext(), magnitudeResourceColorId);
+        @Override
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            EarthquakeTable[] tables = (EarthquakeTable[]) results.values;
+            if (tables[0] != mAllEarthquakes) {
+                // a new table was set meanwhile, it is filtered instead
+                filter(constraint);
+                return;
+            }
+            show(tables[1]);
+        }
+    }
+
+    /**
+     * Compares two rendered tables, rows are the same earthquake when their event ids match.
+     */
+    private static class TableDiff extends DiffUtil.Callback {
+
+        private final EarthquakeTable mOld;
+        private final EarthquakeTable mNew;
+
+        TableDiff(EarthquakeTable oldEarthquakes, EarthquakeTable newEarthquakes) {
+            mOld = oldEarthquakes;
+            mNew = newEarthquakes;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.getId(oldPosition).equals(mNew.getId(newPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return mOld.getRow(oldPosition).hasSameContents(mNew.getRow(newPosition));
+        }
     }
 }
@@ -0,0 +1,152 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes {@link EarthquakeStats} in one pass over the columns of an {@link EarthquakeTable},
+ * every requested aggregate at once. A large table is split into chunks of rows aggregated in
+ * parallel, one thread per core, and the partial stats are merged in the order of the rows.
+ * The calling thread aggregates a chunk too, instead of only waiting.
+ * (A thread pool rather than a ForkJoinPool, which needs API level 21: the split is one level
+ * deep, there is nothing to steal.)
+ */
+
+public final class EarthquakeAggregator {
+
+    /** Below this number of rows per chunk, splitting costs more than it saves */
+    private static final int MIN_CHUNK_ROWS = 4096;
+
+    /** Chunks per thread, so a thread slowed down by the system does not hold the others */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static EarthquakeAggregator sInstance;
+
+    private final int mParallelism;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Constructor
+     * @param parallelism number of threads aggregating at once, the calling one included
+     */
+    EarthquakeAggregator(int parallelism) {
+        mParallelism = parallelism;
+        int threads = Math.max(1, parallelism - 1);
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "EarthquakeAggregator-" + mCount.incrementAndGet());
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+        // the threads are only kept while there is work
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the single aggregator of the app, with one thread per core.
+     */
+    public static synchronized EarthquakeAggregator getInstance() {
+        if (sInstance == null) {
+            sInstance = new EarthquakeAggregator(Runtime.getRuntime().availableProcessors());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Aggregates the table. Call it off the main thread.
+     * @param aggregates EarthquakeStats.AGGREGATE_ flags
+     * @param regions regions of AGGREGATE_REGIONS, may be empty
+     * @param now end of the region windows in milliseconds (UNIX time)
+     */
+    public EarthquakeStats aggregate(EarthquakeTable earthquakes, int aggregates,
+                                     List<RegionQuery> regions, long now) {
+        return aggregate(earthquakes, new EarthquakeStats(aggregates, regions, now));
+    }
+
+    /**
+     * Updates stats after events merged into their table. Only the removed and added rows are
+     * read, unless a region lost its strongest event: the new strongest one is looked for in
+     * the whole table.
+     * @param stats stats of the table before the merge, changed in place
+     * @param earthquakes the table after the merge
+     * @param removed rows of the table before the merge which are not in it anymore, e.g. the
+     *                previous revision of a revised event
+     * @param added rows which are new in the table
+     */
+    public void update(EarthquakeStats stats, EarthquakeTable earthquakes,
+                       EarthquakeTable removed, EarthquakeTable added) {
+        stats.removeRows(removed, 0, removed.size());
+        stats.addRows(added, 0, added.size());
+        if (stats.hasStaleRegions()) {
+            stats.takeMaxima(aggregate(earthquakes, EarthquakeStats.AGGREGATE_REGIONS,
+                    stats.getRegions(), stats.getNow()));
+        }
+    }
+
+    /**
+     * Adds every row of the table to the empty stats.
+     */
+    private EarthquakeStats aggregate(final EarthquakeTable earthquakes,
+                                      final EarthquakeStats stats) {
+        final int size = earthquakes.size();
+        int chunkCount = Math.min(mParallelism * CHUNKS_PER_THREAD, size / MIN_CHUNK_ROWS);
+        if (chunkCount <= 1) {
+            stats.addRows(earthquakes, 0, size);
+            return stats;
+        }
+
+        // every chunk but the first one goes to the pool
+        final int chunkRows = (size + chunkCount - 1) / chunkCount;
+        List<Future<EarthquakeStats>> futures = new ArrayList<>(chunkCount - 1);
+        for (int from = chunkRows; from < size; from += chunkRows) {
+            final int chunkFrom = from;
+            futures.add(mExecutor.submit(new Callable<EarthquakeStats>() {
+                @Override
+                public EarthquakeStats call() {
+                    EarthquakeStats partial = new EarthquakeStats(stats.getAggregates(),
+                            stats.getRegions(), stats.getNow());
+                    partial.addRows(earthquakes, chunkFrom, Math.min(size, chunkFrom + chunkRows));
+                    return partial;
+                }
+            }));
+        }
+        stats.addRows(earthquakes, 0, chunkRows);
+
+        // merged in the order of the rows, the strongest event is the one of a sequential pass
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<EarthquakeStats> future = futures.get(i);
+            while (true) {
+                try {
+                    stats.merge(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    // the result has to be complete, the interruption is kept for later
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Problem aggregating the earthquakes",
+                            e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return stats;
+    }
+}
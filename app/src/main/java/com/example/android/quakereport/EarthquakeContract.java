@@ -0,0 +1,48 @@
+package com.example.android.quakereport;
+
+/**
+ * Table and column names of the local earthquake database.
+ */
+
+public final class EarthquakeContract {
+
+    // no one should create a contract object, it only holds constants
+    private EarthquakeContract() {
+    }
+
+    /**
+     * One row per USGS event.
+     */
+    public static final class EarthquakeEntry {
+
+        public static final String TABLE_NAME = "earthquakes";
+
+        // USGS event id, primary key of the table
+        public static final String COLUMN_EVENT_ID = "event_id";
+
+        // magnitude of the earthquake, REAL
+        public static final String COLUMN_MAGNITUDE = "magnitude";
+
+        // location of the earthquake, TEXT
+        public static final String COLUMN_PLACE = "place";
+
+        // date of the earthquake in milliseconds (UNIX time), INTEGER
+        public static final String COLUMN_TIME = "time";
+
+        // time of the last update in milliseconds (UNIX time), INTEGER
+        public static final String COLUMN_UPDATED = "updated";
+
+        // epicenter longitude and latitude in degrees, REAL
+        public static final String COLUMN_LONGITUDE = "longitude";
+        public static final String COLUMN_LATITUDE = "latitude";
+
+        // depth of the hypocenter in kilometers, REAL
+        public static final String COLUMN_DEPTH = "depth";
+
+        // website uri of the earthquake, TEXT
+        public static final String COLUMN_URL = "url";
+
+        private EarthquakeEntry() {
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Turns earthquakes into {@link EarthquakeRow}s. It reuses its formatters, so it is not
+ * thread safe: create one per background load.
+ * It does not use the Android framework, the colors are resolved by {@link MagnitudeColors}.
+ */
+
+public class EarthquakeFormatter {
+
+    // formatter of the magnitude, on decimal
+    private final DecimalFormat mMagnitudeFormatter = new DecimalFormat("0.0");
+    // formatters of the date and time parts of the UNIX time
+    private final SimpleDateFormat mDateFormatter = new SimpleDateFormat("MMM dd, yyyy");
+    private final SimpleDateFormat mTimeFormatter = new SimpleDateFormat("h:mm a");
+    // reused for every earthquake, setTime() instead of a new object
+    private final Date mDateObject = new Date();
+
+    // resolved colors of the magnitude buckets, index is the floor of the magnitude (0 - 10)
+    private final int[] mMagnitudeColors;
+
+    /**
+     * Constructor
+     * @param magnitudeColors color of each magnitude bucket, see {@link MagnitudeColors}
+     */
+    public EarthquakeFormatter(int[] magnitudeColors) {
+        mMagnitudeColors = magnitudeColors;
+    }
+
+    /**
+     * Formats the row of the table.
+     */
+    public EarthquakeRow format(EarthquakeTable earthquakes, int row) {
+        double magnitude = earthquakes.getMagnitude(row);
+        String location = earthquakes.getLocation(row);
+        mDateObject.setTime(earthquakes.getDate(row));
+        return new EarthquakeRow(
+                earthquakes.getId(row),
+                mMagnitudeFormatter.format(magnitude),
+                getMagnitudeColor(magnitude),
+                getLocationOffset(location),
+                getPrimaryLocation(location),
+                mDateFormatter.format(mDateObject),
+                mTimeFormatter.format(mDateObject),
+                earthquakes.getWeb(row));
+    }
+
+    /**
+     * Gets the color of the magnitude circle from the cached bucket table.
+     * @param magnitude earthquake magnitude
+     * @return integer color value
+     */
+    public int getMagnitudeColor(double magnitude) {
+        return mMagnitudeColors[getMagnitudeBucket(magnitude)];
+    }
+
+    /**
+     * Gets the bucket of the magnitude: its floor, clamped to 0 - 10. Negative magnitudes
+     * (tiny, well measured events) go with 0 and 1, the ones above 10 with "10plus".
+     */
+    public static int getMagnitudeBucket(double magnitude) {
+        // This means finding the closest integer less than the decimal value.
+        // The floor of the value 1.2 would be the integer 1.
+        int magnitudeFloor = (int) Math.floor(magnitude);
+        return Math.max(0, Math.min(10, magnitudeFloor));
+    }
+
+    /**
+     * Gets the 1st part of the location ("xxkm N of", OR "Near the ").
+     */
+    public static String getLocationOffset(String location) {
+        // see if there is a "xxkm N of " part in the location information
+        if (location.contains("of")) {
+            //get the index of the firs "f" character, increase it by one,
+            // as substring() 2nd argument is exclusive, we need the "f"
+            return location.substring(0, location.indexOf("f") + 1);
+        }
+        // if not, 1st half, for UI purposes, will be "Near the "
+        return "Near the ";
+    }
+
+    /**
+     * Gets the 2nd part of the location ("Budapest, Hungary").
+     */
+    public static String getPrimaryLocation(String location) {
+        if (location.contains("of")) {
+            // skip the "f" and the space after it
+            return location.substring(location.indexOf("f") + 2);
+        }
+        return location;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Executes the USGS requests. The default implementation is {@link UrlConnectionHttpClient},
+ * a fake one can be handed to {@link EarthquakeLoader} to run without network.
+ * Implementations have to be safe to use from several threads at once.
+ */
+
+public interface EarthquakeHttpClient {
+
+    /**
+     * Sends a GET request. The caller has to close the returned response.
+     * @param url the request URL
+     * @return the response, its body is not read yet
+     */
+    Response get(URL url) throws IOException;
+
+    /**
+     * Sends a conditional GET request, past the HTTP cache: the server answers 304 without a
+     * body when the resource still matches the copy of the caller.
+     * @param eTag ETag of the copy of the caller, null if it has none
+     * @param lastModified Last-Modified of the copy of the caller, null if it has none
+     */
+    Response getIfChanged(URL url, String eTag, String lastModified) throws IOException;
+
+    /**
+     * Response of a request. Closing it releases the connection for reuse.
+     */
+    interface Response extends Closeable {
+
+        /**
+         * Gets the HTTP status code, e.g. 200.
+         */
+        int getCode() throws IOException;
+
+        /**
+         * Gets the Content-Encoding of the body ("gzip", "deflate"), or null if it is not encoded.
+         */
+        String getContentEncoding();
+
+        /**
+         * Gets the value of a response header, e.g. "ETag", or null if there is none.
+         */
+        String getHeader(String name);
+
+        /**
+         * Gets the body, as it was transferred (it is not decompressed).
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * Tells if the body comes from the HTTP cache (fresh, or revalidated with a 304).
+         */
+        boolean isFromCache();
+
+        /**
+         * Closes the connection from any thread, a read blocked on the body fails at once.
+         * The connection is not reused. The response still has to be closed.
+         */
+        void abort();
+    }
+}
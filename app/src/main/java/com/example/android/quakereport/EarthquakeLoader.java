@@ -2,15 +2,22 @@ package com.example.android.quakereport;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
 
 /**
  * Created by m on 2017.07.01..
  */
 
-public class EarthquakeLoader extends AsyncTaskLoader<ArrayList<Earthquake>> {
+public class EarthquakeLoader extends AsyncTaskLoader<EarthquakeTable> {
 
     /** Tag for log messages */
     private static final String LOG_TAG = EarthquakeLoader.class.getName();
@@ -18,27 +25,323 @@ public class EarthquakeLoader extends AsyncTaskLoader<ArrayList<Earthquake>> {
     /** Query URL */
     private String mUrl;
 
+    /** Client executing the USGS requests */
+    private final EarthquakeHttpClient mHttpClient;
+
+    /** Posts the locally stored result to the main thread while the network is still loading */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** A result younger than this is shown again without reloading, in milliseconds */
+    private static final long RESULT_FRESHNESS = 5 * 60 * 1000;
+
+    /** Stats of the list shown above it, see EarthquakeActivity.showStats() */
+    static final int LIST_AGGREGATES =
+            EarthquakeStats.AGGREGATE_MAGNITUDES | EarthquakeStats.AGGREGATE_TIME;
+
+    /** Last delivered result, kept for the next start of the loader */
+    private EarthquakeTable mEarthquakes;
+
+    /** When the last synced or locally answered result was loaded, 0 if it was not */
+    private volatile long mLoadedAt;
+
+    /** Cancellation of the load running in the background, null if none */
+    private volatile LoadCancellation mCancellation;
+
     public EarthquakeLoader(Context context, String url) {
+        this(context, url, QueryUtils.getDefaultHttpClient());
+    }
+
+    /**
+     * Constructor with a custom client, e.g. a fake one returning recorded responses.
+     */
+    public EarthquakeLoader(Context context, String url, EarthquakeHttpClient httpClient) {
         super(context);
         mUrl = url;
+        mHttpClient = httpClient;
+    }
+
+    /**
+     * Gets the query URL of the loader.
+     */
+    public String getUrl() {
+        return mUrl;
     }
 
+    /**
+     * Shows the last result again, and only reloads it when it is missing or stale.
+     * Coming back from the browser or restarting the activity needs no download.
+     */
     @Override
     protected void onStartLoading() {
         Log.i(LOG_TAG, "TEST: onStartLoading");
-        forceLoad();
+        if (mEarthquakes != null) {
+            deliverResult(mEarthquakes);
+        }
+        boolean fresh = System.currentTimeMillis() - mLoadedAt < RESULT_FRESHNESS;
+        if (takeContentChanged() || mEarthquakes == null || !fresh) {
+            forceLoad();
+        }
     }
 
     @Override
-    public ArrayList<Earthquake> loadInBackground() {
+    public void deliverResult(EarthquakeTable earthquakes) {
+        mEarthquakes = earthquakes;
+        super.deliverResult(earthquakes);
+    }
+
+    /**
+     * Called when the load is canceled, e.g. superseded by a new query: the connection is closed
+     * and the parser stops at the next feature, so loadInBackground() returns right away.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        LoadCancellation cancellation = mCancellation;
+        if (cancellation != null) {
+            Log.i(LOG_TAG, "TEST: cancelLoadInBackground");
+            cancellation.cancel();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+        mEarthquakes = null;
+        mLoadedAt = 0;
+    }
+
+    /**
+     * Answers the query locally when a recent sync covers it. Otherwise shows the stored
+     * earthquakes first, then syncs the store with USGS and returns the refreshed query result.
+     * Without network the stored result is returned.
+     */
+    @Override
+    public EarthquakeTable loadInBackground() {
         Log.i(LOG_TAG, "TEST:loadInBackground");
         if (mUrl == null) {
             return null;
         }
-        // Create a fake list of earthquake locations.
-        ArrayList<Earthquake> earthquakes = QueryUtils.fetchData(mUrl);
+
+        // the local query uses the same parameters as the USGS query
+        Uri uri = Uri.parse(mUrl);
+        double minMagnitude = QueryUtils.parseDouble(uri.getQueryParameter("minmag"), 0);
+        String orderBy = uri.getQueryParameter("orderby");
+        int limit = (int) QueryUtils.parseDouble(uri.getQueryParameter("limit"), 100);
+        long startTime = QueryUtils.getStartTime(uri, System.currentTimeMillis());
+
+        LoadMetrics.Trace trace = LoadMetrics.begin();
+        LoadCancellation cancellation = new LoadCancellation();
+        mCancellation = cancellation;
+        EarthquakeQueryEngine engine = EarthquakeQueryEngine.getInstance();
+        // the rows are formatted here, so the list only has to copy them into its views
+        EarthquakeFormatter formatter =
+                new EarthquakeFormatter(MagnitudeColors.resolve(getContext()));
+        File snapshotFile = EarthquakeSnapshot.getFile(getContext().getFilesDir());
+        // whether rows are already on the screen while the network loads
+        boolean showsRows = false;
+        if (!engine.isLoaded()) {
+            // cold start: show the last result before the whole store is read and indexed
+            long snapshotStart = System.nanoTime();
+            EarthquakeTable snapshot = EarthquakeSnapshot.read(snapshotFile, mUrl);
+            trace.addTime(LoadMetrics.STAGE_SNAPSHOT, System.nanoTime() - snapshotStart);
+            if (snapshot != null && !snapshot.isEmpty()) {
+                snapshot.render(formatter);
+                postResult(snapshot);
+                showsRows = true;
+            }
+        }
+        EarthquakeTable storedEarthquakes = query(false, startTime, minMagnitude, orderBy, limit,
+                formatter, trace, cancellation);
+        if (storedEarthquakes == null) {
+            // canceled while waiting for the index stage
+            trace.finish();
+            return null;
+        }
+
+        // a settings change within what a recent sync downloaded needs no network at all
+        if (engine.isCovered(startTime, minMagnitude, orderBy, limit, storedEarthquakes,
+                System.currentTimeMillis())) {
+            Log.i(LOG_TAG, "TEST: answered locally");
+            trace.setLocalAnswer();
+            mLoadedAt = System.currentTimeMillis();
+            EarthquakeSnapshot.writeAsync(snapshotFile, mUrl, storedEarthquakes);
+            trace.finish();
+            return storedEarthquakes;
+        }
+
+        if (!storedEarthquakes.isEmpty()) {
+            postResult(storedEarthquakes);
+            showsRows = true;
+        }
+
+        // with nothing to show, the downloaded rows are shown while the rest is downloading
+        ProgressiveDelivery progressiveDelivery = showsRows ? null
+                : new ProgressiveDelivery(minMagnitude, orderBy, limit, formatter, cancellation);
+
+        // only the changes since the last sync are downloaded and merged into the store
+        boolean synced = EarthquakeSync.sync(getContext(), mHttpClient, mUrl, trace,
+                cancellation, progressiveDelivery, EarthquakePipeline.PRIORITY_USER);
+        if (cancellation.isCanceled()) {
+            // the result is thrown away, do not spend more time on it
+            trace.finish();
+            return null;
+        }
+        if (!synced) {
+            // no network or bad response, keep showing what we have
+            trace.finish();
+            return storedEarthquakes;
+        }
+        // the window of a query without starttime moved on during the sync
+        startTime = QueryUtils.getStartTime(uri, System.currentTimeMillis());
+        EarthquakeTable earthquakes = query(true, startTime, minMagnitude, orderBy, limit,
+                formatter, trace, cancellation);
+        if (earthquakes == null) {
+            trace.finish();
+            return null;
+        }
+        if (EarthquakeSync.isComplete(getContext(), mUrl)) {
+            // a delta over rows cut off by another query is not what USGS would answer
+            engine.addCoverage(startTime, minMagnitude, orderBy, limit, earthquakes,
+                    System.currentTimeMillis());
+        }
+        mLoadedAt = System.currentTimeMillis();
+        EarthquakeSnapshot.writeAsync(snapshotFile, mUrl, earthquakes);
+        trace.finish();
         return earthquakes;
     }
 
+    /**
+     * Answers the query from the query engine on the index stage of the pipeline.
+     * @param reload true to read the store again, it is read anyway if it never was
+     * @param startTime start of the window of the query, older stored rows are left out
+     * @return the rendered result, null if the load was canceled
+     */
+    private EarthquakeTable query(final boolean reload, final long startTime,
+                                  final double minMagnitude, final String orderBy,
+                                  final int limit,
+                                  final EarthquakeFormatter formatter,
+                                  final LoadMetrics.Trace trace, LoadCancellation cancellation) {
+        return EarthquakePipeline.getInstance().run(EarthquakePipeline.STAGE_INDEX,
+                EarthquakePipeline.PRIORITY_USER, cancellation, new Callable<EarthquakeTable>() {
+                    @Override
+                    public EarthquakeTable call() {
+                        EarthquakeQueryEngine engine = EarthquakeQueryEngine.getInstance();
+                        if (reload || !engine.isLoaded()) {
+                            engine.load(EarthquakeStore.getInstance(getContext())
+                                    .query(startTime));
+                        }
+                        long sortStart = System.nanoTime();
+                        EarthquakeTable earthquakes =
+                                engine.query(startTime, minMagnitude, orderBy, limit);
+                        trace.addTime(LoadMetrics.STAGE_SORT, System.nanoTime() - sortStart);
+                        // the rows are formatted here, so the list only has to copy them
+                        earthquakes.render(formatter);
+                        // and the places indexed, so the first search does not wait for it
+                        earthquakes.indexPlaces();
+                        earthquakes.setStats(EarthquakeAggregator.getInstance().aggregate(
+                                earthquakes, LIST_AGGREGATES,
+                                Collections.<RegionQuery>emptyList(),
+                                System.currentTimeMillis()));
+                        return earthquakes;
+                    }
+                });
+    }
 
+    /**
+     * Shows an early result while the load goes on, deliverResult() has to be called on the
+     * main thread.
+     */
+    private void postResult(final EarthquakeTable earthquakes) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isStarted()) {
+                    deliverResult(earthquakes);
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the earthquakes of a full download while it is still running. The rows parsed so
+     * far are kept in the order of the query, and its first "limit" rows are delivered in
+     * batches: after {@link #BATCH_SIZE} new rows or {@link #BATCH_INTERVAL} ms.
+     * A batch is only posted once the main thread took the previous one, in between the new
+     * rows pile up into the next batch, so a fast download cannot flood the main thread.
+     */
+    private class ProgressiveDelivery implements QueryUtils.ParseListener {
+
+        /** Rows parsed before the next batch is delivered */
+        private static final int BATCH_SIZE = 50;
+
+        /** Time after which a batch is delivered even if it is smaller, in ms */
+        private static final long BATCH_INTERVAL = 100;
+
+        private final double mMinMagnitude;
+        private final int mLimit;
+        private final Comparator<Earthquake> mComparator;
+        private final EarthquakeFormatter mFormatter;
+        private final LoadCancellation mCancellation;
+
+        // rows parsed so far, in the order of the query
+        private final ArrayList<Earthquake> mParsed = new ArrayList<>();
+        private int mPendingCount;
+        private long mLastDelivery = System.nanoTime();
+        private boolean mDeliveryPosted;
+
+        ProgressiveDelivery(double minMagnitude, String orderBy, int limit,
+                            EarthquakeFormatter formatter, LoadCancellation cancellation) {
+            mMinMagnitude = minMagnitude;
+            mLimit = limit;
+            mComparator = EarthquakeOrder.forOrderBy(orderBy);
+            mFormatter = formatter;
+            mCancellation = cancellation;
+        }
+
+        @Override
+        public synchronized void onParsed(Earthquake earthquake) {
+            if (earthquake.isDeleted() || earthquake.getMagnitude() < mMinMagnitude) {
+                return;
+            }
+            // a single response is already in order, this only shifts rows for shards
+            int position = mParsed.size();
+            while (position > 0 && mComparator.compare(mParsed.get(position - 1), earthquake) > 0) {
+                position--;
+            }
+            if (position >= mLimit) {
+                // below the rows shown, it changes nothing on the screen
+                return;
+            }
+            mParsed.add(position, earthquake);
+            if (mParsed.size() > mLimit) {
+                mParsed.remove(mLimit);
+            }
+            mPendingCount++;
+
+            long now = System.nanoTime();
+            if (mDeliveryPosted || (mPendingCount < BATCH_SIZE
+                    && now - mLastDelivery < BATCH_INTERVAL * 1000000)) {
+                return;
+            }
+            mPendingCount = 0;
+            mLastDelivery = now;
+            mDeliveryPosted = true;
+
+            // the formatted rows are built on this thread, the main thread only diffs them
+            final EarthquakeTable batch = new EarthquakeTable(mParsed);
+            batch.render(mFormatter);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (ProgressiveDelivery.this) {
+                        mDeliveryPosted = false;
+                    }
+                    // rows of a superseded query must not show up
+                    if (isStarted() && !mCancellation.isCanceled()) {
+                        deliverResult(batch);
+                    }
+                }
+            });
+        }
+    }
 }
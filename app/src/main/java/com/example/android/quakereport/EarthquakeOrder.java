@@ -0,0 +1,38 @@
+package com.example.android.quakereport;
+
+import java.util.Comparator;
+
+/**
+ * Orders of the earthquake list, matching the values of the USGS "orderby" parameter.
+ */
+
+public final class EarthquakeOrder {
+
+    // no one should create an order object, it only holds static methods
+    private EarthquakeOrder() {
+    }
+
+    /**
+     * Gets the comparator sorting earthquakes the way USGS does for the "orderby" value.
+     * @param orderBy "time", "time-asc", "magnitude" or "magnitude-asc", time is the default
+     */
+    public static Comparator<Earthquake> forOrderBy(String orderBy) {
+        final boolean byMagnitude = orderBy != null && orderBy.startsWith("magnitude");
+        // USGS orders descending unless "-asc" is requested
+        final boolean ascending = orderBy != null && orderBy.endsWith("-asc");
+        return new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake first, Earthquake second) {
+                int result = byMagnitude
+                        ? Double.compare(first.getMagnitude(), second.getMagnitude())
+                        : compareLongs(first.getDate(), second.getDate());
+                return ascending ? result : -result;
+            }
+        };
+    }
+
+    // Long.compare() needs API 19
+    private static int compareLongs(long first, long second) {
+        return first < second ? -1 : (first == second ? 0 : 1);
+    }
+}
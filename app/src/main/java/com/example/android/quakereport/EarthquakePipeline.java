@@ -0,0 +1,163 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stages of a load, each on its own bounded executor, shared by every load of the app:
+ * <ul>
+ * <li>network: request, decompression and parsing, streamed together so the parsing
+ * overlaps the download (see QueryUtils)</li>
+ * <li>persist: merging into the store, a single thread as SQLite has a single writer</li>
+ * <li>index: reading the store into the query engine, querying and formatting the rows</li>
+ * </ul>
+ * The loads of the list, the background sync and superseded queries overlap: one can be
+ * indexed while another one downloads. Each stage queues its tasks by priority lane, so the
+ * queries the user waits for go before the background sync, first come first served in a lane.
+ * The thread of a load only submits its stages one after another and waits for them.
+ */
+
+public final class EarthquakePipeline {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakePipeline.class.getName();
+
+    // stages
+    public static final int STAGE_NETWORK = 0;
+    public static final int STAGE_PERSIST = 1;
+    public static final int STAGE_INDEX = 2;
+
+    private static final String[] STAGE_NAMES = {"network", "persist", "index"};
+
+    /** Threads of each stage: a few requests at once, one writer, one indexer */
+    private static final int[] STAGE_THREADS = {2, 1, 1};
+
+    // priority lanes, lower goes first
+    /** A query the user is waiting for */
+    public static final int PRIORITY_USER = 0;
+    /** Background work nobody is looking at */
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    /** How often a load waiting for a stage checks its cancellation, in milliseconds */
+    private static final long CANCELLATION_POLL_INTERVAL = 50;
+
+    private static EarthquakePipeline sInstance;
+
+    private final ThreadPoolExecutor[] mExecutors = new ThreadPoolExecutor[STAGE_NAMES.length];
+
+    /** Order of submission, to keep the tasks of a lane first in first out */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private EarthquakePipeline() {
+        for (int stage = 0; stage < mExecutors.length; stage++) {
+            mExecutors[stage] = new ThreadPoolExecutor(STAGE_THREADS[stage], STAGE_THREADS[stage],
+                    30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                    new StageThreadFactory(STAGE_NAMES[stage]));
+            // the threads are only kept while there is work
+            mExecutors[stage].allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Gets the single pipeline of the app.
+     */
+    public static synchronized EarthquakePipeline getInstance() {
+        if (sInstance == null) {
+            sInstance = new EarthquakePipeline();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Runs the task on the stage and waits for its result.
+     * A canceled load stops waiting at once, its task is dropped if it did not start yet.
+     * @param stage one of the STAGE_ constants
+     * @param priority one of the PRIORITY_ constants
+     * @return the result of the task, null if it failed or the load was canceled
+     */
+    public <T> T run(int stage, int priority, LoadCancellation cancellation, Callable<T> task) {
+        StageTask<T> stageTask = new StageTask<>(task, priority, mSequence.getAndIncrement());
+        mExecutors[stage].execute(stageTask);
+        try {
+            while (true) {
+                try {
+                    return stageTask.get(CANCELLATION_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (cancellation.isCanceled()) {
+                        stageTask.cancel(false);
+                        // a canceled task does not wait in the queue
+                        mExecutors[stage].remove(stageTask);
+                        return null;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem in the " + STAGE_NAMES[stage] + " stage", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of tasks waiting in the queue of the stage.
+     */
+    public int getQueueLength(int stage) {
+        return mExecutors[stage].getQueue().size();
+    }
+
+    /**
+     * Task ordered by priority, then by submission.
+     */
+    private static class StageTask<T> extends FutureTask<T> implements Comparable<StageTask<?>> {
+
+        private final int mPriority;
+        private final long mSequence;
+
+        StageTask(Callable<T> task, int priority, long sequence) {
+            super(task);
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(StageTask<?> other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Names the threads after their stage, they run below the priority of the main thread.
+     */
+    private static class StageThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        StageThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EarthquakePipeline-" + mName + "-"
+                    + mCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Answers the USGS queries of the list (time window, minimum magnitude, order, limit) from the
+ * earthquakes already stored, so changing the settings does not need a network round trip.
+ * The rows are indexed by magnitude and by time: the minimum magnitude is a binary search in the
+ * magnitude index, the order is a walk of one of the indexes, nothing is sorted per query.
+ * The engine also remembers which part of the events each sync made complete (its coverage),
+ * and tells when a query can be answered exactly without asking USGS.
+ */
+
+public final class EarthquakeQueryEngine {
+
+    /** Coverage older than this is not trusted anymore, the query goes to the network */
+    static final long COVERAGE_FRESHNESS = 5 * 60 * 1000; // 5 minutes
+
+    private static EarthquakeQueryEngine sInstance;
+
+    // every stored earthquake
+    private EarthquakeTable mEarthquakes = new EarthquakeTable();
+
+    // rows ordered by ascending magnitude
+    private int[] mByMagnitude = new int[0];
+
+    // rows ordered by descending time (newest first)
+    private int[] mByTime = new int[0];
+
+    // epicenters of every stored earthquake, null until the first spatial query after a load
+    private SpatialIndex mSpatialIndex;
+
+    // true once the store has been read
+    private boolean mLoaded;
+
+    // parts of the events known to be complete, see Coverage
+    private final ArrayList<Coverage> mCoverages = new ArrayList<>();
+
+    private EarthquakeQueryEngine() {
+    }
+
+    /**
+     * Gets the single engine of the app, it is shared by every loader.
+     */
+    public static synchronized EarthquakeQueryEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new EarthquakeQueryEngine();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Tells if {@link #load(EarthquakeTable)} was called at least once.
+     */
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Replaces the earthquakes and rebuilds the indexes, the spatial one on its first use.
+     * @param earthquakes every stored earthquake, e.g. from {@link EarthquakeStore#query(long)}
+     */
+    public synchronized void load(final EarthquakeTable earthquakes) {
+        mEarthquakes = earthquakes;
+        mByMagnitude = sortedRows(earthquakes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(earthquakes.getMagnitude(first),
+                        earthquakes.getMagnitude(second));
+            }
+        });
+        mByTime = sortedRows(earthquakes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                long firstDate = earthquakes.getDate(first);
+                long secondDate = earthquakes.getDate(second);
+                return firstDate > secondDate ? -1 : (firstDate == secondDate ? 0 : 1);
+            }
+        });
+        // most loads are never searched by place, the tree is built when it is
+        mSpatialIndex = null;
+        mLoaded = true;
+    }
+
+    /**
+     * Answers the query from the loaded earthquakes, like USGS would from the same events.
+     * @param startTime start of the window in milliseconds (UNIX time), older rows are left out
+     * @param minMagnitude smallest magnitude to return
+     * @param orderBy "time", "time-asc", "magnitude" or "magnitude-asc"
+     * @param limit maximum number of earthquakes to return
+     * @return table of earthquakes, it shares nothing with the engine
+     */
+    public synchronized EarthquakeTable query(long startTime, double minMagnitude,
+                                              String orderBy, int limit) {
+        EarthquakeTable result = new EarthquakeTable();
+        // rows from firstRow to the end of the magnitude index are heavy enough
+        int firstRow = firstRowWithMagnitude(minMagnitude);
+        boolean ascending = orderBy != null && orderBy.endsWith("-asc");
+
+        if (orderBy != null && orderBy.startsWith("magnitude")) {
+            // the answer is a slice of the magnitude index, without the rows before the window
+            if (ascending) {
+                for (int i = firstRow; i < mByMagnitude.length && result.size() < limit; i++) {
+                    addIfInWindow(result, mByMagnitude[i], startTime);
+                }
+            } else {
+                for (int i = mByMagnitude.length - 1; i >= firstRow && result.size() < limit;
+                     i--) {
+                    addIfInWindow(result, mByMagnitude[i], startTime);
+                }
+            }
+        } else {
+            // walk the part of the time index inside the window, keeping the rows heavy enough
+            int count = countRowsSince(startTime);
+            for (int i = 0; i < count && result.size() < limit; i++) {
+                int row = mByTime[ascending ? count - 1 - i : i];
+                if (mEarthquakes.getMagnitude(row) >= minMagnitude) {
+                    result.addRowFrom(mEarthquakes, row);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void addIfInWindow(EarthquakeTable result, int row, long startTime) {
+        if (mEarthquakes.getDate(row) >= startTime) {
+            result.addRowFrom(mEarthquakes, row);
+        }
+    }
+
+    /**
+     * Gets the earthquakes at most radiusKm away from the point, e.g. from a site to watch.
+     */
+    public synchronized EarthquakeTable withinRadius(double latitude, double longitude,
+                                                     double radiusKm) {
+        return rows(getSpatialIndex().withinRadius(latitude, longitude, radiusKm));
+    }
+
+    /**
+     * Gets the earthquakes inside the box. If minLongitude is greater than maxLongitude,
+     * the box crosses the antimeridian.
+     */
+    public synchronized EarthquakeTable inBoundingBox(double minLatitude, double maxLatitude,
+                                                      double minLongitude, double maxLongitude) {
+        return rows(getSpatialIndex().inBoundingBox(minLatitude, maxLatitude,
+                minLongitude, maxLongitude));
+    }
+
+    /**
+     * Gets the count earthquakes nearest to the point, nearest first.
+     * @throws IllegalArgumentException if count is negative
+     */
+    public synchronized EarthquakeTable nearest(double latitude, double longitude, int count) {
+        return rows(getSpatialIndex().nearest(latitude, longitude, count));
+    }
+
+    /**
+     * Gets the index of the epicenters, building it on the first call after a load.
+     */
+    private SpatialIndex getSpatialIndex() {
+        if (mSpatialIndex == null) {
+            mSpatialIndex = new SpatialIndex(mEarthquakes);
+        }
+        return mSpatialIndex;
+    }
+
+    private EarthquakeTable rows(int[] rows) {
+        EarthquakeTable result = new EarthquakeTable();
+        for (int row : rows) {
+            result.addRowFrom(mEarthquakes, row);
+        }
+        return result;
+    }
+
+    /**
+     * Records the part of the events a successful sync of the query made complete.
+     * @param startTime start of the window of the query in milliseconds (UNIX time)
+     * @param result the answer of the engine to the query, right after the sync
+     */
+    public synchronized void addCoverage(long startTime, double minMagnitude, String orderBy,
+                                         int limit, EarthquakeTable result, long now) {
+        // forget the coverages which are too old to be used anyway
+        for (int i = mCoverages.size() - 1; i >= 0; i--) {
+            if (now - mCoverages.get(i).mSyncedAt > COVERAGE_FRESHNESS) {
+                mCoverages.remove(i);
+            }
+        }
+        if (orderBy != null && orderBy.endsWith("-asc")) {
+            // the oldest events of the window are never synced again, don't rely on them
+            return;
+        }
+        Coverage coverage = getNeededCoverage(startTime, minMagnitude, orderBy, limit, result);
+        mCoverages.add(new Coverage(coverage.mMinMagnitude, coverage.mFromTime, now));
+    }
+
+    /**
+     * Tells if a recent sync stored every event the answer of the engine depends on, then it
+     * is the answer USGS gave at that sync: only events newer than the sync can be missing.
+     * @param startTime start of the window of the query in milliseconds (UNIX time)
+     * @param result the answer of the engine to the query
+     */
+    public synchronized boolean isCovered(long startTime, double minMagnitude, String orderBy,
+                                          int limit, EarthquakeTable result, long now) {
+        if (orderBy != null && orderBy.endsWith("-asc")) {
+            return false;
+        }
+        Coverage needed = getNeededCoverage(startTime, minMagnitude, orderBy, limit, result);
+        for (Coverage coverage : mCoverages) {
+            if (now - coverage.mSyncedAt <= COVERAGE_FRESHNESS
+                    && coverage.mMinMagnitude <= needed.mMinMagnitude
+                    && coverage.mFromTime <= needed.mFromTime) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the part of the events an answer of the query depends on: inside the window and
+     * at least as heavy as asked, and when the answer was cut at the limit only the events
+     * strictly before the cut. Which of the events equal to the last one USGS returns is not
+     * specified, the engine may pick others.
+     */
+    private static Coverage getNeededCoverage(long startTime, double minMagnitude,
+                                              String orderBy, int limit,
+                                              EarthquakeTable result) {
+        boolean truncated = result.size() >= limit && !result.isEmpty();
+        int last = result.size() - 1;
+        if (orderBy != null && orderBy.startsWith("magnitude")) {
+            // heavier than the lightest event returned, over the whole window
+            double neededMagnitude = truncated
+                    ? Math.max(minMagnitude, Math.nextUp(result.getMagnitude(last)))
+                    : minMagnitude;
+            return new Coverage(neededMagnitude, startTime, 0);
+        }
+        // newer than the oldest event returned
+        long neededTime = truncated ? Math.max(startTime, result.getDate(last) + 1) : startTime;
+        return new Coverage(minMagnitude, neededTime, 0);
+    }
+
+    /**
+     * Binary search of the number of rows at the start of the time index (newest first) which
+     * are not older than startTime.
+     */
+    private int countRowsSince(long startTime) {
+        int low = 0;
+        int high = mByTime.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mEarthquakes.getDate(mByTime[middle]) >= startTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Binary search of the first position of the magnitude index holding at least minMagnitude.
+     */
+    private int firstRowWithMagnitude(double minMagnitude) {
+        int low = 0;
+        int high = mByMagnitude.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mEarthquakes.getMagnitude(mByMagnitude[middle]) < minMagnitude) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int[] sortedRows(EarthquakeTable earthquakes, Comparator<Integer> order) {
+        Integer[] rows = new Integer[earthquakes.size()];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = row;
+        }
+        // stable, so rows of equal keys keep the newest first order of the store
+        Arrays.sort(rows, order);
+        int[] sorted = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            sorted[i] = rows[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * Every event with at least mMinMagnitude, which happened at or after mFromTime and
+     * before mSyncedAt, is stored.
+     */
+    private static class Coverage {
+        final double mMinMagnitude;
+        final long mFromTime;
+        final long mSyncedAt;
+
+        Coverage(double minMagnitude, long fromTime, long syncedAt) {
+            mMinMagnitude = minMagnitude;
+            mFromTime = fromTime;
+            mSyncedAt = syncedAt;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.quakereport;
+
+/**
+ * Ready to display values of one list item, formatted on the loader thread so binding
+ * a row only copies them into the views.
+ */
+
+public class EarthquakeRow {
+
+    // USGS event id of the earthquake
+    private final String mId;
+
+    // magnitude formatted with one decimal, e.g. "4.5"
+    private final String mMagnitude;
+
+    // resolved color of the magnitude circle
+    private final int mMagnitudeColor;
+
+    // 1st part of the location ("xxkm N of", OR "Near the ")
+    private final String mLocationOffset;
+
+    // 2nd part of the location ("Budapest, Hungary")
+    private final String mPrimaryLocation;
+
+    // formatted date, e.g. "Mar 03, 1984"
+    private final String mDate;
+
+    // formatted time, e.g. "3:00 PM"
+    private final String mTime;
+
+    // website uri of the earthquake
+    private final String mWeb;
+
+    // constructor of the class
+    public EarthquakeRow(String id, String magnitude, int magnitudeColor, String locationOffset,
+                         String primaryLocation, String date, String time, String web) {
+        mId = id;
+        mMagnitude = magnitude;
+        mMagnitudeColor = magnitudeColor;
+        mLocationOffset = locationOffset;
+        mPrimaryLocation = primaryLocation;
+        mDate = date;
+        mTime = time;
+        mWeb = web;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public String getMagnitude() {
+        return mMagnitude;
+    }
+
+    public int getMagnitudeColor() {
+        return mMagnitudeColor;
+    }
+
+    public String getLocationOffset() {
+        return mLocationOffset;
+    }
+
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
+    }
+
+    public String getDate() {
+        return mDate;
+    }
+
+    public String getTime() {
+        return mTime;
+    }
+
+    public String getWeb() {
+        return mWeb;
+    }
+
+    /**
+     * Tells if the other row would look the same on the screen.
+     */
+    public boolean hasSameContents(EarthquakeRow other) {
+        return mMagnitude.equals(other.mMagnitude)
+                && mMagnitudeColor == other.mMagnitudeColor
+                && mLocationOffset.equals(other.mLocationOffset)
+                && mPrimaryLocation.equals(other.mPrimaryLocation)
+                && mDate.equals(other.mDate)
+                && mTime.equals(other.mTime)
+                && mWeb.equals(other.mWeb);
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary copy of the last result shown, read back on a cold start so the list has rows before
+ * the database, the query engine or the network are touched.
+ * The file is versioned and made of three parts, all big-endian:
+ * <pre>
+ * header:  magic, version, row count, string count (4 ints)
+ * strings: for each string its UTF-8 length (int) and bytes, string 0 is the query URL
+ * rows:    fixed width records of id (string index), magnitude, date, updated,
+ *          place (string index), longitude, latitude, depth, web (string index, -1 for the
+ *          usual event page)
+ * </pre>
+ * The file is memory-mapped for reading. A missing, older or damaged file reads as null.
+ * The loads save it with {@link #writeAsync}, off the result path, and only when the result
+ * changed since the last snapshot.
+ */
+
+public final class EarthquakeSnapshot {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakeSnapshot.class.getName();
+
+    /** "EQSN" */
+    private static final int MAGIC = 0x4551534E;
+
+    /** Bump it when the layout changes, older files are then ignored */
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 * 4;
+
+    /** id, magnitude, date, updated, place, longitude, latitude, depth, web */
+    private static final int RECORD_SIZE = 4 + 8 + 8 + 8 + 4 + 8 + 8 + 8 + 4;
+
+    /** Web string index of the rows whose page is the usual event page */
+    private static final int NO_STRING = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Writes the snapshots one at a time, so the loads don't wait for the disk */
+    private static final ThreadPoolExecutor sWriter = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        // the thread is only kept while there are snapshots to write
+        sWriter.allowCoreThreadTimeOut(true);
+    }
+
+    // what the last snapshot written holds: its file, its query URL, the id and update time of
+    // each row
+    private static File sWrittenFile;
+    private static String sWrittenUrl;
+    private static String[] sWrittenIds;
+    private static long[] sWrittenUpdates;
+
+    // no one should create a snapshot object, it only holds static methods
+    private EarthquakeSnapshot() {
+    }
+
+    /**
+     * Gets the snapshot file of the app.
+     */
+    public static File getFile(File filesDir) {
+        return new File(filesDir, "last_result.snapshot");
+    }
+
+    /**
+     * Saves the result of the query URL on the writer thread, unless the snapshot already holds
+     * it. The table must not change anymore, it is read later.
+     */
+    public static void writeAsync(final File file, final String queryUrl,
+                                  final EarthquakeTable table) {
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeIfChanged(file, queryUrl, table);
+            }
+        });
+    }
+
+    /**
+     * Waits until the snapshots saved so far are written, for the tests.
+     */
+    static void awaitWrites() throws InterruptedException {
+        try {
+            sWriter.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Same as {@link #write}, but a result with the same rows and revisions as the last snapshot
+     * written is not written again: a local answer is usually the result already saved.
+     * @return false if it could not be written
+     */
+    static synchronized boolean writeIfChanged(File file, String queryUrl,
+                                               EarthquakeTable table) {
+        if (file.equals(sWrittenFile) && file.isFile() && isWritten(queryUrl, table)) {
+            return true;
+        }
+        return write(file, queryUrl, table);
+    }
+
+    /**
+     * Saves the result of the query URL, replacing the previous snapshot.
+     * The file is written next to the old one and renamed over it, so a reader never sees
+     * half of it.
+     * @return false if it could not be written
+     */
+    public static synchronized boolean write(File file, String queryUrl, EarthquakeTable table) {
+        // string table, each distinct string is written once
+        ArrayList<String> strings = new ArrayList<>();
+        HashMap<String, Integer> stringIndexes = new HashMap<>();
+        stringIndex(queryUrl, strings, stringIndexes);
+
+        int rowCount = table.size();
+        int[] ids = new int[rowCount];
+        int[] places = new int[rowCount];
+        int[] webs = new int[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            String id = table.getId(row);
+            ids[row] = stringIndex(id, strings, stringIndexes);
+            places[row] = stringIndex(table.getLocation(row), strings, stringIndexes);
+            String web = table.getWeb(row);
+            webs[row] = web.equals(EarthquakeTable.EVENT_PAGE_PREFIX + id)
+                    ? NO_STRING : stringIndex(web, strings, stringIndexes);
+        }
+
+        ByteArrayOutputStream bytes =
+                new ByteArrayOutputStream(HEADER_SIZE + rowCount * (RECORD_SIZE + 64));
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(rowCount);
+            output.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] utf8 = string.getBytes(UTF_8);
+                output.writeInt(utf8.length);
+                output.write(utf8);
+            }
+            for (int row = 0; row < rowCount; row++) {
+                output.writeInt(ids[row]);
+                output.writeDouble(table.getMagnitude(row));
+                output.writeLong(table.getDate(row));
+                output.writeLong(table.getUpdated(row));
+                output.writeInt(places[row]);
+                output.writeDouble(table.getLongitude(row));
+                output.writeDouble(table.getLatitude(row));
+                output.writeDouble(table.getDepth(row));
+                output.writeInt(webs[row]);
+            }
+            output.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            Log.e(LOG_TAG, "Problem building the snapshot", e);
+            return false;
+        }
+
+        File newFile = new File(file.getPath() + ".new");
+        FileOutputStream fileOutput = null;
+        try {
+            fileOutput = new FileOutputStream(newFile);
+            bytes.writeTo(fileOutput);
+            fileOutput.getFD().sync();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the snapshot", e);
+            return false;
+        } finally {
+            if (fileOutput != null) {
+                try {
+                    fileOutput.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the snapshot", e);
+                }
+            }
+        }
+        if (!newFile.renameTo(file)) {
+            Log.e(LOG_TAG, "Could not replace " + file);
+            return false;
+        }
+        sWrittenFile = file;
+        sWrittenUrl = queryUrl;
+        sWrittenIds = new String[rowCount];
+        sWrittenUpdates = new long[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            sWrittenIds[row] = table.getId(row);
+            sWrittenUpdates[row] = table.getUpdated(row);
+        }
+        return true;
+    }
+
+    /**
+     * Tells if the last snapshot written holds the same result: every revision of an event
+     * has a new update time.
+     */
+    private static boolean isWritten(String queryUrl, EarthquakeTable table) {
+        if (!queryUrl.equals(sWrittenUrl) || table.size() != sWrittenIds.length) {
+            return false;
+        }
+        for (int row = 0; row < sWrittenIds.length; row++) {
+            if (table.getUpdated(row) != sWrittenUpdates[row]
+                    || !table.getId(row).equals(sWrittenIds[row])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the snapshot if it holds the result of the query URL.
+     * @return the saved result, not rendered, or null if there is none for this URL
+     */
+    public static synchronized EarthquakeTable read(File file, String queryUrl) {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, queryUrl);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the snapshot", e);
+            return null;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            // truncated or damaged file, the next successful load writes a new one
+            Log.e(LOG_TAG, "Damaged snapshot " + file, e);
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the snapshot", e);
+                }
+            }
+        }
+    }
+
+    private static EarthquakeTable read(MappedByteBuffer buffer, String queryUrl) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int rowCount = buffer.getInt();
+        int stringCount = buffer.getInt();
+        // every string takes at least its length, a damaged count must not allocate a huge array
+        if (rowCount < 0 || stringCount < 1 || stringCount > buffer.remaining() / 4) {
+            return null;
+        }
+
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            byte[] utf8 = new byte[buffer.getInt()];
+            buffer.get(utf8);
+            strings[i] = new String(utf8, UTF_8);
+        }
+        if (!strings[0].equals(queryUrl)) {
+            // the settings changed since it was written
+            return null;
+        }
+        if (buffer.remaining() != (long) rowCount * RECORD_SIZE) {
+            return null;
+        }
+
+        EarthquakeTable table = new EarthquakeTable();
+        for (int row = 0; row < rowCount; row++) {
+            String id = strings[buffer.getInt()];
+            double magnitude = buffer.getDouble();
+            long date = buffer.getLong();
+            long updated = buffer.getLong();
+            String place = strings[buffer.getInt()];
+            double longitude = buffer.getDouble();
+            double latitude = buffer.getDouble();
+            double depth = buffer.getDouble();
+            int web = buffer.getInt();
+            table.addRow(id, magnitude, place, date, updated,
+                    web == NO_STRING ? EarthquakeTable.EVENT_PAGE_PREFIX + id : strings[web],
+                    longitude, latitude, depth);
+        }
+        return table;
+    }
+
+    /**
+     * Gets the index of the string in the string table, adding it if it is new.
+     */
+    private static int stringIndex(String string, ArrayList<String> strings,
+                                   HashMap<String, Integer> stringIndexes) {
+        Integer index = stringIndexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndexes.put(string, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,452 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Summary of a set of earthquakes, built by {@link EarthquakeAggregator} in one pass over the
+ * columns of an {@link EarthquakeTable}:
+ * <ul>
+ * <li>{@link #AGGREGATE_MAGNITUDES}: number of events by magnitude bucket, the buckets of the
+ * magnitude circle colors (see EarthquakeFormatter.getMagnitudeBucket())</li>
+ * <li>{@link #AGGREGATE_TIME}: number of events by hour (UTC), and by day from the hours, and
+ * since an exact time</li>
+ * <li>{@link #AGGREGATE_REGIONS}: number of events, mean and strongest magnitude of each
+ * region</li>
+ * </ul>
+ * Partial stats of separate rows are combined with {@link #merge(EarthquakeStats)}, rows are
+ * added and removed in batches when events merge in. A region whose strongest event is removed
+ * is stale until the aggregator finds the new strongest one.
+ * Not thread safe, a stats object is only changed before it is handed over.
+ */
+
+public class EarthquakeStats {
+
+    // aggregates, combined as flags
+    public static final int AGGREGATE_MAGNITUDES = 1;
+    public static final int AGGREGATE_TIME = 2;
+    public static final int AGGREGATE_REGIONS = 4;
+
+    /** Number of magnitude buckets, 0 to 10 */
+    public static final int MAGNITUDE_BUCKETS = 11;
+
+    static final long HOUR = 60 * 60 * 1000;
+    static final long DAY = 24 * HOUR;
+
+    private final int mAggregates;
+    private final List<RegionQuery> mRegions;
+    // end of the region windows, see RegionQuery.getStartTime()
+    private final long mNow;
+
+    private int mCount;
+
+    private final int[] mMagnitudeCounts = new int[MAGNITUDE_BUCKETS];
+
+    // number of events by hour since 1970, only the hours with events
+    private final HourCounts mHourCounts = new HourCounts();
+
+    // times of the events in ascending order, for the counts since a time within an hour
+    private long[] mDates = new long[0];
+    private int mDateCount;
+
+    // columns, one element per region
+    private final int[] mRegionCounts;
+    private final double[] mRegionSums;
+    private final double[] mRegionMaxMagnitudes;
+    private final String[] mRegionMaxIds;
+    private final String[] mRegionMaxPlaces;
+    private final boolean[] mRegionStale;
+
+    /**
+     * Creates empty stats.
+     * @param aggregates AGGREGATE_ flags, the aggregates to compute
+     * @param regions regions of AGGREGATE_REGIONS, in the order of the region indexes
+     * @param now end of the region windows in milliseconds (UNIX time)
+     */
+    public EarthquakeStats(int aggregates, List<RegionQuery> regions, long now) {
+        mAggregates = aggregates;
+        mRegions = regions;
+        mNow = now;
+        int regionCount = (aggregates & AGGREGATE_REGIONS) != 0 ? regions.size() : 0;
+        mRegionCounts = new int[regionCount];
+        mRegionSums = new double[regionCount];
+        mRegionMaxMagnitudes = new double[regionCount];
+        Arrays.fill(mRegionMaxMagnitudes, Double.NaN);
+        mRegionMaxIds = new String[regionCount];
+        mRegionMaxPlaces = new String[regionCount];
+        mRegionStale = new boolean[regionCount];
+    }
+
+    /**
+     * Creates a copy of the stats, to change it while the other one is displayed.
+     */
+    public EarthquakeStats(EarthquakeStats other) {
+        this(other.mAggregates, other.mRegions, other.mNow);
+        merge(other);
+        System.arraycopy(other.mRegionStale, 0, mRegionStale, 0, mRegionStale.length);
+    }
+
+    public int getAggregates() {
+        return mAggregates;
+    }
+
+    List<RegionQuery> getRegions() {
+        return mRegions;
+    }
+
+    long getNow() {
+        return mNow;
+    }
+
+    /**
+     * Gets the number of events.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets the number of events of the magnitude bucket, see getMagnitudeBucket().
+     */
+    public int getMagnitudeCount(int bucket) {
+        return mMagnitudeCounts[bucket];
+    }
+
+    /**
+     * Gets the number of events by hour, e.g. for a histogram.
+     * @param from a time in the first hour, in milliseconds (UNIX time)
+     * @param hours number of hours
+     */
+    public int[] getHourCounts(long from, int hours) {
+        int[] counts = new int[hours];
+        long firstHour = floorDiv(from, HOUR);
+        for (int i = 0; i < hours; i++) {
+            counts[i] = mHourCounts.get(firstHour + i);
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the number of events by day (UTC), e.g. for a histogram.
+     * @param from a time in the first day, in milliseconds (UNIX time)
+     * @param days number of days
+     */
+    public int[] getDayCounts(long from, int days) {
+        int[] hourCounts = getHourCounts(floorDiv(from, DAY) * DAY, days * 24);
+        int[] counts = new int[days];
+        for (int i = 0; i < hourCounts.length; i++) {
+            counts[i / 24] += hourCounts[i];
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the number of events at or after the time, to the millisecond, by binary search in
+     * the sorted times.
+     */
+    public int getCountSince(long from) {
+        return mDateCount - firstDateAtOrAfter(from);
+    }
+
+    /**
+     * Gets the number of events of the region.
+     * @param region index of the region
+     */
+    public int getRegionCount(int region) {
+        return mRegionCounts[region];
+    }
+
+    /**
+     * Gets the mean magnitude of the region, NaN if it has no event.
+     */
+    public double getRegionMeanMagnitude(int region) {
+        return mRegionCounts[region] > 0
+                ? mRegionSums[region] / mRegionCounts[region] : Double.NaN;
+    }
+
+    /**
+     * Gets the magnitude of the strongest event of the region, NaN if it has no event.
+     */
+    public double getRegionMaxMagnitude(int region) {
+        return mRegionMaxMagnitudes[region];
+    }
+
+    /**
+     * Gets the place of the strongest event of the region, null if it has no event.
+     */
+    public String getRegionMaxPlace(int region) {
+        return mRegionMaxPlaces[region];
+    }
+
+    /**
+     * Adds rows of a table. This is the hot loop, it only reads primitive columns.
+     * @param from first row
+     * @param to row after the last one
+     */
+    void addRows(EarthquakeTable earthquakes, int from, int to) {
+        boolean magnitudes = (mAggregates & AGGREGATE_MAGNITUDES) != 0;
+        boolean time = (mAggregates & AGGREGATE_TIME) != 0;
+        int regionCount = mRegionCounts.length;
+        // the times of the rows are sorted once, then merged into the sorted ones
+        long[] dates = time ? new long[to - from] : null;
+        for (int row = from; row < to; row++) {
+            double magnitude = earthquakes.getMagnitude(row);
+            long date = earthquakes.getDate(row);
+            if (magnitudes) {
+                mMagnitudeCounts[EarthquakeFormatter.getMagnitudeBucket(magnitude)]++;
+            }
+            if (time) {
+                mHourCounts.add(floorDiv(date, HOUR), 1);
+                dates[row - from] = date;
+            }
+            if (regionCount > 0) {
+                double latitude = earthquakes.getLatitude(row);
+                double longitude = earthquakes.getLongitude(row);
+                for (int region = 0; region < regionCount; region++) {
+                    if (!mRegions.get(region).matches(magnitude, date, latitude, longitude,
+                            mNow)) {
+                        continue;
+                    }
+                    mRegionCounts[region]++;
+                    mRegionSums[region] += magnitude;
+                    // the first of equal magnitudes, like a sequential pass
+                    if (!(magnitude <= mRegionMaxMagnitudes[region])) {
+                        mRegionMaxMagnitudes[region] = magnitude;
+                        mRegionMaxIds[region] = earthquakes.getId(row);
+                        mRegionMaxPlaces[region] = earthquakes.getLocation(row);
+                    }
+                }
+            }
+        }
+        if (time) {
+            Arrays.sort(dates);
+            mergeDates(dates, dates.length);
+        }
+        mCount += to - from;
+    }
+
+    /**
+     * Removes rows added before, e.g. the previous revisions of events. The regions whose
+     * strongest event was removed become stale.
+     * @param from first row
+     * @param to row after the last one
+     */
+    void removeRows(EarthquakeTable earthquakes, int from, int to) {
+        boolean time = (mAggregates & AGGREGATE_TIME) != 0;
+        long[] dates = time ? new long[to - from] : null;
+        for (int row = from; row < to; row++) {
+            double magnitude = earthquakes.getMagnitude(row);
+            long date = earthquakes.getDate(row);
+            if ((mAggregates & AGGREGATE_MAGNITUDES) != 0) {
+                mMagnitudeCounts[EarthquakeFormatter.getMagnitudeBucket(magnitude)]--;
+            }
+            if (time) {
+                mHourCounts.add(floorDiv(date, HOUR), -1);
+                dates[row - from] = date;
+            }
+            for (int region = 0; region < mRegionCounts.length; region++) {
+                if (!mRegions.get(region).matches(magnitude, date, earthquakes.getLatitude(row),
+                        earthquakes.getLongitude(row), mNow)) {
+                    continue;
+                }
+                mRegionCounts[region]--;
+                mRegionSums[region] -= magnitude;
+                if (earthquakes.getId(row).equals(mRegionMaxIds[region])) {
+                    mRegionStale[region] = true;
+                }
+            }
+        }
+        if (time) {
+            Arrays.sort(dates);
+            removeDates(dates, dates.length);
+        }
+        mCount -= to - from;
+    }
+
+    /**
+     * Adds the stats of other rows, computed for the same aggregates. The strongest event of
+     * these stats wins a tie, they are the earlier rows.
+     */
+    void merge(EarthquakeStats other) {
+        mCount += other.mCount;
+        for (int bucket = 0; bucket < MAGNITUDE_BUCKETS; bucket++) {
+            mMagnitudeCounts[bucket] += other.mMagnitudeCounts[bucket];
+        }
+        mHourCounts.addAll(other.mHourCounts);
+        mergeDates(other.mDates, other.mDateCount);
+        for (int region = 0; region < mRegionCounts.length; region++) {
+            mRegionCounts[region] += other.mRegionCounts[region];
+            mRegionSums[region] += other.mRegionSums[region];
+            if (other.mRegionMaxMagnitudes[region] > mRegionMaxMagnitudes[region]
+                    || Double.isNaN(mRegionMaxMagnitudes[region])) {
+                mRegionMaxMagnitudes[region] = other.mRegionMaxMagnitudes[region];
+                mRegionMaxIds[region] = other.mRegionMaxIds[region];
+                mRegionMaxPlaces[region] = other.mRegionMaxPlaces[region];
+            }
+        }
+    }
+
+    /**
+     * Tells if a region lost its strongest event, see {@link #takeMaxima(EarthquakeStats)}.
+     */
+    boolean hasStaleRegions() {
+        for (boolean stale : mRegionStale) {
+            if (stale) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the strongest event of the stale regions by the one of full stats of the rows.
+     */
+    void takeMaxima(EarthquakeStats full) {
+        for (int region = 0; region < mRegionCounts.length; region++) {
+            if (mRegionStale[region]) {
+                mRegionMaxMagnitudes[region] = full.mRegionMaxMagnitudes[region];
+                mRegionMaxIds[region] = full.mRegionMaxIds[region];
+                mRegionMaxPlaces[region] = full.mRegionMaxPlaces[region];
+                mRegionStale[region] = false;
+            }
+        }
+    }
+
+    /**
+     * Merges sorted times into the sorted times of the stats, in one pass over both.
+     */
+    private void mergeDates(long[] dates, int count) {
+        if (count == 0) {
+            return;
+        }
+        long[] merged = new long[mDateCount + count];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < merged.length; k++) {
+            if (j == count || (i < mDateCount && mDates[i] <= dates[j])) {
+                merged[k] = mDates[i++];
+            } else {
+                merged[k] = dates[j++];
+            }
+        }
+        mDates = merged;
+        mDateCount = merged.length;
+    }
+
+    /**
+     * Removes sorted times from the sorted times of the stats, in one pass over both. Any event
+     * at the same time will do, only the number of times is read.
+     */
+    private void removeDates(long[] dates, int count) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < mDateCount; i++) {
+            while (j < count && dates[j] < mDates[i]) {
+                // not in the stats
+                j++;
+            }
+            if (j < count && dates[j] == mDates[i]) {
+                j++;
+            } else {
+                mDates[kept++] = mDates[i];
+            }
+        }
+        mDateCount = kept;
+    }
+
+    /**
+     * Gets the index of the first time at or after the given one, by binary search.
+     */
+    private int firstDateAtOrAfter(long date) {
+        int low = 0;
+        int high = mDateCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mDates[middle] < date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Division rounded down, also for the times before 1970.
+     */
+    static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return dividend % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    /**
+     * Counts by hour, in an open addressing hash table of primitives: no boxing in the hot loop.
+     */
+    private static class HourCounts {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] mHours = newKeys(16);
+        private int[] mCounts = new int[16];
+        private int mSize;
+
+        int get(long hour) {
+            int slot = find(mHours, hour);
+            return mHours[slot] == hour ? mCounts[slot] : 0;
+        }
+
+        void add(long hour, int count) {
+            int slot = find(mHours, hour);
+            if (mHours[slot] != hour) {
+                mHours[slot] = hour;
+                mSize++;
+                if (mSize * 2 > mHours.length) {
+                    mCounts[slot] += count;
+                    grow();
+                    return;
+                }
+            }
+            mCounts[slot] += count;
+        }
+
+        void addAll(HourCounts other) {
+            for (int slot = 0; slot < other.mHours.length; slot++) {
+                if (other.mHours[slot] != EMPTY) {
+                    add(other.mHours[slot], other.mCounts[slot]);
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldHours = mHours;
+            int[] oldCounts = mCounts;
+            mHours = newKeys(oldHours.length * 2);
+            mCounts = new int[oldHours.length * 2];
+            for (int slot = 0; slot < oldHours.length; slot++) {
+                if (oldHours[slot] != EMPTY) {
+                    int newSlot = find(mHours, oldHours[slot]);
+                    mHours[newSlot] = oldHours[slot];
+                    mCounts[newSlot] = oldCounts[slot];
+                }
+            }
+        }
+
+        /**
+         * Gets the slot of the hour, or the empty slot where it goes.
+         */
+        private static int find(long[] hours, long hour) {
+            int mask = hours.length - 1;
+            // consecutive hours are spread by the multiplication
+            int slot = (int) ((hour * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (hours[slot] != hour && hours[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+    }
+}
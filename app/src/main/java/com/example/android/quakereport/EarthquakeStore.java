@@ -0,0 +1,190 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.quakereport.EarthquakeContract.EarthquakeEntry;
+
+import java.util.List;
+
+/**
+ * Local copy of the earthquakes downloaded from USGS, so the list can be shown
+ * without waiting for the network.
+ */
+
+public final class EarthquakeStore {
+
+    /**
+     * The oldest earthquakes above this number of rows are deleted after each insert, and the
+     * ones older than the default window of USGS: they would never be synced again.
+     */
+    static final int MAX_ROWS = 5000;
+
+    private static EarthquakeStore sInstance;
+
+    private final EarthquakeDbHelper mDbHelper;
+
+    EarthquakeStore(Context context) {
+        mDbHelper = new EarthquakeDbHelper(context);
+    }
+
+    /**
+     * Gets the single store of the app, the database is shared by every loader.
+     */
+    public static synchronized EarthquakeStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Merges the earthquakes into the store in a single transaction, rows are keyed by event id.
+     * New and revised events are inserted or replaced, deleted events are removed.
+     * @param earthquakes list of Earthquake.java objects to be saved
+     */
+    public void merge(List<Earthquake> earthquakes) {
+        merge(earthquakes, System.currentTimeMillis());
+    }
+
+    /**
+     * Same as {@link #merge(List)}, the window of the trim ends at now.
+     * @return true if rows were dropped to stay within MAX_ROWS, the store then misses
+     *         events of the window which USGS still returns
+     */
+    boolean merge(List<Earthquake> earthquakes, long now) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        // one compiled statement per kind of change is reused for every row of the batch
+        SQLiteStatement upsert = db.compileStatement("INSERT OR REPLACE INTO "
+                + EarthquakeEntry.TABLE_NAME + " ("
+                + EarthquakeEntry.COLUMN_EVENT_ID + ", "
+                + EarthquakeEntry.COLUMN_MAGNITUDE + ", "
+                + EarthquakeEntry.COLUMN_PLACE + ", "
+                + EarthquakeEntry.COLUMN_TIME + ", "
+                + EarthquakeEntry.COLUMN_UPDATED + ", "
+                + EarthquakeEntry.COLUMN_URL + ", "
+                + EarthquakeEntry.COLUMN_LONGITUDE + ", "
+                + EarthquakeEntry.COLUMN_LATITUDE + ", "
+                + EarthquakeEntry.COLUMN_DEPTH + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        SQLiteStatement delete = db.compileStatement("DELETE FROM "
+                + EarthquakeEntry.TABLE_NAME + " WHERE "
+                + EarthquakeEntry.COLUMN_EVENT_ID + " = ?");
+        db.beginTransaction();
+        try {
+            for (Earthquake earthquake : earthquakes) {
+                if (earthquake.isDeleted()) {
+                    delete.bindString(1, earthquake.getId());
+                    delete.executeUpdateDelete();
+                    continue;
+                }
+                upsert.bindString(1, earthquake.getId());
+                upsert.bindDouble(2, earthquake.getMagnitude());
+                upsert.bindString(3, earthquake.getLocation());
+                upsert.bindLong(4, earthquake.getDate());
+                upsert.bindLong(5, earthquake.getUpdated());
+                upsert.bindString(6, earthquake.getWeb());
+                bindCoordinate(upsert, 7, earthquake.getLongitude());
+                bindCoordinate(upsert, 8, earthquake.getLatitude());
+                bindCoordinate(upsert, 9, earthquake.getDepth());
+                upsert.executeInsert();
+            }
+            boolean capped = trim(db, now);
+            db.setTransactionSuccessful();
+            return capped;
+        } finally {
+            db.endTransaction();
+            upsert.close();
+            delete.close();
+        }
+    }
+
+    /**
+     * Tells if nothing is stored yet (first start, or the database was recreated).
+     */
+    public boolean isEmpty() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        SQLiteStatement count = db.compileStatement("SELECT COUNT(*) FROM "
+                + EarthquakeEntry.TABLE_NAME);
+        try {
+            return count.simpleQueryForLong() == 0;
+        } finally {
+            count.close();
+        }
+    }
+
+    /**
+     * Reads the stored earthquakes of a time window, newest first. The table is small enough
+     * (see MAX_ROWS) to be queried in memory by {@link EarthquakeQueryEngine}.
+     * @param startTime start of the window in milliseconds (UNIX time), see
+     *                  {@link QueryUtils#getStartTime(android.net.Uri, long)}
+     * @return table of earthquakes, empty if nothing is stored yet
+     */
+    public EarthquakeTable query(long startTime) {
+        EarthquakeTable earthquakes = new EarthquakeTable();
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(EarthquakeEntry.TABLE_NAME, null,
+                EarthquakeEntry.COLUMN_TIME + " >= ?", new String[]{String.valueOf(startTime)},
+                null, null, EarthquakeEntry.COLUMN_TIME + " DESC", null);
+        try {
+            int idColumn = cursor.getColumnIndexOrThrow(EarthquakeEntry.COLUMN_EVENT_ID);
+            int magnitudeColumn = cursor.getColumnIndexOrThrow(EarthquakeEntry.COLUMN_MAGNITUDE);
+            int placeColumn = cursor.getColumnIndexOrThrow(EarthquakeEntry.COLUMN_PLACE);
+            int timeColumn = cursor.getColumnIndexOrThrow(EarthquakeEntry.COLUMN_TIME);
+            int updatedColumn = cursor.getColumnIndexOrThrow(EarthquakeEntry.COLUMN_UPDATED);
+            int urlColumn = cursor.getColumnIndexOrThrow(EarthquakeEntry.COLUMN_URL);
+            int longitudeColumn = cursor.getColumnIndexOrThrow(EarthquakeEntry.COLUMN_LONGITUDE);
+            int latitudeColumn = cursor.getColumnIndexOrThrow(EarthquakeEntry.COLUMN_LATITUDE);
+            int depthColumn = cursor.getColumnIndexOrThrow(EarthquakeEntry.COLUMN_DEPTH);
+            while (cursor.moveToNext()) {
+                earthquakes.addRow(
+                        cursor.getString(idColumn),
+                        cursor.getDouble(magnitudeColumn),
+                        cursor.getString(placeColumn),
+                        cursor.getLong(timeColumn),
+                        cursor.getLong(updatedColumn),
+                        cursor.getString(urlColumn),
+                        getCoordinate(cursor, longitudeColumn),
+                        getCoordinate(cursor, latitudeColumn),
+                        getCoordinate(cursor, depthColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return earthquakes;
+    }
+
+    // unknown coordinates are NaN in memory and NULL in the database
+    private static void bindCoordinate(SQLiteStatement statement, int index, double value) {
+        if (Double.isNaN(value)) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    private static double getCoordinate(Cursor cursor, int column) {
+        return cursor.isNull(column) ? Double.NaN : cursor.getDouble(column);
+    }
+
+    /**
+     * Deletes the earthquakes out of the default window, and the oldest ones above MAX_ROWS,
+     * so the database does not grow forever.
+     * @return true if rows of the window were deleted because of MAX_ROWS
+     */
+    private static boolean trim(SQLiteDatabase db, long now) {
+        db.execSQL("DELETE FROM " + EarthquakeEntry.TABLE_NAME
+                + " WHERE " + EarthquakeEntry.COLUMN_TIME + " < "
+                + (now - QueryUtils.DEFAULT_WINDOW));
+        SQLiteStatement cap = db.compileStatement("DELETE FROM " + EarthquakeEntry.TABLE_NAME
+                + " WHERE " + EarthquakeEntry.COLUMN_EVENT_ID + " NOT IN (SELECT "
+                + EarthquakeEntry.COLUMN_EVENT_ID + " FROM " + EarthquakeEntry.TABLE_NAME
+                + " ORDER BY " + EarthquakeEntry.COLUMN_TIME + " DESC LIMIT " + MAX_ROWS + ")");
+        try {
+            return cap.executeUpdateDelete() > 0;
+        } finally {
+            cap.close();
+        }
+    }
+}
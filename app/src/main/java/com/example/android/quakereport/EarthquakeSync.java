@@ -0,0 +1,221 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps the {@link EarthquakeStore} up to date with incremental downloads.
+ * For each query it remembers a high-water mark, the newest "updated" time seen so far, and
+ * after the first full download it only asks USGS for the events updated after that time.
+ */
+
+public final class EarthquakeSync {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakeSync.class.getName();
+
+    /** Preferences file holding the high-water marks */
+    private static final String PREFS_NAME = "earthquake_sync";
+
+    /** Maximum number of events USGS returns for one query */
+    private static final String MAX_LIMIT = "20000";
+
+    /** Full downloads asking for more events than this are split into parallel shards */
+    private static final int SHARDED_FETCH_THRESHOLD = 1000;
+
+    /** Number of shards downloaded at once */
+    private static final int SHARD_CONCURRENCY = 4;
+
+    /** Splits the large full downloads of every client, created on first use */
+    private static FetchPlanner sFetchPlanner;
+
+    // no one should create a sync object, it only holds static methods
+    private EarthquakeSync() {
+    }
+
+    /**
+     * Downloads the new, revised and deleted events of the query and merges them into the store.
+     * @param context any context, used for the store and the preferences
+     * @param httpClient client executing the request
+     * @param queryUrl the USGS query URL built in EarthquakeActivity
+     * @param trace receives the timings and sizes of the requests
+     * @param cancellation aborts the requests when the load is canceled
+     * @param listener gets the earthquakes of a full download as they are parsed, may be null.
+     *                 A delta download does not call it, its rows are only changes.
+     * @param priority lane of the download and of the merge in the EarthquakePipeline
+     * @return false if nothing could be downloaded
+     */
+    public static boolean sync(Context context, EarthquakeHttpClient httpClient,
+                               String queryUrl, LoadMetrics.Trace trace,
+                               LoadCancellation cancellation,
+                               QueryUtils.ParseListener listener, int priority) {
+        return sync(context, httpClient, queryUrl, trace, cancellation, listener, priority,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Same as {@link #sync(Context, EarthquakeHttpClient, String, LoadMetrics.Trace,
+     * LoadCancellation, QueryUtils.ParseListener, int)} at a given time.
+     * @param now end of the default window of the query in milliseconds (UNIX time)
+     */
+    static boolean sync(Context context, final EarthquakeHttpClient httpClient,
+                        final String queryUrl, final LoadMetrics.Trace trace,
+                        final LoadCancellation cancellation,
+                        final QueryUtils.ParseListener listener, int priority, final long now) {
+        final EarthquakeStore store = EarthquakeStore.getInstance(context);
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String key = highWaterMarkKey(queryUrl);
+        long highWaterMark = prefs.getLong(key, 0);
+        if (store.isEmpty()) {
+            // the database was recreated, the old mark is worthless
+            highWaterMark = 0;
+        }
+
+        EarthquakePipeline pipeline = EarthquakePipeline.getInstance();
+        final ArrayList<Earthquake> earthquakes;
+        if (highWaterMark == 0) {
+            earthquakes = pipeline.run(EarthquakePipeline.STAGE_NETWORK, priority, cancellation,
+                    new Callable<ArrayList<Earthquake>>() {
+                        @Override
+                        public ArrayList<Earthquake> call() {
+                            return fullFetch(httpClient, queryUrl, trace, cancellation, listener,
+                                    now);
+                        }
+                    });
+        } else {
+            final String url = deltaUrl(queryUrl, highWaterMark);
+            Log.i(LOG_TAG, "TEST: sync " + url);
+            earthquakes = pipeline.run(EarthquakePipeline.STAGE_NETWORK, priority, cancellation,
+                    new Callable<ArrayList<Earthquake>>() {
+                        @Override
+                        public ArrayList<Earthquake> call() {
+                            return QueryUtils.fetchData(httpClient, url, trace, cancellation);
+                        }
+                    });
+        }
+        if (earthquakes == null) {
+            return false;
+        }
+        Boolean capped = pipeline.run(EarthquakePipeline.STAGE_PERSIST, priority, cancellation,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return store.merge(earthquakes, now);
+                    }
+                });
+        if (capped == null) {
+            // canceled before the merge, the mark stays where the store is
+            return false;
+        }
+
+        SharedPreferences.Editor editor = prefs.edit();
+        if (capped) {
+            // the oldest rows were dropped: the other queries are no longer all in the store,
+            // their next sync downloads them in full again
+            editor.clear();
+            if (!keepsNewestRows(queryUrl)) {
+                // this one too, a delta would never bring the dropped rows back
+                editor.apply();
+                return true;
+            }
+        }
+        // move the mark to the newest update just merged
+        for (Earthquake earthquake : earthquakes) {
+            highWaterMark = Math.max(highWaterMark, earthquake.getUpdated());
+        }
+        editor.putLong(key, highWaterMark).apply();
+        return true;
+    }
+
+    /**
+     * Tells if the store holds every event of the query, as USGS would return it: a full
+     * download was merged and only deltas followed. Without a mark some of its rows may never
+     * have been downloaded, or were dropped to keep the store within its size.
+     * @param queryUrl the USGS query URL built in EarthquakeActivity
+     */
+    public static boolean isComplete(Context context, String queryUrl) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .contains(highWaterMarkKey(queryUrl));
+    }
+
+    /**
+     * Tells if the query only needs the newest rows, which the store keeps when it is full.
+     */
+    private static boolean keepsNewestRows(String queryUrl) {
+        Uri uri = Uri.parse(queryUrl);
+        String orderBy = uri.getQueryParameter("orderby");
+        String limit = uri.getQueryParameter("limit");
+        return (orderBy == null || orderBy.equals("time"))
+                && limit != null && Integer.parseInt(limit) <= EarthquakeStore.MAX_ROWS;
+    }
+
+    /**
+     * Downloads the whole query. Large ones are split over time and downloaded in parallel,
+     * the merged result is the same as the single request would return.
+     */
+    private static ArrayList<Earthquake> fullFetch(EarthquakeHttpClient httpClient,
+                                                   String queryUrl, LoadMetrics.Trace trace,
+                                                   LoadCancellation cancellation,
+                                                   QueryUtils.ParseListener listener, long now) {
+        Uri uri = Uri.parse(queryUrl);
+        String limit = uri.getQueryParameter("limit");
+        // queries with their own window are left alone, the shards cover the default window
+        if (limit == null || Integer.parseInt(limit) <= SHARDED_FETCH_THRESHOLD
+                || uri.getQueryParameter("starttime") != null) {
+            Log.i(LOG_TAG, "TEST: sync " + queryUrl);
+            return QueryUtils.fetchData(httpClient, queryUrl, trace, cancellation,
+                    listener);
+        }
+        long startTime = now - QueryUtils.DEFAULT_WINDOW;
+        Log.i(LOG_TAG, "TEST: sharded sync " + queryUrl);
+        return getFetchPlanner().fetch(httpClient, queryUrl, startTime, now,
+                SHARD_CONCURRENCY, trace, cancellation, listener);
+    }
+
+    private static synchronized FetchPlanner getFetchPlanner() {
+        if (sFetchPlanner == null) {
+            sFetchPlanner = new FetchPlanner(SHARD_CONCURRENCY);
+        }
+        return sFetchPlanner;
+    }
+
+    /**
+     * Builds the incremental query: same filters, only events updated after the mark,
+     * including the deleted ones so they can be removed from the store.
+     */
+    private static String deltaUrl(String queryUrl, long highWaterMark) {
+        return filterParameters(queryUrl)
+                .appendQueryParameter("updatedafter", QueryUtils.formatUtc(highWaterMark))
+                .appendQueryParameter("includedeleted", "true")
+                .appendQueryParameter("limit", MAX_LIMIT)
+                .build().toString();
+    }
+
+    /**
+     * The mark belongs to the whole query, its order and size included: the first download of
+     * the newest events may leave out the strongest ones, so a new order or limit needs its
+     * own full download before deltas can keep it up to date.
+     */
+    private static String highWaterMarkKey(String queryUrl) {
+        return queryUrl;
+    }
+
+    /**
+     * Copies the query without its "limit" and "orderby" parameters.
+     */
+    private static Uri.Builder filterParameters(String queryUrl) {
+        Uri uri = Uri.parse(queryUrl);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (!name.equals("limit") && !name.equals("orderby")) {
+                builder.appendQueryParameter(name, uri.getQueryParameter(name));
+            }
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.quakereport;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.Context;
+import android.os.Build;
+
+import java.util.HashMap;
+
+/**
+ * Runs the jobs of {@link BackgroundSync}: the periodic sync and its retries.
+ * Jobs are started on the main thread, each sync runs on its own thread.
+ */
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class EarthquakeSyncJobService extends JobService {
+
+    // cancellation of the running syncs by job id
+    private final HashMap<Integer, LoadCancellation> mCancellations = new HashMap<>();
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final LoadCancellation cancellation = new LoadCancellation();
+        synchronized (mCancellations) {
+            mCancellations.put(params.getJobId(), cancellation);
+        }
+        final Context context = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                BackgroundSync sync = new BackgroundSync(context,
+                        QueryUtils.getDefaultHttpClient(), BackgroundSync.SYSTEM_CLOCK);
+                long retryDelay = sync.run(EarthquakeActivity.buildQueryUrl(context),
+                        cancellation);
+                boolean stopped;
+                synchronized (mCancellations) {
+                    stopped = mCancellations.remove(params.getJobId()) == null;
+                }
+                if (stopped) {
+                    // onStopJob() already ended the job, the system runs it again
+                    return;
+                }
+                if (retryDelay > 0) {
+                    BackgroundSync.scheduleRetry(context, retryDelay);
+                }
+                // the backoff is ours, the job itself is not rescheduled
+                jobFinished(params, false);
+            }
+        }, "EarthquakeSyncJob").start();
+        // the job goes on in the thread
+        return true;
+    }
+
+    /**
+     * Called when the conditions are lost (unplugged, metered network...) during a sync.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        LoadCancellation cancellation;
+        synchronized (mCancellations) {
+            cancellation = mCancellations.remove(params.getJobId());
+        }
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+        // run it again once the conditions are back
+        return true;
+    }
+}
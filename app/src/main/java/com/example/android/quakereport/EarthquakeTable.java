@@ -0,0 +1,341 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * List of earthquakes stored column by column in primitive arrays, instead of one object
+ * (with its header and its own Strings) per earthquake.
+ * Places are interned in a dictionary, and the usual USGS event page URLs are not stored at all,
+ * they are rebuilt from the event id when asked for.
+ * {@link #get(int)} creates a short-lived {@link Earthquake}, hot paths should use the column
+ * getters. Only appending is supported.
+ * Once {@link #render(EarthquakeFormatter)} ran on a background thread, each row also has its
+ * ready to display {@link EarthquakeRow}, and once {@link #indexPlaces()} ran the places can be
+ * searched with the {@link PlaceIndex}.
+ */
+
+public class EarthquakeTable extends AbstractList<Earthquake> {
+
+    /** Event page URLs are this prefix followed by the event id */
+    static final String EVENT_PAGE_PREFIX = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // number of rows
+    private int mSize;
+
+    // columns, one element per row
+    private String[] mIds = new String[INITIAL_CAPACITY];
+    private double[] mMagnitudes = new double[INITIAL_CAPACITY];
+    private long[] mDates = new long[INITIAL_CAPACITY];
+    private long[] mUpdated = new long[INITIAL_CAPACITY];
+    private int[] mPlaceIds = new int[INITIAL_CAPACITY];
+    private double[] mLongitudes = new double[INITIAL_CAPACITY];
+    private double[] mLatitudes = new double[INITIAL_CAPACITY];
+    private double[] mDepths = new double[INITIAL_CAPACITY];
+    private EarthquakeRow[] mRows = new EarthquakeRow[INITIAL_CAPACITY];
+
+    // place dictionary, a place id is the index of the place in mPlaces
+    private final ArrayList<String> mPlaces = new ArrayList<>();
+    private final HashMap<String, Integer> mPlaceIdsByPlace = new HashMap<>();
+
+    // the few URLs which are not the usual event page, by row
+    private final HashMap<Integer, String> mOtherUrls = new HashMap<>();
+
+    // trigram index of the place dictionary, null until indexPlaces() ran
+    private volatile PlaceIndex mPlaceIndex;
+
+    // summary of the rows, null until setStats() is called
+    private volatile EarthquakeStats mStats;
+
+    public EarthquakeTable() {
+    }
+
+    /**
+     * Creates a table holding a copy of the earthquakes.
+     */
+    public EarthquakeTable(Collection<? extends Earthquake> earthquakes) {
+        addAll(earthquakes);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Builds an Earthquake object from the row.
+     */
+    @Override
+    public Earthquake get(int row) {
+        checkRow(row);
+        return new Earthquake(mIds[row], mMagnitudes[row], getLocation(row), mDates[row],
+                mUpdated[row], getWeb(row), false,
+                mLongitudes[row], mLatitudes[row], mDepths[row]);
+    }
+
+    /**
+     * Appends the earthquake, rows can only be added at the end.
+     */
+    @Override
+    public void add(int row, Earthquake earthquake) {
+        if (row != mSize) {
+            throw new UnsupportedOperationException("rows can only be appended");
+        }
+        addRow(earthquake.getId(), earthquake.getMagnitude(), earthquake.getLocation(),
+                earthquake.getDate(), earthquake.getUpdated(), earthquake.getWeb(),
+                earthquake.getLongitude(), earthquake.getLatitude(), earthquake.getDepth());
+    }
+
+    /**
+     * Appends a row from its values, without an Earthquake object.
+     */
+    public void addRow(String id, double magnitude, String location, long date, long updated,
+                       String web, double longitude, double latitude, double depth) {
+        int row = mSize;
+        ensureCapacity(row + 1);
+        mIds[row] = id;
+        mMagnitudes[row] = magnitude;
+        mDates[row] = date;
+        mUpdated[row] = updated;
+        mPlaceIds[row] = placeId(location);
+        mLongitudes[row] = longitude;
+        mLatitudes[row] = latitude;
+        mDepths[row] = depth;
+        mRows[row] = null;
+        if (!web.equals(EVENT_PAGE_PREFIX + id)) {
+            mOtherUrls.put(row, web);
+        }
+        mSize++;
+        modCount++;
+    }
+
+    /**
+     * Appends a row of another table, with its rendered values.
+     */
+    public void addRowFrom(EarthquakeTable other, int row) {
+        other.checkRow(row);
+        int newRow = mSize;
+        ensureCapacity(newRow + 1);
+        mIds[newRow] = other.mIds[row];
+        mMagnitudes[newRow] = other.mMagnitudes[row];
+        mDates[newRow] = other.mDates[row];
+        mUpdated[newRow] = other.mUpdated[row];
+        mPlaceIds[newRow] = placeId(other.mPlaces.get(other.mPlaceIds[row]));
+        mLongitudes[newRow] = other.mLongitudes[row];
+        mLatitudes[newRow] = other.mLatitudes[row];
+        mDepths[newRow] = other.mDepths[row];
+        mRows[newRow] = other.mRows[row];
+        String otherUrl = other.mOtherUrls.get(row);
+        if (otherUrl != null) {
+            mOtherUrls.put(newRow, otherUrl);
+        }
+        mSize++;
+        modCount++;
+    }
+
+    /**
+     * Appends the earthquakes, another table is copied column by column.
+     */
+    @Override
+    public boolean addAll(Collection<? extends Earthquake> earthquakes) {
+        if (!(earthquakes instanceof EarthquakeTable)) {
+            return super.addAll(earthquakes);
+        }
+        EarthquakeTable other = (EarthquakeTable) earthquakes;
+        int otherSize = other.mSize;
+        ensureCapacity(mSize + otherSize);
+        for (int row = 0; row < otherSize; row++) {
+            addRowFrom(other, row);
+        }
+        return otherSize > 0;
+    }
+
+    @Override
+    public void clear() {
+        // keep the arrays, the next result is likely about the same size
+        Arrays.fill(mIds, 0, mSize, null);
+        Arrays.fill(mRows, 0, mSize, null);
+        mSize = 0;
+        mPlaces.clear();
+        mPlaceIdsByPlace.clear();
+        mOtherUrls.clear();
+        mPlaceIndex = null;
+        mStats = null;
+        modCount++;
+    }
+
+    /**
+     * Gets the USGS event id of the row.
+     */
+    public String getId(int row) {
+        checkRow(row);
+        return mIds[row];
+    }
+
+    /**
+     * Gets the magnitude of the row.
+     */
+    public double getMagnitude(int row) {
+        checkRow(row);
+        return mMagnitudes[row];
+    }
+
+    /**
+     * Gets the location of the row, the instance is shared by the rows of the same place.
+     */
+    public String getLocation(int row) {
+        checkRow(row);
+        return mPlaces.get(mPlaceIds[row]);
+    }
+
+    /**
+     * Gets the id of the place of the row, an index of the {@link PlaceIndex} matches.
+     */
+    int getPlaceId(int row) {
+        checkRow(row);
+        return mPlaceIds[row];
+    }
+
+    /**
+     * Gets the date of the row in milliseconds (UNIX time).
+     */
+    public long getDate(int row) {
+        checkRow(row);
+        return mDates[row];
+    }
+
+    /**
+     * Gets the time of the last update of the row in milliseconds (UNIX time).
+     */
+    public long getUpdated(int row) {
+        checkRow(row);
+        return mUpdated[row];
+    }
+
+    /**
+     * Gets the longitude of the epicenter of the row in degrees, NaN if unknown.
+     */
+    public double getLongitude(int row) {
+        checkRow(row);
+        return mLongitudes[row];
+    }
+
+    /**
+     * Gets the latitude of the epicenter of the row in degrees, NaN if unknown.
+     */
+    public double getLatitude(int row) {
+        checkRow(row);
+        return mLatitudes[row];
+    }
+
+    /**
+     * Gets the depth of the hypocenter of the row in kilometers, NaN if unknown.
+     */
+    public double getDepth(int row) {
+        checkRow(row);
+        return mDepths[row];
+    }
+
+    /**
+     * Gets the web page uri of the row, rebuilt from the event id.
+     */
+    public String getWeb(int row) {
+        checkRow(row);
+        String otherUrl = mOtherUrls.get(row);
+        return otherUrl != null ? otherUrl : EVENT_PAGE_PREFIX + mIds[row];
+    }
+
+    /**
+     * Formats the rows which are not formatted yet. Call it off the main thread.
+     */
+    public void render(EarthquakeFormatter formatter) {
+        for (int row = 0; row < mSize; row++) {
+            if (mRows[row] == null) {
+                mRows[row] = formatter.format(this, row);
+            }
+        }
+    }
+
+    /**
+     * Gets the ready to display values of the row, null if the table was not rendered.
+     */
+    public EarthquakeRow getRow(int row) {
+        checkRow(row);
+        return mRows[row];
+    }
+
+    /**
+     * Indexes the places for the search of the list, if they are not indexed yet.
+     * Call it off the main thread.
+     */
+    public void indexPlaces() {
+        if (getPlaceIndex() == null) {
+            mPlaceIndex = new PlaceIndex(mPlaces.toArray(new String[mPlaces.size()]));
+        }
+    }
+
+    /**
+     * Gets the index of the places, null if they were not indexed or rows with new places
+     * were added since.
+     */
+    public PlaceIndex getPlaceIndex() {
+        PlaceIndex placeIndex = mPlaceIndex;
+        return placeIndex != null && placeIndex.getPlaceCount() == mPlaces.size()
+                ? placeIndex : null;
+    }
+
+    /**
+     * Gets the summary of the rows, null if it was not computed.
+     */
+    public EarthquakeStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Sets the summary of the rows, see {@link EarthquakeAggregator}. The stats must not be
+     * changed afterwards, they are read by the main thread.
+     */
+    public void setStats(EarthquakeStats stats) {
+        mStats = stats;
+    }
+
+    /**
+     * Gets the id of the place in the dictionary, adding it if it is new.
+     */
+    private int placeId(String place) {
+        Integer placeId = mPlaceIdsByPlace.get(place);
+        if (placeId == null) {
+            placeId = mPlaces.size();
+            mPlaces.add(place);
+            mPlaceIdsByPlace.put(place, placeId);
+        }
+        return placeId;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mMagnitudes = Arrays.copyOf(mMagnitudes, newCapacity);
+        mDates = Arrays.copyOf(mDates, newCapacity);
+        mUpdated = Arrays.copyOf(mUpdated, newCapacity);
+        mPlaceIds = Arrays.copyOf(mPlaceIds, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mDepths = Arrays.copyOf(mDepths, newCapacity);
+        mRows = Arrays.copyOf(mRows, newCapacity);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + mSize);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a long time window as several shorter windows (shards) in parallel.
+ * Each shard is downloaded and parsed on its own thread, then the sorted shards are merged
+ * into one list, in the order asked by the query.
+ * USGS includes both ends of a window, so every shard but the last ends one millisecond before
+ * the next one starts: an event right on a boundary belongs to a single shard.
+ */
+
+public class FetchPlanner {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = FetchPlanner.class.getName();
+
+    /** Runs at most the configured number of shards at once */
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Constructor
+     * @param concurrency maximum number of shards downloaded at once
+     */
+    public FetchPlanner(int concurrency) {
+        mExecutor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // the threads are only kept while there is work
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Downloads the query over the time window, split into shards of equal length.
+     * @param httpClient client executing the requests, it has to allow parallel requests
+     * @param queryUrl the USGS query URL, its own starttime/endtime are replaced
+     * @param startTime start of the window in milliseconds (UNIX time)
+     * @param endTime end of the window in milliseconds (UNIX time)
+     * @param shardCount number of shards
+     * @param trace receives the timings and sizes of the shard requests
+     * @param cancellation aborts every shard request when the load is canceled
+     * @param listener gets the earthquakes of every shard as they are parsed, may be null
+     * @return the merged list, at most "limit" long, or null if a shard failed
+     */
+    public ArrayList<Earthquake> fetch(final EarthquakeHttpClient httpClient, String queryUrl,
+                                       long startTime, long endTime,
+                                       int shardCount, final LoadMetrics.Trace trace,
+                                       final LoadCancellation cancellation,
+                                       final QueryUtils.ParseListener listener) {
+        Uri uri = Uri.parse(queryUrl);
+        String orderBy = uri.getQueryParameter("orderby");
+        int limit = parseLimit(uri.getQueryParameter("limit"));
+
+        List<Future<ArrayList<Earthquake>>> futures = new ArrayList<>();
+        long shardLength = Math.max(1, (endTime - startTime) / shardCount);
+        for (long shardStart = startTime; shardStart < endTime; shardStart += shardLength) {
+            // the end of the window is inclusive, the end of a shard is the next shard
+            long shardEnd = shardStart + shardLength >= endTime
+                    ? endTime : shardStart + shardLength - 1;
+            final String shardUrl = shardUrl(uri, shardStart, shardEnd);
+            futures.add(mExecutor.submit(new Callable<ArrayList<Earthquake>>() {
+                @Override
+                public ArrayList<Earthquake> call() {
+                    return QueryUtils.fetchData(httpClient, shardUrl, trace, cancellation,
+                            listener);
+                }
+            }));
+        }
+
+        List<ArrayList<Earthquake>> shards = new ArrayList<>();
+        try {
+            for (Future<ArrayList<Earthquake>> future : futures) {
+                ArrayList<Earthquake> shard = future.get();
+                if (shard == null) {
+                    // a hole in the window would show up as missing earthquakes
+                    return null;
+                }
+                shards.add(shard);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem downloading a shard", e);
+            return null;
+        } finally {
+            for (Future<ArrayList<Earthquake>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return merge(shards, EarthquakeOrder.forOrderBy(orderBy), limit);
+    }
+
+    /**
+     * K-way merge of lists already sorted by the comparator (USGS sorts each shard).
+     * An event in several shards is only kept once: a revision moving its time to another
+     * shard while the shards are downloaded would list it twice.
+     */
+    static ArrayList<Earthquake> merge(List<ArrayList<Earthquake>> shards,
+                                       Comparator<Earthquake> order, int limit) {
+        // heads of the shards, as {shard index, position in shard}
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, shards.size()),
+                new ShardHeadComparator(shards, order));
+        for (int i = 0; i < shards.size(); i++) {
+            if (!shards.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+
+        ArrayList<Earthquake> merged = new ArrayList<>();
+        HashSet<String> ids = new HashSet<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] head = heads.poll();
+            ArrayList<Earthquake> shard = shards.get(head[0]);
+            Earthquake earthquake = shard.get(head[1]);
+            if (ids.add(earthquake.getId())) {
+                merged.add(earthquake);
+            }
+            head[1]++;
+            if (head[1] < shard.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Copies the query with the shard window as starttime/endtime.
+     */
+    private static String shardUrl(Uri uri, long startTime, long endTime) {
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (!name.equals("starttime") && !name.equals("endtime")) {
+                builder.appendQueryParameter(name, uri.getQueryParameter(name));
+            }
+        }
+        builder.appendQueryParameter("starttime", QueryUtils.formatUtc(startTime));
+        builder.appendQueryParameter("endtime", QueryUtils.formatUtc(endTime));
+        return builder.build().toString();
+    }
+
+    private static int parseLimit(String limit) {
+        try {
+            return limit == null ? Integer.MAX_VALUE : Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Compares the current earthquakes of two shard heads.
+     */
+    private static class ShardHeadComparator implements Comparator<int[]> {
+
+        private final List<ArrayList<Earthquake>> mShards;
+        private final Comparator<Earthquake> mOrder;
+
+        ShardHeadComparator(List<ArrayList<Earthquake>> shards, Comparator<Earthquake> order) {
+            mShards = shards;
+            mOrder = order;
+        }
+
+        @Override
+        public int compare(int[] first, int[] second) {
+            return mOrder.compare(mShards.get(first[0]).get(first[1]),
+                    mShards.get(second[0]).get(second[1]));
+        }
+    }
+}
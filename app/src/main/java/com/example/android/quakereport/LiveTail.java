@@ -0,0 +1,329 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live mode of the list: polls the small USGS summary feeds and merges their new and revised
+ * events into the displayed earthquakes, instead of running the whole query again.
+ * Every poll is a conditional request, an unchanged feed is a 304 without a body: nothing is
+ * parsed, merged or posted. A changed feed is parsed, and only the events whose "updated"
+ * time moved are merged, by event id. The rows already displayed keep their formatting,
+ * only the merged ones are formatted, and the adapter dispatches the changed rows.
+ * The past day feed catches up after a start or a gap, the past hour feed is polled otherwise.
+ */
+
+public class LiveTail {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = LiveTail.class.getName();
+
+    /** Summary feeds, regenerated by USGS every minute */
+    static final String PAST_HOUR_FEED =
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/all_hour.geojson";
+    static final String PAST_DAY_FEED =
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/all_day.geojson";
+
+    /** Delay between two polls, in milliseconds */
+    static final long POLL_INTERVAL = 15 * 1000;
+
+    /** After a gap longer than this the hour feed could miss events, the day feed is polled */
+    private static final long HOUR_FEED_REACH = 50 * 60 * 1000;
+
+    /** Live events older than this are dropped, the query result has them by then */
+    private static final long LIVE_EVENT_AGE = 24 * 60 * 60 * 1000;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Gets the displayed earthquakes after a merge, on the main thread.
+     */
+    public interface Listener {
+        void onLiveUpdate(EarthquakeTable earthquakes);
+    }
+
+    private final EarthquakeHttpClient mHttpClient;
+    private final EarthquakeFormatter mFormatter;
+    private final Listener mListener;
+    private final long mPollInterval;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // the query of the list
+    private final double mMinMagnitude;
+    private final Comparator<Earthquake> mComparator;
+    private final int mLimit;
+
+    // polling, only used on the main thread
+    private ScheduledExecutorService mExecutor;
+    private LoadCancellation mCancellation;
+
+    // everything below is only used on the poll thread
+
+    /** Validators of the last copy of each feed, by feed URL: {ETag, Last-Modified} */
+    private final HashMap<String, String[]> mValidators = new HashMap<>();
+
+    /** Events seen in the feeds, in their last revision, by event id */
+    private final HashMap<String, Earthquake> mLiveEvents = new HashMap<>();
+
+    /** When a feed was last read successfully, 0 if never */
+    private long mLastPoll;
+
+    /** Last table handed to the listener, the result of the query with the live events */
+    private EarthquakeTable mDisplayed = new EarthquakeTable();
+
+    /**
+     * Constructor
+     * @param queryUrl the USGS query URL of the list, the live events are filtered like it
+     * @param formatter formats the merged rows, only used on the poll thread
+     * @param listener gets the merged tables
+     */
+    public LiveTail(EarthquakeHttpClient httpClient, String queryUrl,
+                    EarthquakeFormatter formatter, Listener listener) {
+        this(httpClient, queryUrl, formatter, listener, POLL_INTERVAL);
+    }
+
+    /**
+     * Same as {@link #LiveTail(EarthquakeHttpClient, String, EarthquakeFormatter, Listener)}
+     * with another delay between two polls, in milliseconds.
+     */
+    LiveTail(EarthquakeHttpClient httpClient, String queryUrl, EarthquakeFormatter formatter,
+             Listener listener, long pollInterval) {
+        mHttpClient = httpClient;
+        mFormatter = formatter;
+        mListener = listener;
+        mPollInterval = pollInterval;
+        Uri uri = Uri.parse(queryUrl);
+        mMinMagnitude = QueryUtils.parseDouble(uri.getQueryParameter("minmag"), 0);
+        mComparator = EarthquakeOrder.forOrderBy(uri.getQueryParameter("orderby"));
+        mLimit = (int) QueryUtils.parseDouble(uri.getQueryParameter("limit"), 100);
+    }
+
+    /**
+     * Starts polling. Call it on the main thread.
+     */
+    public void start() {
+        if (mExecutor != null) {
+            return;
+        }
+        final LoadCancellation cancellation = new LoadCancellation();
+        mCancellation = cancellation;
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll(cancellation);
+                } catch (RuntimeException e) {
+                    // thrown out of the task it would cancel the next polls without a word
+                    Log.e(LOG_TAG, "Problem merging the live events", e);
+                }
+            }
+        }, 0, mPollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling, a poll in progress is aborted. Call it on the main thread.
+     */
+    public void stop() {
+        if (mExecutor == null) {
+            return;
+        }
+        mCancellation.cancel();
+        mExecutor.shutdownNow();
+        mExecutor = null;
+        mCancellation = null;
+    }
+
+    /**
+     * Replaces the result of the query the live events are merged into, e.g. after a reload.
+     * Its rows newer than the live revision of their event are kept.
+     * Call it on the main thread while polling.
+     * @param earthquakes rendered result of the query
+     */
+    public void setBase(final EarthquakeTable earthquakes) {
+        if (mExecutor == null) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                publish(merge(earthquakes, new ArrayList<>(mLiveEvents.values())));
+            }
+        });
+    }
+
+    private void poll(LoadCancellation cancellation) {
+        long now = System.currentTimeMillis();
+        String feed = now - mLastPoll > HOUR_FEED_REACH ? PAST_DAY_FEED : PAST_HOUR_FEED;
+        ArrayList<Earthquake> changes = new ArrayList<>();
+        if (!fetchChanges(feed, cancellation, changes)) {
+            return;
+        }
+        mLastPoll = now;
+
+        // the query result covers the old events, forget them
+        Iterator<Earthquake> liveEvents = mLiveEvents.values().iterator();
+        while (liveEvents.hasNext()) {
+            if (now - liveEvents.next().getDate() > LIVE_EVENT_AGE) {
+                liveEvents.remove();
+            }
+        }
+        if (!changes.isEmpty()) {
+            publish(merge(mDisplayed, changes));
+        }
+    }
+
+    /**
+     * Reads the feed if it changed since the last poll.
+     * @param changes receives the new and revised events of the feed
+     * @return false if the request failed
+     */
+    private boolean fetchChanges(String feed, LoadCancellation cancellation,
+                                 ArrayList<Earthquake> changes) {
+        String[] validators = mValidators.get(feed);
+        EarthquakeHttpClient.Response response = null;
+        try {
+            response = mHttpClient.getIfChanged(new URL(feed),
+                    validators != null ? validators[0] : null,
+                    validators != null ? validators[1] : null);
+            cancellation.attach(response);
+            int responseCode = response.getCode();
+            if (responseCode == 304) {
+                Log.i(LOG_TAG, "TEST: " + feed + " not modified");
+                return true;
+            }
+            if (responseCode != 200) {
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
+                return false;
+            }
+            CountingInputStream transferred = new CountingInputStream(response.getBody());
+            ArrayList<Earthquake> earthquakes = QueryUtils.extractEarthquakes(
+                    new BufferedInputStream(QueryUtils.decode(transferred,
+                            response.getContentEncoding()), BUFFER_SIZE),
+                    cancellation, null);
+            mValidators.put(feed,
+                    new String[]{response.getHeader("ETag"), response.getHeader("Last-Modified")});
+
+            for (Earthquake earthquake : earthquakes) {
+                Earthquake known = mLiveEvents.get(earthquake.getId());
+                if (known == null || known.getUpdated() != earthquake.getUpdated()) {
+                    mLiveEvents.put(earthquake.getId(), earthquake);
+                    changes.add(earthquake);
+                }
+            }
+            Log.i(LOG_TAG, "TEST: " + feed + " transferred " + transferred.getCount()
+                    + " bytes, " + changes.size() + " changes");
+            return true;
+        } catch (IOException e) {
+            if (!cancellation.isCanceled()) {
+                Log.e(LOG_TAG, "Problem polling " + feed, e);
+            }
+            return false;
+        } finally {
+            if (response != null) {
+                cancellation.detach(response);
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing " + feed, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges events into a table sorted in the order of the query, replacing the rows with
+     * the same event id, unless the row is a newer revision (e.g. a reload after the feed was
+     * read). Only the merged rows are formatted.
+     */
+    private EarthquakeTable merge(EarthquakeTable earthquakes, ArrayList<Earthquake> events) {
+        HashMap<String, Earthquake> eventsById = new HashMap<>();
+        for (Earthquake event : events) {
+            eventsById.put(event.getId(), event);
+        }
+        for (int row = 0; row < earthquakes.size(); row++) {
+            Earthquake event = eventsById.get(earthquakes.getId(row));
+            if (event != null && earthquakes.getUpdated(row) > event.getUpdated()) {
+                eventsById.remove(event.getId());
+            }
+        }
+        ArrayList<Earthquake> inserted = new ArrayList<>();
+        for (Earthquake event : eventsById.values()) {
+            if (!event.isDeleted() && event.getMagnitude() >= mMinMagnitude) {
+                inserted.add(event);
+            }
+        }
+        Collections.sort(inserted, mComparator);
+
+        EarthquakeTable merged = new EarthquakeTable();
+        // what changed, for the stats
+        EarthquakeTable removed = new EarthquakeTable();
+        EarthquakeTable added = new EarthquakeTable();
+        int row = 0;
+        int next = 0;
+        while (merged.size() < mLimit) {
+            // the rows replaced by a live event are skipped
+            while (row < earthquakes.size() && eventsById.containsKey(earthquakes.getId(row))) {
+                removed.addRowFrom(earthquakes, row++);
+            }
+            boolean hasRow = row < earthquakes.size();
+            boolean hasEvent = next < inserted.size();
+            if (!hasRow && !hasEvent) {
+                break;
+            }
+            if (hasEvent && (!hasRow
+                    || mComparator.compare(inserted.get(next), earthquakes.get(row)) <= 0)) {
+                added.add(inserted.get(next));
+                merged.add(inserted.get(next++));
+            } else {
+                merged.addRowFrom(earthquakes, row++);
+            }
+        }
+        // and the rows pushed past the limit
+        while (row < earthquakes.size()) {
+            removed.addRowFrom(earthquakes, row++);
+        }
+        merged.render(mFormatter);
+        merged.indexPlaces();
+
+        // only the changed rows are aggregated
+        EarthquakeAggregator aggregator = EarthquakeAggregator.getInstance();
+        EarthquakeStats stats = earthquakes.getStats();
+        if (stats != null) {
+            stats = new EarthquakeStats(stats);
+            aggregator.update(stats, merged, removed, added);
+        } else {
+            stats = aggregator.aggregate(merged, EarthquakeLoader.LIST_AGGREGATES,
+                    Collections.<RegionQuery>emptyList(), System.currentTimeMillis());
+        }
+        merged.setStats(stats);
+        return merged;
+    }
+
+    private void publish(final EarthquakeTable earthquakes) {
+        mDisplayed = earthquakes;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // a poll finishing after stop() must not show up
+                if (mExecutor != null) {
+                    mListener.onLiveUpdate(earthquakes);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.quakereport;
+
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+
+/**
+ * Cancellation of one load. The requests of the load attach their responses while they read
+ * them, {@link #cancel()} aborts them from any thread, so a read blocked on the network fails
+ * right away instead of downloading the rest of the body. The parser checks
+ * {@link #throwIfCanceled()} between features.
+ */
+
+public class LoadCancellation {
+
+    private boolean mCanceled;
+
+    // responses being read, a load can have several requests at once (see FetchPlanner)
+    private final HashSet<EarthquakeHttpClient.Response> mResponses = new HashSet<>();
+
+    /**
+     * Cancels the load and aborts the responses being read.
+     */
+    public void cancel() {
+        final EarthquakeHttpClient.Response[] responses;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            responses = mResponses.toArray(new EarthquakeHttpClient.Response[mResponses.size()]);
+            mResponses.clear();
+        }
+        if (responses.length == 0) {
+            return;
+        }
+        // cancel() is called on the main thread, closing a (TLS) socket is network I/O
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (EarthquakeHttpClient.Response response : responses) {
+                    response.abort();
+                }
+            }
+        }, "LoadCancellation").start();
+    }
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Stops the caller with an InterruptedIOException if the load was canceled.
+     */
+    public void throwIfCanceled() throws InterruptedIOException {
+        if (isCanceled()) {
+            throw new InterruptedIOException("load canceled");
+        }
+    }
+
+    /**
+     * Registers a response being read, it is aborted at once if the load is already canceled.
+     */
+    void attach(EarthquakeHttpClient.Response response) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mResponses.add(response);
+                return;
+            }
+        }
+        response.abort();
+    }
+
+    /**
+     * Unregisters a response once it is read or closed.
+     */
+    synchronized void detach(EarthquakeHttpClient.Response response) {
+        mResponses.remove(response);
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-stage timings and counters of the earthquake loads.
+ * Each load records into a {@link Trace}, finished traces are added to histograms which can be
+ * read in code with {@link #getHistogram(int)} and {@link #dump()}, and appended as one line to a
+ * rolling log file. The file is written on a thread of its own, outside the lock of the
+ * counters, so the main thread binding rows never waits for the disk.
+ * When disabled, {@link #begin()} hands out a trace that records nothing.
+ */
+
+public final class LoadMetrics {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = LoadMetrics.class.getName();
+
+    // stages of a load
+    /** DNS lookup and connection (with TLS), until the request is sent */
+    public static final int STAGE_CONNECT = 0;
+    /** Waiting for the response headers */
+    public static final int STAGE_FIRST_BYTE = 1;
+    /** Time blocked reading the body from the network */
+    public static final int STAGE_DOWNLOAD = 2;
+    /** Decompressing and parsing the body, minus the download time */
+    public static final int STAGE_PARSE = 3;
+    /** Answering the query (filter and order) from the local earthquakes */
+    public static final int STAGE_SORT = 4;
+    /** From the start of the load until the first row of its result is bound */
+    public static final int STAGE_FIRST_ROW_BOUND = 5;
+    /** Reading the snapshot of the last result on a cold start, compare it with parse */
+    public static final int STAGE_SNAPSHOT = 6;
+
+    private static final String[] STAGE_NAMES = {"connect", "first_byte", "download", "parse",
+            "sort", "first_row_bound", "snapshot"};
+
+    /** Histogram buckets: bucket i counts durations below 2^i microseconds, the last the rest */
+    public static final int BUCKET_COUNT = 24;
+
+    /** Log file size at which it is renamed to metrics.log.1 and a new one is started */
+    private static final long MAX_LOG_SIZE = 256 * 1024;
+
+    private static volatile boolean sEnabled;
+    private static File sLogFile;
+
+    /** Appends the lines to the log file one at a time, in the order the loads finished */
+    private static final ThreadPoolExecutor sLogWriter = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        // the thread is only kept while there are lines to write
+        sLogWriter.allowCoreThreadTimeOut(true);
+    }
+
+    // start of the last load whose first row was not bound yet, 0 if none
+    private static volatile long sPendingFirstRowStart;
+
+    private static final long[][] sHistograms = new long[STAGE_NAMES.length][BUCKET_COUNT];
+    private static long sLoads;
+    private static long sBytesTransferred;
+    private static long sBytesDecoded;
+    private static long sFeatures;
+    private static long sHttpResponses;
+    private static long sHttpCacheHits;
+    private static long sLocalAnswers;
+
+    /** Trace used when the metrics are disabled or nothing is traced, it ignores everything */
+    public static final Trace NO_TRACE = new Trace(false);
+
+    // no one should create a metrics object, it only holds static methods
+    private LoadMetrics() {
+    }
+
+    /**
+     * Turns the recording on or off.
+     * @param enabled true to record
+     * @param logDir directory of the rolling log file, null for no file
+     */
+    public static synchronized void setEnabled(boolean enabled, File logDir) {
+        sEnabled = enabled;
+        sLogFile = logDir == null ? null : new File(logDir, "metrics.log");
+    }
+
+    /**
+     * Starts the trace of a new load.
+     */
+    public static Trace begin() {
+        if (!sEnabled) {
+            return NO_TRACE;
+        }
+        Trace trace = new Trace(true);
+        sPendingFirstRowStart = trace.mStart;
+        return trace;
+    }
+
+    /**
+     * Called by the list when it binds a row, records the first one after a load started.
+     */
+    public static void onRowBound() {
+        long start = sPendingFirstRowStart;
+        if (start != 0) {
+            sPendingFirstRowStart = 0;
+            synchronized (LoadMetrics.class) {
+                addToHistogram(STAGE_FIRST_ROW_BOUND, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Gets a copy of the histogram of the stage.
+     * @param stage one of the STAGE_ constants
+     * @return counts of durations, bucket i is below 2^i microseconds
+     */
+    public static synchronized long[] getHistogram(int stage) {
+        return Arrays.copyOf(sHistograms[stage], BUCKET_COUNT);
+    }
+
+    /**
+     * Gets every histogram and counter as text.
+     */
+    public static synchronized String dump() {
+        StringBuilder output = new StringBuilder();
+        output.append("loads=").append(sLoads)
+                .append(" bytes_transferred=").append(sBytesTransferred)
+                .append(" bytes_decoded=").append(sBytesDecoded)
+                .append(" features=").append(sFeatures)
+                .append(" http_cache_hits=").append(sHttpCacheHits)
+                .append('/').append(sHttpResponses)
+                .append(" local_answers=").append(sLocalAnswers).append('\n');
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            output.append(STAGE_NAMES[stage]).append(" (us, <2^i):");
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                if (sHistograms[stage][bucket] != 0) {
+                    output.append(' ').append(bucket).append('=')
+                            .append(sHistograms[stage][bucket]);
+                }
+            }
+            output.append('\n');
+        }
+        return output.toString();
+    }
+
+    /**
+     * Waits until the lines of the loads finished so far are in the log file.
+     */
+    static void awaitLogWrites() throws InterruptedException {
+        try {
+            sLogWriter.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void record(Trace trace) {
+        final File logFile;
+        synchronized (LoadMetrics.class) {
+            sLoads++;
+            for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+                if (trace.mStageNanos[stage] != 0) {
+                    addToHistogram(stage, trace.mStageNanos[stage]);
+                }
+            }
+            sBytesTransferred += trace.mBytesTransferred;
+            sBytesDecoded += trace.mBytesDecoded;
+            sFeatures += trace.mFeatures;
+            sHttpResponses += trace.mHttpResponses;
+            sHttpCacheHits += trace.mHttpCacheHits;
+            if (trace.mLocalAnswer) {
+                sLocalAnswers++;
+            }
+            logFile = sLogFile;
+        }
+        if (logFile == null) {
+            return;
+        }
+        final String line = trace.toString();
+        sLogWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                appendToLog(logFile, line);
+            }
+        });
+    }
+
+    // called with the class lock held
+    private static void addToHistogram(int stage, long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_COUNT - 1 && micros >= (1L << bucket)) {
+            bucket++;
+        }
+        sHistograms[stage][bucket]++;
+    }
+
+    // called on the log writer thread only, without the class lock
+    private static void appendToLog(File logFile, String line) {
+        if (logFile.length() > MAX_LOG_SIZE) {
+            File oldLog = new File(logFile.getPath() + ".1");
+            if (!logFile.renameTo(oldLog)) {
+                Log.e(LOG_TAG, "Could not roll " + logFile);
+            }
+        }
+        Writer writer = null;
+        try {
+            writer = new FileWriter(logFile, true);
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the metrics log", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem closing the metrics log", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Measurements of one load. Requests of the same load may run on several threads.
+     */
+    public static class Trace {
+
+        private final boolean mEnabled;
+        private final long mStart;
+        private final long[] mStageNanos = new long[STAGE_NAMES.length];
+        private long mBytesTransferred;
+        private long mBytesDecoded;
+        private int mFeatures;
+        private int mHttpResponses;
+        private int mHttpCacheHits;
+        private String mFormat = "";
+        private boolean mLocalAnswer;
+
+        Trace(boolean enabled) {
+            mEnabled = enabled;
+            mStart = enabled ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Tells if anything is recorded, to skip preparing measurements when not.
+         */
+        public boolean isEnabled() {
+            return mEnabled;
+        }
+
+        /**
+         * Adds time spent in a stage.
+         * @param stage one of the STAGE_ constants
+         */
+        public synchronized void addTime(int stage, long nanos) {
+            if (mEnabled) {
+                mStageNanos[stage] += nanos;
+            }
+        }
+
+        /**
+         * Adds a response: its format, its size on the wire and decoded, its number of features.
+         */
+        public synchronized void addResponse(String format, long bytesTransferred,
+                                             long bytesDecoded, int features, boolean fromCache) {
+            if (mEnabled) {
+                mFormat = format;
+                mBytesTransferred += bytesTransferred;
+                mBytesDecoded += bytesDecoded;
+                mFeatures += features;
+                mHttpResponses++;
+                if (fromCache) {
+                    mHttpCacheHits++;
+                }
+            }
+        }
+
+        /**
+         * Marks the load as answered from the local earthquakes, without network.
+         */
+        public synchronized void setLocalAnswer() {
+            mLocalAnswer = true;
+        }
+
+        /**
+         * Ends the load and adds it to the metrics.
+         */
+        public void finish() {
+            if (mEnabled) {
+                Log.i(LOG_TAG, "TEST: load took " + (System.nanoTime() - mStart) / 1000000 + " ms");
+                record(this);
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder line = new StringBuilder();
+            line.append(System.currentTimeMillis());
+            for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+                line.append(' ').append(STAGE_NAMES[stage]).append("_us=")
+                        .append(mStageNanos[stage] / 1000);
+            }
+            line.append(" format=").append(mFormat)
+                    .append(" bytes_transferred=").append(mBytesTransferred)
+                    .append(" bytes_decoded=").append(mBytesDecoded)
+                    .append(" features=").append(mFeatures)
+                    .append(" http_cache_hits=").append(mHttpCacheHits)
+                    .append('/').append(mHttpResponses)
+                    .append(" local_answer=").append(mLocalAnswer);
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+
+/**
+ * Colors of the magnitude circles, one per bucket of
+ * {@link EarthquakeFormatter#getMagnitudeBucket(double)}.
+ */
+
+public final class MagnitudeColors {
+
+    private MagnitudeColors() {
+    }
+
+    /**
+     * Resolves the color of every bucket, for an {@link EarthquakeFormatter}.
+     */
+    public static int[] resolve(Context context) {
+        int[] colors = new int[EarthquakeStats.MAGNITUDE_BUCKETS];
+        for (int magnitudeFloor = 0; magnitudeFloor < colors.length; magnitudeFloor++) {
+            colors[magnitudeFloor] =
+                    ContextCompat.getColor(context, getMagnitudeColorId(magnitudeFloor));
+        }
+        return colors;
+    }
+
+    /**
+     * Helper method to get the color resource ID of the magnitude bucket
+     * @param magnitudeFloor magnitude bucket, see getMagnitudeBucket()
+     * @return color resource ID
+     */
+    private static int getMagnitudeColorId(int magnitudeFloor) {
+        // the passed in magnitude (now magnitudeFloor integer) is categorized
+        switch (magnitudeFloor) {
+            case 0:
+            case 1:
+                return R.color.magnitude1;
+            case 2:
+                return R.color.magnitude2;
+            case 3:
+                return R.color.magnitude3;
+            case 4:
+                return R.color.magnitude4;
+            case 5:
+                return R.color.magnitude5;
+            case 6:
+                return R.color.magnitude6;
+            case 7:
+                return R.color.magnitude7;
+            case 8:
+                return R.color.magnitude8;
+            case 9:
+                return R.color.magnitude9;
+            case 10:
+                return R.color.magnitude10plus;
+            default:
+                return R.color.magnitude1;
+        }
+    }
+}
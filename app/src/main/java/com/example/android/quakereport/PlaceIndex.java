@@ -0,0 +1,272 @@
+package com.example.android.quakereport;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Trigram index over the place dictionary of an {@link EarthquakeTable}, for the search of the
+ * list. Places are normalized (lower case, without accents, words separated by one space) and
+ * cut into every sequence of three characters. Each trigram has the sorted ids of the places
+ * containing it, stored as varint encoded gaps in a single byte array.
+ * A substring query intersects the lists of its trigrams, then checks the few candidates left.
+ * A prefix query is a substring query starting at a word boundary: every normalized place
+ * begins with a space, so "rid" as a prefix is the substring " rid".
+ * Build it off the main thread, queries are safe from any thread.
+ */
+
+public class PlaceIndex {
+
+    // normalized places by place id, each one starts with a space
+    private final String[] mPlaces;
+
+    // sorted trigram keys, and where the postings of each one start in mPostings
+    private final long[] mTrigrams;
+    private final int[] mOffsets;
+    private final byte[] mPostings;
+
+    /**
+     * Indexes the places of the table, see {@link EarthquakeTable#indexPlaces()}.
+     * @param places places by place id
+     */
+    PlaceIndex(String[] places) {
+        mPlaces = new String[places.length];
+        HashMap<Long, IntList> postings = new HashMap<>();
+        for (int placeId = 0; placeId < places.length; placeId++) {
+            String place = normalize(places[placeId], true);
+            mPlaces[placeId] = place;
+            for (int i = 0; i + 3 <= place.length(); i++) {
+                Long trigram = trigram(place, i);
+                IntList placeIds = postings.get(trigram);
+                if (placeIds == null) {
+                    placeIds = new IntList();
+                    postings.put(trigram, placeIds);
+                }
+                // a place repeating a trigram is listed once, places come in increasing order
+                if (placeIds.size == 0 || placeIds.values[placeIds.size - 1] != placeId) {
+                    placeIds.add(placeId);
+                }
+            }
+        }
+
+        mTrigrams = new long[postings.size()];
+        int t = 0;
+        for (Long trigram : postings.keySet()) {
+            mTrigrams[t++] = trigram;
+        }
+        Arrays.sort(mTrigrams);
+        mOffsets = new int[mTrigrams.length + 1];
+        ByteWriter writer = new ByteWriter();
+        for (t = 0; t < mTrigrams.length; t++) {
+            mOffsets[t] = writer.size;
+            IntList placeIds = postings.get(mTrigrams[t]);
+            int previous = -1;
+            for (int i = 0; i < placeIds.size; i++) {
+                writer.writeVarint(placeIds.values[i] - previous);
+                previous = placeIds.values[i];
+            }
+        }
+        mOffsets[mTrigrams.length] = writer.size;
+        mPostings = Arrays.copyOf(writer.bytes, writer.size);
+    }
+
+    /**
+     * Gets the number of places indexed.
+     */
+    public int getPlaceCount() {
+        return mPlaces.length;
+    }
+
+    /**
+     * Finds the places matching the query, case and accents are ignored.
+     * @param wordPrefix true to only match at the start of a word ("ridge" matches
+     *                   "Ridgecrest", not "Cambridge"), false to match anywhere
+     * @return matching flags by place id
+     */
+    public boolean[] search(String query, boolean wordPrefix) {
+        boolean[] matches = new boolean[mPlaces.length];
+        // punctuation around the query is not part of it, "Alaska," finds "Alaska" which ends
+        // the place; a prefix keeps the space of the word boundary
+        String normalized = normalize(query, false).trim();
+        if (wordPrefix) {
+            normalized = ' ' + normalized;
+        }
+        if (normalized.trim().isEmpty()) {
+            Arrays.fill(matches, true);
+            return matches;
+        }
+        if (normalized.length() < 3) {
+            // too short for a trigram, the places are scanned
+            for (int placeId = 0; placeId < mPlaces.length; placeId++) {
+                matches[placeId] = mPlaces[placeId].contains(normalized);
+            }
+            return matches;
+        }
+
+        // the rarest trigram first, the candidates only shrink
+        int trigramCount = normalized.length() - 2;
+        int[] lists = new int[trigramCount];
+        for (int i = 0; i < trigramCount; i++) {
+            int t = Arrays.binarySearch(mTrigrams, trigram(normalized, i));
+            if (t < 0) {
+                // nowhere in the places
+                return matches;
+            }
+            lists[i] = t;
+        }
+        sortByLength(lists);
+
+        int[] candidates = decode(lists[0]);
+        int candidateCount = candidates.length;
+        for (int i = 1; i < trigramCount && candidateCount > 0; i++) {
+            if (lists[i] != lists[i - 1]) {
+                candidateCount = intersect(candidates, candidateCount, lists[i]);
+            }
+        }
+        // the trigrams may be in the place without following each other
+        for (int i = 0; i < candidateCount; i++) {
+            int placeId = candidates[i];
+            matches[placeId] = mPlaces[placeId].contains(normalized);
+        }
+        return matches;
+    }
+
+    /**
+     * Lower case, accents removed, every run of other characters than letters and digits
+     * turned into a single space.
+     * @param leadingSpace true to start with a space, the boundary of the first word
+     */
+    static String normalize(String text, boolean leadingSpace) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .toLowerCase(Locale.ROOT);
+        StringBuilder normalized = new StringBuilder(decomposed.length() + 1);
+        boolean space = false;
+        if (leadingSpace) {
+            normalized.append(' ');
+            space = true;
+        }
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                // the accent of the previous letter
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(c);
+                space = false;
+            } else if (!space) {
+                normalized.append(' ');
+                space = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16)
+                | text.charAt(start + 2);
+    }
+
+    /**
+     * Sorts the trigram indexes by the size of their postings, smallest first.
+     */
+    private void sortByLength(int[] lists) {
+        for (int i = 1; i < lists.length; i++) {
+            int list = lists[i];
+            int length = mOffsets[list + 1] - mOffsets[list];
+            int j = i;
+            while (j > 0 && mOffsets[lists[j - 1] + 1] - mOffsets[lists[j - 1]] > length) {
+                lists[j] = lists[j - 1];
+                j--;
+            }
+            lists[j] = list;
+        }
+    }
+
+    private int[] decode(int list) {
+        IntList placeIds = new IntList();
+        int position = mOffsets[list];
+        int end = mOffsets[list + 1];
+        int placeId = -1;
+        while (position < end) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mPostings[position++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            placeId += gap;
+            placeIds.add(placeId);
+        }
+        return Arrays.copyOf(placeIds.values, placeIds.size);
+    }
+
+    /**
+     * Keeps the candidates which are in the postings, walking both sorted lists once.
+     * @return the number of candidates kept, at the start of the array
+     */
+    private int intersect(int[] candidates, int candidateCount, int list) {
+        int position = mOffsets[list];
+        int end = mOffsets[list + 1];
+        int placeId = -1;
+        int kept = 0;
+        int c = 0;
+        while (position < end && c < candidateCount) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mPostings[position++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            placeId += gap;
+            while (c < candidateCount && candidates[c] < placeId) {
+                c++;
+            }
+            if (c < candidateCount && candidates[c] == placeId) {
+                candidates[kept++] = placeId;
+                c++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Growable array of ints, without boxing.
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Growable array of bytes, written as varints: 7 bits per byte, the high bit set on every
+     * byte but the last.
+     */
+    private static class ByteWriter {
+        byte[] bytes = new byte[1024];
+        int size;
+
+        void writeVarint(int value) {
+            if (size + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+    }
+}
@@ -1,21 +1,31 @@
 package com.example.android.quakereport;
 
-import android.text.TextUtils;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Created by m on 2017.06.20..
@@ -25,6 +35,19 @@ public final class QueryUtils {
 
     public static final String LOG_TAG = QueryUtils.class.getName();
 
+    /** Value of the "format" query parameter of the GeoJSON responses */
+    static final String GEOJSON_FORMAT = "geojson";
+
+    /** Window USGS searches when a query has no starttime: the last 30 days */
+    static final long DEFAULT_WINDOW = 30L * 24 * 60 * 60 * 1000;
+
+    /** Formats of a "starttime" this app understands, all in UTC, see formatUtc() */
+    private static final String[] UTC_PATTERNS =
+            {"yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"};
+
+    /** Size of the byte buffer between the (decompressed) socket stream and the parser */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -33,7 +56,136 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /** Idle keep-alive connections kept per host by the process */
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    /** Client used when none is given, shared so its connections are reused */
+    private static final EarthquakeHttpClient sDefaultHttpClient;
+
+    static {
+        // the pool is sized once, before the first request of the app goes through this class
+        UrlConnectionHttpClient.configureConnectionPool(MAX_IDLE_CONNECTIONS);
+        sDefaultHttpClient = new UrlConnectionHttpClient(
+                UrlConnectionHttpClient.DEFAULT_CONNECT_TIMEOUT,
+                UrlConnectionHttpClient.DEFAULT_READ_TIMEOUT);
+    }
+
+    /** Downloads in progress by URL, a second caller of the same URL waits for the first one */
+    private static final HashMap<String, InFlightRequest> sInFlightRequests = new HashMap<>();
+
+    /** How often a caller waiting for another one's request checks its own cancellation, in ms */
+    private static final long CANCELLATION_POLL_INTERVAL = 50;
+
+    /**
+     * Gets the client shared by the app.
+     */
+    public static EarthquakeHttpClient getDefaultHttpClient() {
+        return sDefaultHttpClient;
+    }
+
     public static ArrayList<Earthquake> fetchData(String urlString) {
+        return fetchData(sDefaultHttpClient, urlString);
+    }
+
+    public static ArrayList<Earthquake> fetchData(EarthquakeHttpClient httpClient,
+                                                  String urlString) {
+        return fetchData(httpClient, urlString, LoadMetrics.NO_TRACE, new LoadCancellation());
+    }
+
+    public static ArrayList<Earthquake> fetchData(EarthquakeHttpClient httpClient,
+                                                  String urlString, LoadMetrics.Trace trace,
+                                                  LoadCancellation cancellation) {
+        return fetchData(httpClient, urlString, trace, cancellation, null);
+    }
+
+    /**
+     * Downloads and parses the earthquakes of the URL.
+     * Callers asking for a URL which is already being downloaded wait for that request and get
+     * the same list, so it must not be modified. Its timings are only traced once.
+     * If the load which started the request is canceled, the other callers download it again.
+     * @param trace receives the timings and sizes of the request
+     * @param cancellation aborts the request when the load is canceled
+     * @param listener gets each earthquake as soon as it is parsed, may be null. A caller
+     *                 joining a request in flight only gets the complete list.
+     * @return list of earthquakes, or null if the request failed or was canceled
+     */
+    public static ArrayList<Earthquake> fetchData(final EarthquakeHttpClient httpClient,
+                                                  final String urlString,
+                                                  final LoadMetrics.Trace trace,
+                                                  final LoadCancellation cancellation,
+                                                  final ParseListener listener) {
+        while (!cancellation.isCanceled()) {
+            InFlightRequest request;
+            boolean isOwner = false;
+            synchronized (sInFlightRequests) {
+                request = sInFlightRequests.get(urlString);
+                // a finished request is only waiting for its owner to remove it
+                if (request == null || request.isDone()) {
+                    request = new InFlightRequest(new Callable<ArrayList<Earthquake>>() {
+                        @Override
+                        public ArrayList<Earthquake> call() {
+                            return download(httpClient, urlString, trace, cancellation,
+                                    listener);
+                        }
+                    }, cancellation);
+                    sInFlightRequests.put(urlString, request);
+                    isOwner = true;
+                }
+            }
+
+            if (isOwner) {
+                // the first caller downloads on its own thread
+                try {
+                    request.run();
+                } finally {
+                    synchronized (sInFlightRequests) {
+                        if (sInFlightRequests.get(urlString) == request) {
+                            sInFlightRequests.remove(urlString);
+                        }
+                    }
+                }
+            } else {
+                Log.i(LOG_TAG, "TEST: joined the request in flight for " + urlString);
+            }
+
+            ArrayList<Earthquake> earthquakes = await(request, urlString, cancellation);
+            if (earthquakes != null || isOwner || !request.mCancellation.isCanceled()) {
+                return earthquakes;
+            }
+            // the load owning the request was canceled, not this one: try again
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the request, giving up when the load of the caller is canceled.
+     */
+    private static ArrayList<Earthquake> await(FutureTask<ArrayList<Earthquake>> request,
+                                               String urlString,
+                                               LoadCancellation cancellation) {
+        try {
+            while (true) {
+                try {
+                    return request.get(CANCELLATION_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (cancellation.isCanceled()) {
+                        return null;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem downloading " + urlString, e.getCause());
+            return null;
+        }
+    }
+
+    private static ArrayList<Earthquake> download(EarthquakeHttpClient httpClient,
+                                                  String urlString, LoadMetrics.Trace trace,
+                                                  LoadCancellation cancellation,
+                                                  ParseListener listener) {
 
 //        // To force the background thread to sleep for 2 seconds, we are temporarily simulating a
 //        // very slow network response time. That allows us to see the loading spinner on the screen
@@ -48,19 +200,76 @@ public final class QueryUtils {
 
         Log.i(LOG_TAG, "TEST: fetchData");
         URL url = createUrl(urlString);
-        String jsonResponse = null;
+        ArrayList<Earthquake> earthquakes = null;
         try {
-            jsonResponse = makeHttpRequest(url);
+            earthquakes = makeHttpRequest(httpClient, url, trace, cancellation, listener);
+        } catch (CsvEarthquakeParser.MalformedCsvException e) {
+            // GeoJSON carries everything, the rows already handed to the listener are not
+            // handed again
+            Log.e(LOG_TAG, "Unexpected CSV, falling back to GeoJSON", e);
+            earthquakes = download(httpClient, withFormat(urlString, GEOJSON_FORMAT), trace,
+                    cancellation, null);
         } catch (IOException e) {
-            Log.e("QueryUtils.java", "Error getting input stream", e);
+            if (cancellation.isCanceled()) {
+                Log.i(LOG_TAG, "TEST: canceled " + urlString);
+            } else {
+                Log.e("QueryUtils.java", "Error getting input stream", e);
+            }
         }
 
-        ArrayList<Earthquake> earthquakes = extractEarthquakes(jsonResponse);
         return earthquakes;
 
 
     }
 
+    /**
+     * Formats UNIX time in milliseconds the way the USGS API expects it (ISO 8601, UTC).
+     */
+    public static String formatUtc(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    /**
+     * Gets the start of the time window of a USGS query: its "starttime", or 30 days before now
+     * like USGS does when there is none.
+     * @param now current time in milliseconds (UNIX time)
+     */
+    static long getStartTime(Uri uri, long now) {
+        String startTime = uri.getQueryParameter("starttime");
+        if (startTime != null) {
+            if (startTime.endsWith("Z")) {
+                startTime = startTime.substring(0, startTime.length() - 1);
+            }
+            for (String pattern : UTC_PATTERNS) {
+                SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                ParsePosition position = new ParsePosition(0);
+                Date date = format.parse(startTime, position);
+                if (date != null && position.getIndex() == startTime.length()) {
+                    return date.getTime();
+                }
+            }
+            Log.e(LOG_TAG, "Unexpected starttime " + startTime);
+        }
+        return now - DEFAULT_WINDOW;
+    }
+
+    /**
+     * Parses a query parameter, falls back to the default value if it is missing or malformed.
+     */
+    static double parseDouble(String value, double defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     private static URL createUrl(String stringUrl){
         URL url = null;
         try {
@@ -72,119 +281,315 @@ public final class QueryUtils {
     }
 
 
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    /**
+     * Sends the request and parses the earthquakes straight off the response stream,
+     * so the body is never copied into a String first.
+     * @return list of earthquakes, or null if the request failed
+     */
+    private static ArrayList<Earthquake> makeHttpRequest(EarthquakeHttpClient httpClient, URL url,
+                                                         LoadMetrics.Trace trace,
+                                                         LoadCancellation cancellation,
+                                                         ParseListener listener)
+            throws IOException {
+        ArrayList<Earthquake> earthquakes = null;
 
         if (url == null) {
-            return jsonResponse;
+            return earthquakes;
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        EarthquakeHttpClient.Response response = null;
 
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            cancellation.throwIfCanceled();
+            long start = System.nanoTime();
+            response = httpClient.get(url);
+            // from now on, canceling the load closes the connection
+            cancellation.attach(response);
+            long connected = System.nanoTime();
+            trace.addTime(LoadMetrics.STAGE_CONNECT, connected - start);
+            int responseCode = response.getCode();
+            long firstByte = System.nanoTime();
+            trace.addTime(LoadMetrics.STAGE_FIRST_BYTE, firstByte - connected);
+
+            if (responseCode == 200) {
+                // count the bytes on both sides of the decompression
+                CountingInputStream transferred = new CountingInputStream(response.getBody());
+                CountingInputStream decoded = new CountingInputStream(
+                        decode(transferred, response.getContentEncoding()));
+                String format = isCsv(url) ? CsvEarthquakeParser.FORMAT : GEOJSON_FORMAT;
+                if (format.equals(CsvEarthquakeParser.FORMAT)) {
+                    // the CSV parser has its own buffer
+                    earthquakes = CsvEarthquakeParser.parse(decoded, cancellation, listener);
+                } else {
+                    earthquakes = extractEarthquakes(
+                            new BufferedInputStream(decoded, BUFFER_SIZE), cancellation, listener);
+                }
+                // the body is parsed while it is downloaded, the time spent waiting for the
+                // network is the download, the rest is decompressing and parsing
+                long downloadNanos = transferred.getReadNanos();
+                trace.addTime(LoadMetrics.STAGE_DOWNLOAD, downloadNanos);
+                trace.addTime(LoadMetrics.STAGE_PARSE,
+                        System.nanoTime() - firstByte - downloadNanos);
+                trace.addResponse(format, transferred.getCount(), decoded.getCount(),
+                        earthquakes.size(), response.isFromCache());
+                Log.i(LOG_TAG, "TEST: " + url + " transferred " + transferred.getCount()
+                        + " bytes, decoded " + decoded.getCount() + " bytes");
+            } else if (responseCode == 204) {
+                // the "nodata" answer of USGS to a query without any event, e.g. a delta sync
+                // when nothing changed: an empty result, not a failure
+                earthquakes = new ArrayList<>();
+                trace.addResponse(isCsv(url) ? CsvEarthquakeParser.FORMAT : GEOJSON_FORMAT, 0, 0,
+                        0, response.isFromCache());
+                Log.i(LOG_TAG, "TEST: " + url + " has no data");
             } else {
-                Log.e("QueryUtils.java", "Error response code: " + urlConnection.getResponseCode());
+                Log.e("QueryUtils.java", "Error response code: " + responseCode);
             }
+        } catch (CsvEarthquakeParser.MalformedCsvException e) {
+            // the caller asks for GeoJSON instead
+            throw e;
         } catch (IOException e) {
-            Log.e("QueryUtils.java", "Problem retrieving the earthquake JSON results.", e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (cancellation.isCanceled()) {
+                // the connection was aborted, or the parser stopped between two features
+                Log.i(LOG_TAG, "TEST: canceled " + url);
+                earthquakes = null;
+            } else {
+                Log.e("QueryUtils.java", "Problem retrieving the earthquake JSON results.", e);
             }
-            if (inputStream != null) {
-                inputStream.close();
+        } finally {
+            // closing (instead of disconnecting) keeps the connection alive for the next request
+            if (response != null) {
+                cancellation.detach(response);
+                response.close();
             }
         }
-        return jsonResponse;
+        return earthquakes;
     }
 
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
-        }
-        return output.toString();
+    /**
+     * Tells if the URL asks for the CSV format instead of GeoJSON.
+     */
+    private static boolean isCsv(URL url) {
+        return CsvEarthquakeParser.FORMAT.equals(
+                Uri.parse(url.toString()).getQueryParameter("format"));
     }
 
+    /**
+     * Copies the URL with another "format" parameter.
+     */
+    private static String withFormat(String urlString, String format) {
+        Uri uri = Uri.parse(urlString);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            builder.appendQueryParameter(name,
+                    name.equals("format") ? format : uri.getQueryParameter(name));
+        }
+        return builder.build().toString();
+    }
 
     /**
-     * Return a list of {@link Earthquake} objects that has been built up from
-     * parsing a JSON response.
+     * Wraps the response body into a streaming decompressor matching its Content-Encoding.
      */
-    private static ArrayList<Earthquake> extractEarthquakes(String stringJSON) {
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(stringJSON)) {
-            return null;
+    static InputStream decode(InputStream inputStream, String contentEncoding)
+            throws IOException {
+        if ("gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(inputStream, BUFFER_SIZE);
         }
+        if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            return new InflaterInputStream(inputStream);
+        }
+        return inputStream;
+    }
 
+    /**
+     * Return a list of {@link Earthquake} objects that has been built up from
+     * parsing a GeoJSON response.
+     * The response is pulled token by token with a {@link JsonReader}, everything that is not
+     * needed (the other properties, metadata...) is skipped without being allocated.
+     * A canceled load stops the parsing between two features with an InterruptedIOException.
+     * A feature with a malformed number is left out, a response of another shape fails with an
+     * IOException.
+     * @param listener gets each earthquake as soon as it is parsed, may be null
+     */
+    static ArrayList<Earthquake> extractEarthquakes(InputStream inputStream,
+                                                    LoadCancellation cancellation,
+                                                    ParseListener listener)
+            throws IOException {
         // Create an empty ArrayList that we can start adding earthquakes to
         ArrayList<Earthquake> earthquakes = new ArrayList<>();
 
-        // Try to parse the SAMPLE_JSON_RESPONSE. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        JsonReader reader = new JsonReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        // If the JSON is not shaped the way we expect, an IllegalStateException is thrown.
+        // The rest of the response can not be read then: fail the load rather than return part
+        // of it, a sync would move its mark past the earthquakes left out.
         try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                // Only the “features” array is interesting, skip "type", "metadata", "bbox"
+                if (reader.nextName().equals("features")) {
+                    reader.beginArray();
+                    // Loop through each feature in the array
+                    while (reader.hasNext()) {
+                        cancellation.throwIfCanceled();
+                        Earthquake earthquake = readFeature(reader);
+                        if (earthquake == null) {
+                            // malformed, the next features are still fine
+                            continue;
+                        }
+                        earthquakes.add(earthquake);
+                        if (listener != null) {
+                            listener.onParsed(earthquake);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException("Problem parsing the earthquake JSON results", e);
+        } finally {
+            reader.close();
+        }
 
-//            // Convert SAMPLE_JSON_RESPONSE String into a JSONObject
-//            JSONObject root = new JSONObject(SAMPLE_JSON_RESPONSE);
-            JSONObject root = new JSONObject(stringJSON);
-
-            // Extract “features” JSONArray
-            JSONArray features = root.getJSONArray("features");
-
-            // TODO: Parse the response given by the SAMPLE_JSON_RESPONSE string and
-            // build up a list of Earthquake objects with the corresponding data.
-
-            // Loop through each feature in the array
-            for (int i = 0; i < features.length(); i++){
-                // Get earthquake JSONObject at position i
-                JSONObject earthquake = features.getJSONObject(i);
-
-                // Get “properties” JSONObject
-                JSONObject properties = earthquake.getJSONObject("properties");
-
-                // Extract “mag” for magnitude
-                double magnitude = properties.getDouble("mag");
-                //Extract “place” for location
-                String location = properties.getString("place");
-                // Extract the value for the key called "time"
-                long time = properties.getLong("time");
-                // Extract the value for the key called "url"
-                String web = properties.getString("url");
-
-                // Create Earthquake java object from magnitude, location, and time, and url
-                Earthquake currentEarthquake = new Earthquake(magnitude, location, time, web);
-                //Add earthquake to list of earthquakes
-//                ArrayList<Earthquake> earthquakes = new ArrayList<>();
-                earthquakes.add(currentEarthquake);
+        // Return the list of earthquakes
+        return earthquakes;
+    }
+
+    /**
+     * Reads one feature object, the reader has to be positioned in front of it.
+     * @return null if a property holds a malformed number (e.g. a "mag" string), the whole
+     *         feature is read anyway so the next one can be
+     */
+    private static Earthquake readFeature(JsonReader reader) throws IOException {
+        String id = "";
+        double magnitude = 0;
+        String location = "";
+        long time = 0;
+        long updated = 0;
+        String web = "";
+        boolean deleted = false;
+        boolean malformed = false;
+        // [longitude, latitude, depth] of the "geometry" Point
+        double[] coordinates = {Double.NaN, Double.NaN, Double.NaN};
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String featureName = reader.nextName();
+            if (featureName.equals("id")) {
+                // Extract the USGS event id, it identifies the earthquake across queries
+                id = reader.nextString();
+            } else if (featureName.equals("geometry") && reader.peek() != JsonToken.NULL) {
+                malformed |= !readCoordinates(reader, coordinates);
+            // Get “properties” object
+            } else if (featureName.equals("properties")) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    try {
+                        // a "mag" or "place" can be null for freshly reported events
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.skipValue();
+                        } else if (name.equals("mag")) {
+                            // Extract “mag” for magnitude
+                            magnitude = reader.nextDouble();
+                        } else if (name.equals("place")) {
+                            //Extract “place” for location
+                            location = reader.nextString();
+                        } else if (name.equals("time")) {
+                            // Extract the value for the key called "time"
+                            time = reader.nextLong();
+                        } else if (name.equals("updated")) {
+                            // Extract the time of the last update, used as sync high-water mark
+                            updated = reader.nextLong();
+                        } else if (name.equals("url")) {
+                            // Extract the value for the key called "url"
+                            web = reader.nextString();
+                        } else if (name.equals("status")) {
+                            // "automatic", "reviewed" or "deleted"
+                            deleted = reader.nextString().equals("deleted");
+                        } else {
+                            reader.skipValue();
+                        }
+                    } catch (NumberFormatException e) {
+                        // a malformed number (e.g. a "mag" string), it is left in the reader
+                        Log.e(LOG_TAG, "Malformed " + name + " of a feature", e);
+                        reader.skipValue();
+                        malformed = true;
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
             }
+        }
+        reader.endObject();
+        if (malformed) {
+            return null;
+        }
 
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+        // Create Earthquake java object from id, magnitude, location, and time, and url
+        return new Earthquake(id, magnitude, location, time, updated, web, deleted,
+                coordinates[0], coordinates[1], coordinates[2]);
+    }
+
+    /**
+     * Reads the "coordinates" of a geometry object into the array, straight into primitives.
+     * @return false if a coordinate is a malformed number
+     */
+    private static boolean readCoordinates(JsonReader reader, double[] coordinates)
+            throws IOException {
+        boolean wellFormed = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("coordinates") && reader.peek() != JsonToken.NULL) {
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (i < coordinates.length && reader.peek() != JsonToken.NULL) {
+                        try {
+                            coordinates[i] = reader.nextDouble();
+                        } catch (NumberFormatException e) {
+                            Log.e(LOG_TAG, "Malformed coordinate", e);
+                            reader.skipValue();
+                            wellFormed = false;
+                        }
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
         }
+        reader.endObject();
+        return wellFormed;
+    }
 
-        // Return the list of earthquakes
-       return earthquakes;
+    /**
+     * Receives the earthquakes of a response while it is still being downloaded.
+     */
+    public interface ParseListener {
+
+        /**
+         * Called on the downloading thread for each earthquake, in the order of the response.
+         * Sharded downloads call it from several threads at once.
+         */
+        void onParsed(Earthquake earthquake);
     }
 
+    /**
+     * Download shared by the callers of the same URL, with the cancellation of the load which
+     * started it.
+     */
+    private static class InFlightRequest extends FutureTask<ArrayList<Earthquake>> {
+
+        final LoadCancellation mCancellation;
 
+        InFlightRequest(Callable<ArrayList<Earthquake>> download, LoadCancellation cancellation) {
+            super(download);
+            mCancellation = cancellation;
+        }
+    }
 }
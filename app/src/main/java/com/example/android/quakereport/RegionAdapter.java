@@ -0,0 +1,108 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.graphics.drawable.GradientDrawable;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+
+/**
+ * RecyclerView adapter of the dashboard, one item per saved query: its name, the number of
+ * earthquakes, their mean magnitude and the strongest one, from the stats of the load.
+ * There are only a few items, they are formatted when bound.
+ */
+
+public class RegionAdapter extends RecyclerView.Adapter<RegionAdapter.ViewHolder> {
+
+    private final Context mContext;
+    private final EarthquakeFormatter mFormatter;
+    private final DecimalFormat mMagnitudeFormatter = new DecimalFormat("0.0");
+
+    private ArrayList<RegionScheduler.RegionResult> mResults = new ArrayList<>();
+
+    public RegionAdapter(Context context) {
+        mContext = context;
+        mFormatter = new EarthquakeFormatter(MagnitudeColors.resolve(context));
+    }
+
+    /**
+     * Replaces the displayed regions. Must be called on the main thread.
+     */
+    public void setResults(ArrayList<RegionScheduler.RegionResult> results) {
+        mResults = results;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Removes every region from the list.
+     */
+    public void clear() {
+        setResults(new ArrayList<RegionScheduler.RegionResult>());
+    }
+
+    @Override
+    public int getItemCount() {
+        return mResults.size();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.dashboard_item,
+                parent, false);
+        return new ViewHolder(itemView);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        RegionScheduler.RegionResult result = mResults.get(position);
+        holder.region.setText(result.getQuery().getName());
+        if (result.getEarthquakes() == null) {
+            holder.magnitude.setText("");
+            holder.magnitudeCircle.setColor(mFormatter.getMagnitudeColor(0));
+            holder.summary.setText(R.string.dashboard_failed);
+            return;
+        }
+
+        EarthquakeStats stats = result.getStats();
+        int region = result.getRegion();
+        if (stats.getRegionCount(region) == 0) {
+            holder.magnitude.setText("");
+            holder.magnitudeCircle.setColor(
+                    mFormatter.getMagnitudeColor(result.getQuery().getMinMagnitude()));
+            holder.summary.setText(R.string.no_earthquakes);
+            return;
+        }
+        double maxMagnitude = stats.getRegionMaxMagnitude(region);
+        holder.magnitude.setText(mMagnitudeFormatter.format(maxMagnitude));
+        holder.magnitudeCircle.setColor(mFormatter.getMagnitudeColor(maxMagnitude));
+        holder.summary.setText(mContext.getString(R.string.dashboard_summary,
+                stats.getRegionCount(region), stats.getRegionMaxPlace(region),
+                mMagnitudeFormatter.format(stats.getRegionMeanMagnitude(region))));
+    }
+
+    /**
+     * Views of a dashboard item.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        // magnitude of the strongest earthquake
+        final TextView magnitude;
+        // background of the magnitude TextView, a GradientDrawable
+        final GradientDrawable magnitudeCircle;
+        final TextView region;
+        // number of earthquakes and place of the strongest one
+        final TextView summary;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            magnitude = (TextView) itemView.findViewById(R.id.textViewMagnitude);
+            magnitudeCircle = (GradientDrawable) magnitude.getBackground();
+            region = (TextView) itemView.findViewById(R.id.textViewRegion);
+            summary = (TextView) itemView.findViewById(R.id.textViewRegionSummary);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+/**
+ * Saved query of the dashboard: a bounding box, a minimum magnitude and a time window ending
+ * now. Saved as "name;minLatitude;maxLatitude;minLongitude;maxLongitude;minMagnitude;days"
+ * (see the dashboard_regions array).
+ */
+
+public class RegionQuery {
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private final String mName;
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+    private final double mMinMagnitude;
+    private final int mDays;
+
+    public RegionQuery(String name, double minLatitude, double maxLatitude, double minLongitude,
+                       double maxLongitude, double minMagnitude, int days) {
+        mName = name;
+        mMinLatitude = minLatitude;
+        mMaxLatitude = maxLatitude;
+        mMinLongitude = minLongitude;
+        mMaxLongitude = maxLongitude;
+        mMinMagnitude = minMagnitude;
+        mDays = days;
+    }
+
+    /**
+     * Reads a saved query.
+     * @throws IllegalArgumentException if it does not have the seven fields, or a minimum is
+     *                                  above its maximum (USGS would reject the query)
+     */
+    public static RegionQuery parse(String saved) {
+        String[] fields = saved.split(";");
+        if (fields.length != 7) {
+            throw new IllegalArgumentException("Bad saved region " + saved);
+        }
+        RegionQuery query;
+        try {
+            query = new RegionQuery(fields[0].trim(),
+                    Double.parseDouble(fields[1]), Double.parseDouble(fields[2]),
+                    Double.parseDouble(fields[3]), Double.parseDouble(fields[4]),
+                    Double.parseDouble(fields[5]), Integer.parseInt(fields[6].trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad saved region " + saved, e);
+        }
+        // a box across the antimeridian has to be saved as two regions
+        if (query.mMinLatitude > query.mMaxLatitude || query.mMinLongitude > query.mMaxLongitude) {
+            throw new IllegalArgumentException("Inverted bounds in saved region " + saved);
+        }
+        return query;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    /**
+     * Gets the start of the time window.
+     * @param now end of the window in milliseconds (UNIX time), the same for every region of a
+     *            load so their windows line up
+     */
+    public long getStartTime(long now) {
+        return now - mDays * DAY;
+    }
+
+    /**
+     * Builds the USGS query URL of the region, with every event of the window.
+     * @param baseUrl the USGS query endpoint
+     * @param format value of the "format" parameter
+     * @param limit value of the "limit" parameter
+     */
+    public String toUrl(String baseUrl, String format, int limit, long now) {
+        return Uri.parse(baseUrl).buildUpon()
+                .appendQueryParameter("format", format)
+                .appendQueryParameter("eventtype", "earthquake")
+                .appendQueryParameter("orderby", "time")
+                .appendQueryParameter("limit", String.valueOf(limit))
+                .appendQueryParameter("minmagnitude", String.valueOf(mMinMagnitude))
+                .appendQueryParameter("minlatitude", String.valueOf(mMinLatitude))
+                .appendQueryParameter("maxlatitude", String.valueOf(mMaxLatitude))
+                .appendQueryParameter("minlongitude", String.valueOf(mMinLongitude))
+                .appendQueryParameter("maxlongitude", String.valueOf(mMaxLongitude))
+                .appendQueryParameter("starttime", QueryUtils.formatUtc(getStartTime(now)))
+                .build().toString();
+    }
+
+    /**
+     * Whether every event of the other query is also an event of this one, so the other
+     * query can be answered by filtering the response of this one.
+     */
+    public boolean covers(RegionQuery other) {
+        return mMinLatitude <= other.mMinLatitude && mMaxLatitude >= other.mMaxLatitude
+                && mMinLongitude <= other.mMinLongitude && mMaxLongitude >= other.mMaxLongitude
+                && mMinMagnitude <= other.mMinMagnitude && mDays >= other.mDays;
+    }
+
+    /**
+     * Whether the earthquake is an event of this query, the way USGS filters (bounds included).
+     */
+    public boolean matches(Earthquake earthquake, long now) {
+        return matches(earthquake.getMagnitude(), earthquake.getDate(), earthquake.getLatitude(),
+                earthquake.getLongitude(), now);
+    }
+
+    /**
+     * Same as {@link #matches(Earthquake, long)} from the columns of a row.
+     */
+    boolean matches(double magnitude, long date, double latitude, double longitude, long now) {
+        return magnitude >= mMinMagnitude
+                && date >= getStartTime(now)
+                && latitude >= mMinLatitude
+                && latitude <= mMaxLatitude
+                && longitude >= mMinLongitude
+                && longitude <= mMaxLongitude;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
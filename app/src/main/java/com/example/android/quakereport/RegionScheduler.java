@@ -0,0 +1,269 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the saved queries of the dashboard at the same time, with a bounded number of
+ * connections shared by all of them:
+ * <ul>
+ * <li>a query covered by another one (inside its box, at or above its magnitude, within its
+ * window) is not downloaded, it is filtered out of the parsed response of the other one</li>
+ * <li>an event found in several responses, e.g. where two boxes overlap, becomes one
+ * Earthquake object shared by the regions, its newest revision</li>
+ * <li>the same URL asked at the same time is downloaded once (see QueryUtils.fetchData())</li>
+ * </ul>
+ */
+
+public class RegionScheduler {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = RegionScheduler.class.getName();
+
+    /** Maximum number of events USGS returns for one query */
+    static final int MAX_LIMIT = 20000;
+
+    private final EarthquakeHttpClient mHttpClient;
+
+    /** Runs at most the configured number of requests at once */
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Result of one saved query.
+     */
+    public static class RegionResult {
+
+        private final RegionQuery mQuery;
+        private final ArrayList<Earthquake> mEarthquakes;
+        private final boolean mShared;
+        private final EarthquakeStats mStats;
+        private final int mRegion;
+
+        RegionResult(RegionQuery query, ArrayList<Earthquake> earthquakes, boolean shared,
+                     EarthquakeStats stats, int region) {
+            mQuery = query;
+            mEarthquakes = earthquakes;
+            mShared = shared;
+            mStats = stats;
+            mRegion = region;
+        }
+
+        public RegionQuery getQuery() {
+            return mQuery;
+        }
+
+        /**
+         * Gets the events of the query, most recent first, null if its download failed.
+         */
+        public ArrayList<Earthquake> getEarthquakes() {
+            return mEarthquakes;
+        }
+
+        /**
+         * Whether the query was answered from the response of another query.
+         */
+        public boolean isShared() {
+            return mShared;
+        }
+
+        /**
+         * Gets the stats of every region of the load, shared by the results.
+         */
+        public EarthquakeStats getStats() {
+            return mStats;
+        }
+
+        /**
+         * Gets the index of the query in the regions of the stats.
+         */
+        public int getRegion() {
+            return mRegion;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param httpClient client executing the requests, it has to allow parallel requests
+     * @param maxConnections maximum number of requests running at once, for every load
+     */
+    public RegionScheduler(EarthquakeHttpClient httpClient, int maxConnections) {
+        mHttpClient = httpClient;
+        mExecutor = new ThreadPoolExecutor(maxConnections, maxConnections, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // the threads are only kept while there is work
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Loads the queries.
+     * @param baseUrl the USGS query endpoint
+     * @param format value of the "format" parameter
+     * @param now end of the time windows in milliseconds (UNIX time)
+     * @param trace receives the timings and sizes of the requests
+     * @param cancellation aborts every request when the load is canceled
+     * @return the result of each query, in the order of the queries
+     */
+    public ArrayList<RegionResult> load(List<RegionQuery> queries, String baseUrl, String format,
+                                        long now, LoadMetrics.Trace trace,
+                                        LoadCancellation cancellation) {
+        int count = queries.size();
+        // the query whose response answers each query, itself if it is downloaded
+        int[] sources = new int[count];
+        for (int i = 0; i < count; i++) {
+            sources[i] = i;
+            for (int j = 0; j < count; j++) {
+                if (isSource(queries, j) && dominates(queries, j, i)) {
+                    sources[i] = j;
+                    break;
+                }
+            }
+        }
+
+        ArrayList<Integer> downloads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (sources[i] == i) {
+                downloads.add(i);
+            }
+        }
+        Log.d(LOG_TAG, count + " queries, " + downloads.size() + " downloads");
+        ArrayList<ArrayList<Earthquake>> responses =
+                download(queries, downloads, baseUrl, format, now, trace, cancellation);
+
+        // a truncated response misses events of the queries it covers, they need their own
+        ArrayList<Integer> fallbacks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ArrayList<Earthquake> response = responses.get(sources[i]);
+            if (sources[i] != i && response != null && response.size() >= MAX_LIMIT) {
+                sources[i] = i;
+                fallbacks.add(i);
+            }
+        }
+        if (!fallbacks.isEmpty() && !cancellation.isCanceled()) {
+            ArrayList<ArrayList<Earthquake>> fallbackResponses =
+                    download(queries, fallbacks, baseUrl, format, now, trace, cancellation);
+            for (int i : fallbacks) {
+                responses.set(i, fallbackResponses.get(i));
+            }
+        }
+
+        // one object per event, the newest revision when the responses disagree
+        HashMap<String, Earthquake> events = new HashMap<>();
+        for (ArrayList<Earthquake> response : responses) {
+            if (response == null) {
+                continue;
+            }
+            for (Earthquake earthquake : response) {
+                Earthquake known = events.get(earthquake.getId());
+                if (known == null || earthquake.getUpdated() > known.getUpdated()) {
+                    events.put(earthquake.getId(), earthquake);
+                }
+            }
+        }
+
+        // count, mean and strongest magnitude of every region in one pass over the events
+        EarthquakeStats stats = EarthquakeAggregator.getInstance().aggregate(
+                new EarthquakeTable(events.values()), EarthquakeStats.AGGREGATE_REGIONS,
+                queries, now);
+
+        Comparator<Earthquake> order = EarthquakeOrder.forOrderBy("time");
+        ArrayList<RegionResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            RegionQuery query = queries.get(i);
+            ArrayList<Earthquake> response = responses.get(sources[i]);
+            ArrayList<Earthquake> earthquakes = null;
+            if (response != null) {
+                earthquakes = new ArrayList<>();
+                for (Earthquake earthquake : response) {
+                    // the newest revision decides, it may have moved out of the query
+                    Earthquake newest = events.get(earthquake.getId());
+                    if (query.matches(newest, now)) {
+                        earthquakes.add(newest);
+                    }
+                }
+                // a newer revision from another response may have moved in time
+                Collections.sort(earthquakes, order);
+            }
+            results.add(new RegionResult(query, earthquakes, sources[i] != i, stats, i));
+        }
+        Log.d(LOG_TAG, events.size() + " distinct events");
+        return results;
+    }
+
+    /**
+     * Downloads the queries at the given indexes in parallel.
+     * @return the parsed responses by query index, null where not downloaded or failed
+     */
+    private ArrayList<ArrayList<Earthquake>> download(List<RegionQuery> queries,
+                                                      List<Integer> indexes, String baseUrl,
+                                                      String format, long now,
+                                                      final LoadMetrics.Trace trace,
+                                                      final LoadCancellation cancellation) {
+        ArrayList<ArrayList<Earthquake>> responses = new ArrayList<>(queries.size());
+        ArrayList<Future<ArrayList<Earthquake>>> futures = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            responses.add(null);
+            futures.add(null);
+        }
+        for (int i : indexes) {
+            final String url = queries.get(i).toUrl(baseUrl, format, MAX_LIMIT, now);
+            futures.set(i, mExecutor.submit(new Callable<ArrayList<Earthquake>>() {
+                @Override
+                public ArrayList<Earthquake> call() {
+                    return QueryUtils.fetchData(mHttpClient, url, trace, cancellation);
+                }
+            }));
+        }
+
+        try {
+            for (int i : indexes) {
+                try {
+                    responses.set(i, futures.get(i).get());
+                } catch (ExecutionException e) {
+                    // only this region fails, the others are still shown
+                    Log.e(LOG_TAG, "Problem downloading the region " + queries.get(i), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<ArrayList<Earthquake>> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Whether the query is downloaded: no other query dominates it.
+     */
+    private static boolean isSource(List<RegionQuery> queries, int index) {
+        for (int i = 0; i < queries.size(); i++) {
+            if (i != index && dominates(queries, i, index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the first query answers the second one: it covers it, and of two queries covering
+     * each other (the same query saved twice) the first saved one is downloaded.
+     */
+    private static boolean dominates(List<RegionQuery> queries, int first, int second) {
+        return first != second && queries.get(first).covers(queries.get(second))
+                && (first < second || !queries.get(second).covers(queries.get(first)));
+    }
+}
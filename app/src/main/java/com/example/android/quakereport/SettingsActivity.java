@@ -49,6 +49,10 @@ public class SettingsActivity extends AppCompatActivity {
             Preference orderBy = findPreference(getString(R.string.settings_order_by_key));
             // get orderby preference's value and display it in preference summary
             bindPreferenceSummaryToValue(orderBy);
+
+            // get the Preference object for the feed format and display its value
+            Preference format = findPreference(getString(R.string.settings_format_key));
+            bindPreferenceSummaryToValue(format);
         }
 
         // sets summery to hte Preference object based on its String value
@@ -0,0 +1,299 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * KD-tree over the epicenters of an {@link EarthquakeTable}, for bounding box, radius and
+ * nearest earthquakes queries.
+ * The tree is implicit: the node of a range of the arrays is its middle element, the ranges
+ * before and after it are its children. Nodes split by latitude on even levels and by longitude
+ * on odd levels. Everything is kept in primitive arrays, queries return table rows.
+ * Rows without coordinates are left out.
+ */
+
+public class SpatialIndex {
+
+    /** Mean radius of the Earth */
+    static final double EARTH_RADIUS_KM = 6371.0088;
+
+    /** Half of the circumference, no two points are further from each other */
+    private static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    /** First radius tried by nearest(), it is doubled until enough earthquakes are found */
+    private static final double NEAREST_FIRST_RADIUS_KM = 50;
+
+    // table rows, latitudes and longitudes in tree order
+    private final int[] mRows;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final int mSize;
+
+    /**
+     * Builds the tree, in O(n log n).
+     */
+    public SpatialIndex(EarthquakeTable earthquakes) {
+        int size = 0;
+        mRows = new int[earthquakes.size()];
+        mLatitudes = new double[earthquakes.size()];
+        mLongitudes = new double[earthquakes.size()];
+        for (int row = 0; row < earthquakes.size(); row++) {
+            double latitude = earthquakes.getLatitude(row);
+            double longitude = earthquakes.getLongitude(row);
+            if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+                mRows[size] = row;
+                mLatitudes[size] = latitude;
+                mLongitudes[size] = longitude;
+                size++;
+            }
+        }
+        mSize = size;
+        build(0, mSize, 0);
+    }
+
+    /**
+     * Gets the rows with their epicenter in the box. If minLongitude is greater than
+     * maxLongitude, the box crosses the antimeridian.
+     */
+    public int[] inBoundingBox(double minLatitude, double maxLatitude,
+                               double minLongitude, double maxLongitude) {
+        Rows result = new Rows();
+        searchBox(minLatitude, maxLatitude, minLongitude, maxLongitude, result);
+        return result.toArray();
+    }
+
+    /**
+     * Gets the rows with their epicenter at most radiusKm away (great-circle distance).
+     */
+    public int[] withinRadius(double latitude, double longitude, double radiusKm) {
+        Rows nodes = new Rows();
+        searchRadius(latitude, longitude, radiusKm, nodes);
+        int[] rows = new int[nodes.mCount];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = mRows[nodes.mValues[i]];
+        }
+        return rows;
+    }
+
+    /**
+     * Gets the rows of the count nearest epicenters, nearest first.
+     * @throws IllegalArgumentException if count is negative
+     */
+    public int[] nearest(double latitude, double longitude, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("negative count " + count);
+        }
+        count = Math.min(count, mSize);
+        // grow the circle until it holds enough earthquakes
+        Rows candidates = new Rows();
+        double radiusKm = NEAREST_FIRST_RADIUS_KM;
+        while (true) {
+            candidates.clear();
+            searchRadius(latitude, longitude, radiusKm, candidates);
+            if (candidates.mCount >= count || radiusKm >= MAX_DISTANCE_KM) {
+                break;
+            }
+            radiusKm *= 2;
+        }
+
+        // sort the candidates by distance
+        final double[] distances = new double[candidates.mCount];
+        Integer[] order = new Integer[candidates.mCount];
+        for (int i = 0; i < candidates.mCount; i++) {
+            int node = candidates.mValues[i];
+            distances[i] = distanceKm(latitude, longitude, mLatitudes[node], mLongitudes[node]);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(distances[first], distances[second]);
+            }
+        });
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = mRows[candidates.mValues[order[i]]];
+        }
+        return rows;
+    }
+
+    /**
+     * Great-circle distance of two points, haversine formula.
+     */
+    static double distanceKm(double latitude1, double longitude1,
+                             double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Collects the nodes (not the rows) within the radius: the bounding box of the circle is
+     * searched, then the exact distance is checked.
+     */
+    private void searchRadius(double latitude, double longitude, double radiusKm, Rows nodes) {
+        // bounding box of the circle, see J. Matuschek, "Finding Points Within a Distance
+        // of a Latitude/Longitude Using Bounding Coordinates"
+        double angle = radiusKm / EARTH_RADIUS_KM;
+        double minLatitude = latitude - Math.toDegrees(angle);
+        double maxLatitude = latitude + Math.toDegrees(angle);
+        double minLongitude;
+        double maxLongitude;
+        if (minLatitude > -90 && maxLatitude < 90) {
+            double dLongitude = Math.toDegrees(
+                    Math.asin(Math.sin(angle) / Math.cos(Math.toRadians(latitude))));
+            minLongitude = longitude - dLongitude;
+            maxLongitude = longitude + dLongitude;
+            if (minLongitude < -180) {
+                minLongitude += 360;
+            }
+            if (maxLongitude > 180) {
+                maxLongitude -= 360;
+            }
+        } else {
+            // a pole is inside the circle, every longitude is
+            minLatitude = Math.max(minLatitude, -90);
+            maxLatitude = Math.min(maxLatitude, 90);
+            minLongitude = -180;
+            maxLongitude = 180;
+        }
+
+        Rows boxNodes = new Rows();
+        searchNodes(minLatitude, maxLatitude, minLongitude, maxLongitude, boxNodes);
+        for (int i = 0; i < boxNodes.mCount; i++) {
+            int node = boxNodes.mValues[i];
+            if (distanceKm(latitude, longitude, mLatitudes[node], mLongitudes[node])
+                    <= radiusKm) {
+                nodes.add(node);
+            }
+        }
+    }
+
+    private void searchBox(double minLatitude, double maxLatitude,
+                           double minLongitude, double maxLongitude, Rows rows) {
+        Rows nodes = new Rows();
+        searchNodes(minLatitude, maxLatitude, minLongitude, maxLongitude, nodes);
+        for (int i = 0; i < nodes.mCount; i++) {
+            rows.add(mRows[nodes.mValues[i]]);
+        }
+    }
+
+    // splits a box crossing the antimeridian in two
+    private void searchNodes(double minLatitude, double maxLatitude,
+                             double minLongitude, double maxLongitude, Rows nodes) {
+        if (minLongitude > maxLongitude) {
+            search(0, mSize, 0, minLatitude, maxLatitude, minLongitude, 180, nodes);
+            search(0, mSize, 0, minLatitude, maxLatitude, -180, maxLongitude, nodes);
+        } else {
+            search(0, mSize, 0, minLatitude, maxLatitude, minLongitude, maxLongitude, nodes);
+        }
+    }
+
+    private void search(int low, int high, int depth,
+                        double minLatitude, double maxLatitude,
+                        double minLongitude, double maxLongitude, Rows nodes) {
+        while (low < high) {
+            int node = (low + high) >>> 1;
+            double latitude = mLatitudes[node];
+            double longitude = mLongitudes[node];
+            if (latitude >= minLatitude && latitude <= maxLatitude
+                    && longitude >= minLongitude && longitude <= maxLongitude) {
+                nodes.add(node);
+            }
+            boolean byLatitude = depth % 2 == 0;
+            double key = byLatitude ? latitude : longitude;
+            double min = byLatitude ? minLatitude : minLongitude;
+            double max = byLatitude ? maxLatitude : maxLongitude;
+            depth++;
+            boolean searchBefore = min <= key;
+            boolean searchAfter = max >= key;
+            if (searchBefore && searchAfter) {
+                search(low, node, depth, minLatitude, maxLatitude, minLongitude, maxLongitude,
+                        nodes);
+                low = node + 1;
+            } else if (searchBefore) {
+                high = node;
+            } else {
+                low = node + 1;
+            }
+        }
+    }
+
+    // puts the median of the range in the middle, splitting by the level's coordinate
+    private void build(int low, int high, int depth) {
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            select(low, high - 1, middle, depth % 2 == 0 ? mLatitudes : mLongitudes);
+            build(low, middle, depth + 1);
+            low = middle + 1;
+            depth++;
+        }
+    }
+
+    // quickselect: after it, keys before k are <= keys[k] <= keys after k
+    private void select(int left, int right, int k, double[] keys) {
+        while (left < right) {
+            double pivot = keys[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int row = mRows[i];
+        mRows[i] = mRows[j];
+        mRows[j] = row;
+        double latitude = mLatitudes[i];
+        mLatitudes[i] = mLatitudes[j];
+        mLatitudes[j] = latitude;
+        double longitude = mLongitudes[i];
+        mLongitudes[i] = mLongitudes[j];
+        mLongitudes[j] = longitude;
+    }
+
+    /**
+     * Growable int array.
+     */
+    private static class Rows {
+        int[] mValues = new int[16];
+        int mCount;
+
+        void add(int value) {
+            if (mCount == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mCount * 2);
+            }
+            mValues[mCount++] = value;
+        }
+
+        void clear() {
+            mCount = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mCount);
+        }
+    }
+}
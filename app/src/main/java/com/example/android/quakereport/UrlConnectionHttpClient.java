@@ -0,0 +1,139 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * {@link EarthquakeHttpClient} built on HttpURLConnection.
+ * Connections are only disconnected when a load is canceled, otherwise the body is read and
+ * closed, so the platform keeps the socket (and its TLS session) alive in its pool and reuses
+ * it for the next request to the same host. The pool belongs to the process, it is sized once
+ * with {@link #configureConnectionPool(int)}.
+ * The client holds no state, any number of requests can run at once.
+ */
+
+public class UrlConnectionHttpClient implements EarthquakeHttpClient {
+
+    /** Default timeouts of the app, in milliseconds */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+    public static final int DEFAULT_READ_TIMEOUT = 10000;
+
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+
+    /**
+     * Constructor
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     */
+    public UrlConnectionHttpClient(int connectTimeout, int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * Sizes the keep-alive pool of the platform. These are System properties: they apply to
+     * every HttpURLConnection of the process, whichever client opens it, so call it once at
+     * startup, before the first request.
+     * @param maxIdleConnections number of idle keep-alive connections kept per host
+     */
+    public static void configureConnectionPool(int maxIdleConnections) {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+    }
+
+    @Override
+    public Response get(URL url) throws IOException {
+        HttpURLConnection urlConnection = open(url);
+        urlConnection.connect();
+        return new UrlConnectionResponse(urlConnection);
+    }
+
+    @Override
+    public Response getIfChanged(URL url, String eTag, String lastModified) throws IOException {
+        HttpURLConnection urlConnection = open(url);
+        // the caller keeps its own copy, a cached one would be served without asking the server
+        urlConnection.setUseCaches(false);
+        if (eTag != null) {
+            urlConnection.setRequestProperty("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        urlConnection.connect();
+        return new UrlConnectionResponse(urlConnection);
+    }
+
+    private HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(mConnectTimeout);
+        urlConnection.setReadTimeout(mReadTimeout);
+        urlConnection.setRequestMethod("GET");
+        // GeoJSON compresses roughly 10x. As the header is set explicitly,
+        // the connection hands over the body as it was transferred.
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        return urlConnection;
+    }
+
+    private static class UrlConnectionResponse implements Response {
+
+        private final HttpURLConnection mConnection;
+        private InputStream mBody;
+
+        UrlConnectionResponse(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public int getCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return mConnection.getContentEncoding();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mBody = mConnection.getInputStream();
+            }
+            return mBody;
+        }
+
+        @Override
+        public boolean isFromCache() {
+            // set by the platform HttpURLConnection: "CACHE 200", "CONDITIONAL_CACHE 304",
+            // "NETWORK 200"...
+            String source = mConnection.getHeaderField("X-Android-Response-Source");
+            return source != null && source.contains("CACHE");
+        }
+
+        @Override
+        public void abort() {
+            // the only case where the socket is closed instead of going back to the pool
+            mConnection.disconnect();
+        }
+
+        @Override
+        public void close() throws IOException {
+            InputStream body = mBody;
+            if (body == null) {
+                // error responses have their body on the error stream, it has to be
+                // consumed as well, otherwise the connection cannot be reused
+                body = mConnection.getErrorStream();
+            }
+            if (body != null) {
+                body.close();
+            }
+        }
+    }
+}
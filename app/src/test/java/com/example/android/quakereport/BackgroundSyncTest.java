@@ -0,0 +1,131 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Retries of {@link BackgroundSync} with a fake clock and a fake client, failing with a 503
+ * until it is switched to the fixture.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BackgroundSyncTest {
+
+    private static final String QUERY_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query"
+            + "?format=geojson&eventtype=earthquake&orderby=time&minmag=2.5&limit=100";
+
+    private static final long MINUTE = 60 * 1000;
+
+    private final FakeClock mClock = new FakeClock();
+    private final LoadCancellation mCancellation = new LoadCancellation();
+    private FakeHttpClient mOffline;
+    private FakeHttpClient mOnline;
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.resetSingletons();
+        mOffline = new FakeHttpClient().answer("query", 503, null);
+        mOnline = new FakeHttpClient().answer("limit=100", 200,
+                Fixtures.read("usgs_minmag2.5_time_limit100.geojson"));
+    }
+
+    @Test
+    public void getBackoff_doublesUpToTheMaximum() {
+        assertEquals(MINUTE, BackgroundSync.getBackoff(1));
+        assertEquals(2 * MINUTE, BackgroundSync.getBackoff(2));
+        assertEquals(32 * MINUTE, BackgroundSync.getBackoff(6));
+        assertEquals(BackgroundSync.MAX_BACKOFF, BackgroundSync.getBackoff(7));
+        assertEquals(BackgroundSync.MAX_BACKOFF, BackgroundSync.getBackoff(1000));
+    }
+
+    @Test
+    public void run_failing_retriesLaterAndLater() {
+        long[] expected = {1, 2, 4, 8, 16, 32, 60, 60};
+        for (long minutes : expected) {
+            assertEquals(minutes * MINUTE, run(mOffline));
+            mClock.advance(minutes * MINUTE);
+        }
+        assertEquals(expected.length, mOffline.getRequests().size());
+    }
+
+    @Test
+    public void run_success_resetsTheBackoff() {
+        run(mOffline);
+        run(mOffline);
+        mClock.advance(10 * MINUTE);
+
+        assertEquals(0, run(mOnline));
+        mClock.advance(BackgroundSync.FRESH_PERIOD);
+
+        assertEquals(BackgroundSync.INITIAL_BACKOFF, run(mOffline));
+    }
+
+    @Test
+    public void run_shortlyAfterASuccess_isSkipped() {
+        run(mOnline);
+        mClock.advance(BackgroundSync.FRESH_PERIOD - 1);
+
+        assertEquals(0, run(mOffline));
+        assertEquals(0, mOffline.getRequests().size());
+
+        mClock.advance(1);
+        assertEquals(BackgroundSync.INITIAL_BACKOFF, run(mOffline));
+    }
+
+    @Test
+    public void run_clockSetBack_syncsAnyway() {
+        run(mOnline);
+        mClock.advance(-2 * BackgroundSync.SYNC_PERIOD);
+
+        assertEquals(BackgroundSync.INITIAL_BACKOFF, run(mOffline));
+        assertEquals(1, mOffline.getRequests().size());
+    }
+
+    @Test
+    public void run_stopped_isNotAFailure() {
+        run(mOffline);
+        FakeHttpClient stopping = new FakeHttpClient() {
+            @Override
+            protected synchronized Response respond(URL url) throws IOException {
+                mCancellation.cancel();
+                throw new IOException("aborted");
+            }
+        };
+
+        assertEquals(0, new BackgroundSync(RuntimeEnvironment.application, stopping, mClock)
+                .run(QUERY_URL, mCancellation));
+        // the next failure is the second one
+        assertEquals(2 * MINUTE, run(mOffline));
+    }
+
+    private long run(EarthquakeHttpClient httpClient) {
+        return new BackgroundSync(RuntimeEnvironment.application, httpClient, mClock)
+                .run(QUERY_URL, new LoadCancellation());
+    }
+
+    /**
+     * Clock set by the test, starting at the time of the fixtures.
+     */
+    private static class FakeClock implements BackgroundSync.Clock {
+
+        private long mNow = Fixtures.NOW;
+
+        void advance(long millis) {
+            mNow += millis;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+}
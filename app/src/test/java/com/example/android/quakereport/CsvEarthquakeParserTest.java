@@ -0,0 +1,140 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The CSV parser against the GeoJSON one on the same 45 days of events, and the two formats
+ * compared on their size (as sent and gzipped) and on their parsing throughput.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class CsvEarthquakeParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Copies of the 64 events of the fixtures in the throughput comparison, 20000 rows */
+    private static final int COPIES = 313;
+
+    @Test
+    public void parse_sameEarthquakesAsTheGeoJson() throws Exception {
+        List<Earthquake> expected = Fixtures.parseGeoJson("usgs_45_days.geojson");
+
+        List<Earthquake> actual = parseCsv(Fixtures.read("usgs_45_days.csv"));
+
+        assertEquals(64, actual.size());
+        Fixtures.assertSameEarthquakes(expected, actual);
+    }
+
+    @Test(expected = CsvEarthquakeParser.MalformedCsvException.class)
+    public void parse_geoJson_isMalformed() throws Exception {
+        parseCsv(Fixtures.read("usgs_45_days.geojson"));
+    }
+
+    @Test
+    public void payload_csvIsSmallerThanGeoJson() throws Exception {
+        byte[] csv = Fixtures.read("usgs_45_days.csv");
+        byte[] geoJson = Fixtures.read("usgs_45_days.geojson");
+
+        System.out.println("CsvEarthquakeParser: 64 events, CSV " + csv.length + " bytes ("
+                + gzip(csv).length + " gzipped), GeoJSON " + geoJson.length + " bytes ("
+                + gzip(geoJson).length + " gzipped)");
+        assertTrue(csv.length * 3 < geoJson.length);
+        // gzip removes most of the repeated property names, the gap narrows
+        assertTrue(gzip(csv).length < gzip(geoJson).length);
+    }
+
+    /**
+     * Parses the same rows in both formats, the best of a few runs after a warm-up. Run alone
+     * for meaningful numbers, e.g. with --tests.
+     */
+    @Test
+    public void benchmark_csvParsesFasterThanGeoJson() throws Exception {
+        byte[] csv = repeatCsv(Fixtures.read("usgs_45_days.csv"), COPIES);
+        byte[] geoJson = repeatGeoJson(Fixtures.read("usgs_45_days.geojson"), COPIES);
+
+        long csvBest = Long.MAX_VALUE;
+        long geoJsonBest = Long.MAX_VALUE;
+        for (int run = 0; run < 4; run++) {
+            long start = System.nanoTime();
+            int csvRows = parseCsv(csv).size();
+            long csvNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int geoJsonRows = QueryUtils.extractEarthquakes(new ByteArrayInputStream(geoJson),
+                    new LoadCancellation(), null).size();
+            long geoJsonNanos = System.nanoTime() - start;
+
+            assertEquals(64 * COPIES, csvRows);
+            assertEquals(64 * COPIES, geoJsonRows);
+            if (run > 0) {
+                csvBest = Math.min(csvBest, csvNanos);
+                geoJsonBest = Math.min(geoJsonBest, geoJsonNanos);
+            }
+        }
+        System.out.println("CsvEarthquakeParser: " + 64 * COPIES + " events, CSV "
+                + csvBest / 1000000 + " ms (" + rowsPerSecond(csvBest) + " rows/s), GeoJSON "
+                + geoJsonBest / 1000000 + " ms (" + rowsPerSecond(geoJsonBest) + " rows/s)");
+        assertTrue(csvBest < geoJsonBest);
+    }
+
+    private static List<Earthquake> parseCsv(byte[] csv) throws IOException {
+        return CsvEarthquakeParser.parse(new ByteArrayInputStream(csv), new LoadCancellation(),
+                null);
+    }
+
+    private static long rowsPerSecond(long nanos) {
+        return 64L * COPIES * 1000000000L / nanos;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(output);
+        gzip.write(bytes);
+        gzip.close();
+        return output.toByteArray();
+    }
+
+    /**
+     * Repeats the rows of the CSV under its header.
+     */
+    private static byte[] repeatCsv(byte[] csv, int copies) {
+        String text = new String(csv, UTF_8);
+        int headerEnd = text.indexOf('\n') + 1;
+        StringBuilder repeated = new StringBuilder(text.substring(0, headerEnd));
+        for (int i = 0; i < copies; i++) {
+            repeated.append(text, headerEnd, text.length());
+        }
+        return repeated.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Repeats the features of the GeoJSON in its array.
+     */
+    private static byte[] repeatGeoJson(byte[] geoJson, int copies) {
+        String text = new String(geoJson, UTF_8);
+        int featuresStart = text.indexOf("\"features\":[") + "\"features\":[".length();
+        int featuresEnd = text.lastIndexOf("],\"bbox\"");
+        StringBuilder repeated = new StringBuilder(text.substring(0, featuresStart));
+        for (int i = 0; i < copies; i++) {
+            if (i > 0) {
+                repeated.append(',');
+            }
+            repeated.append(text, featuresStart, featuresEnd);
+        }
+        repeated.append(text, featuresEnd, text.length());
+        return repeated.toString().getBytes(UTF_8);
+    }
+}
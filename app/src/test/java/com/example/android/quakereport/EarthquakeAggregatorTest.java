@@ -0,0 +1,296 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Stats of {@link EarthquakeAggregator} against loops over the earthquakes, one per aggregate:
+ * with any number of threads, and updated in place after a merge. The benchmark measures the
+ * pass from one thread to eight, it only scales with the cores of the machine running it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakeAggregatorTest {
+
+    private static final int ROW_COUNT = 100000;
+
+    private static final int ALL = EarthquakeStats.AGGREGATE_MAGNITUDES
+            | EarthquakeStats.AGGREGATE_TIME | EarthquakeStats.AGGREGATE_REGIONS;
+
+    private static final long NOW = Fixtures.NOW;
+
+    private final Random mRandom = new Random(7);
+    private final List<Earthquake> mEarthquakes = new ArrayList<>();
+    private final List<RegionQuery> mRegions = new ArrayList<>();
+    private EarthquakeTable mTable;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < ROW_COUNT; i++) {
+            long date = NOW - (long) (mRandom.nextDouble() * 30 * EarthquakeStats.DAY);
+            mEarthquakes.add(new Earthquake("id" + i, mRandom.nextDouble() * 8 - 0.5,
+                    "Place " + i % 5000, date, date, EarthquakeTable.EVENT_PAGE_PREFIX + "id" + i,
+                    false, mRandom.nextDouble() * 360 - 180, mRandom.nextDouble() * 180 - 90, 10));
+        }
+        mTable = new EarthquakeTable(mEarthquakes);
+        for (String saved : new String[]{"CA;32;42;-125;-114;0;7", "AK;51;72;-180;-129;2.5;30",
+                "JP;24;46;122;146;4;30", "World;-90;90;-180;180;4.5;30", "NZ;-48;-34;165;179;0;14",
+                "Chile;-56;-17;-76;-66;3;30", "Med;30;46;-10;36;2;30", "HI;18;23;-161;-154;0;30"}) {
+            mRegions.add(RegionQuery.parse(saved));
+        }
+    }
+
+    @Test
+    public void aggregate_sameAsALoopPerAggregate() {
+        EarthquakeStats stats = new EarthquakeAggregator(4).aggregate(mTable, ALL, mRegions, NOW);
+
+        assertEquals(ROW_COUNT, stats.getCount());
+        int[] buckets = new int[EarthquakeStats.MAGNITUDE_BUCKETS];
+        for (Earthquake earthquake : mEarthquakes) {
+            buckets[EarthquakeFormatter.getMagnitudeBucket(earthquake.getMagnitude())]++;
+        }
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            assertEquals(buckets[bucket], stats.getMagnitudeCount(bucket));
+        }
+
+        long firstDay = EarthquakeStats.floorDiv(NOW - 29 * EarthquakeStats.DAY,
+                EarthquakeStats.DAY);
+        int[] days = new int[30];
+        for (Earthquake earthquake : mEarthquakes) {
+            long day = EarthquakeStats.floorDiv(earthquake.getDate(), EarthquakeStats.DAY);
+            if (day >= firstDay) {
+                days[(int) (day - firstDay)]++;
+            }
+        }
+        assertArrayEquals(days, stats.getDayCounts(NOW - 29 * EarthquakeStats.DAY, 30));
+
+        for (int region = 0; region < mRegions.size(); region++) {
+            int count = 0;
+            double sum = 0;
+            double max = Double.NaN;
+            for (Earthquake earthquake : mEarthquakes) {
+                if (mRegions.get(region).matches(earthquake, NOW)) {
+                    count++;
+                    sum += earthquake.getMagnitude();
+                    if (!(earthquake.getMagnitude() <= max)) {
+                        max = earthquake.getMagnitude();
+                    }
+                }
+            }
+            assertEquals(count, stats.getRegionCount(region));
+            assertEquals(max, stats.getRegionMaxMagnitude(region), 0);
+            assertEquals(sum / count, stats.getRegionMeanMagnitude(region), 1e-9);
+        }
+    }
+
+    @Test
+    public void aggregate_sameResultWithAnyNumberOfThreads() {
+        EarthquakeStats sequential = new EarthquakeAggregator(1).aggregate(mTable, ALL, mRegions,
+                NOW);
+
+        for (int parallelism : new int[]{2, 3, 8}) {
+            assertSameStats(sequential, new EarthquakeAggregator(parallelism).aggregate(mTable,
+                    ALL, mRegions, NOW));
+        }
+    }
+
+    @Test
+    public void getCountSince_countsToTheMillisecond() {
+        // a day ago, 45 minutes into an hour
+        long from = EarthquakeStats.floorDiv(NOW, EarthquakeStats.HOUR) * EarthquakeStats.HOUR
+                - EarthquakeStats.DAY + 45 * 60 * 1000L;
+        EarthquakeTable table = new EarthquakeTable();
+        for (long date : new long[]{from - 30 * 60 * 1000L, from - 1, from, NOW}) {
+            table.add(new Earthquake("id" + date, 5, "Place", date, date,
+                    EarthquakeTable.EVENT_PAGE_PREFIX + "id" + date, false, 0, 0, 10));
+        }
+
+        EarthquakeStats stats = new EarthquakeAggregator(1).aggregate(table,
+                EarthquakeStats.AGGREGATE_TIME, new ArrayList<RegionQuery>(), NOW);
+
+        // the two events earlier in the same hour are left out
+        assertEquals(2, stats.getCountSince(from));
+        assertEquals(3, stats.getCountSince(from - 1));
+    }
+
+    @Test
+    public void update_countsSinceAfterRemovingEventsAtTheSameTime() {
+        long from = NOW - EarthquakeStats.DAY;
+        EarthquakeTable before = new EarthquakeTable();
+        for (int i = 0; i < 3; i++) {
+            before.add(quakeAt("id" + i, from));
+        }
+        EarthquakeAggregator aggregator = new EarthquakeAggregator(1);
+        EarthquakeStats stats = aggregator.aggregate(before, EarthquakeStats.AGGREGATE_TIME,
+                new ArrayList<RegionQuery>(), NOW);
+        EarthquakeTable removed = new EarthquakeTable(before.subList(1, 2));
+        EarthquakeTable added = new EarthquakeTable();
+        added.add(quakeAt("id3", from - 1));
+        EarthquakeTable after = new EarthquakeTable(Arrays.asList(before.get(0), before.get(2),
+                added.get(0)));
+
+        aggregator.update(stats, after, removed, added);
+
+        assertEquals(3, stats.getCount());
+        assertEquals(2, stats.getCountSince(from));
+        assertEquals(3, stats.getCountSince(from - 1));
+        assertEquals(0, stats.getCountSince(from + 1));
+    }
+
+    /**
+     * Removes the strongest event of every region and 1000 random rows, and adds 1000 new ones.
+     */
+    @Test
+    public void update_sameAsAggregatingTheMergedTable() {
+        EarthquakeAggregator aggregator = new EarthquakeAggregator(4);
+        EarthquakeStats stats = aggregator.aggregate(mTable, ALL, mRegions, NOW);
+        Set<String> removedIds = new HashSet<>();
+        for (RegionQuery region : mRegions) {
+            removedIds.add(getIdOfStrongest(region));
+        }
+        for (int i = 0; i < 1000; i++) {
+            removedIds.add("id" + mRandom.nextInt(ROW_COUNT));
+        }
+        EarthquakeTable removed = new EarthquakeTable();
+        EarthquakeTable added = new EarthquakeTable();
+        EarthquakeTable merged = new EarthquakeTable();
+        for (int row = 0; row < mTable.size(); row++) {
+            if (removedIds.contains(mTable.getId(row))) {
+                removed.addRowFrom(mTable, row);
+            } else {
+                merged.addRowFrom(mTable, row);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            Earthquake earthquake = new Earthquake("new" + i, mRandom.nextDouble() * 8, "Place",
+                    NOW - 1000 * i, NOW, EarthquakeTable.EVENT_PAGE_PREFIX + "new" + i, false,
+                    mRandom.nextDouble() * 360 - 180, mRandom.nextDouble() * 180 - 90, 5);
+            added.add(earthquake);
+            merged.add(earthquake);
+        }
+
+        aggregator.update(stats, merged, removed, added);
+
+        assertSameStats(aggregator.aggregate(merged, ALL, mRegions, NOW), stats);
+    }
+
+    /**
+     * Aggregates the table with one to eight threads, then with a loop over the earthquakes
+     * per aggregate, the best of a few runs. Run alone for meaningful numbers, e.g. with --tests.
+     */
+    @Test
+    public void benchmark_scalingWithTheCores() {
+        System.out.println("EarthquakeAggregator: " + ROW_COUNT + " rows, "
+                + Runtime.getRuntime().availableProcessors() + " cores");
+        EarthquakeStats sequential = null;
+        for (int parallelism : new int[]{1, 2, 4, 8}) {
+            EarthquakeAggregator aggregator = new EarthquakeAggregator(parallelism);
+            long best = Long.MAX_VALUE;
+            EarthquakeStats stats = null;
+            for (int run = 0; run < 10; run++) {
+                long start = System.nanoTime();
+                stats = aggregator.aggregate(mTable, ALL, mRegions, NOW);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (sequential == null) {
+                sequential = stats;
+            } else {
+                assertSameStats(sequential, stats);
+            }
+            System.out.println("EarthquakeAggregator: " + parallelism + " threads "
+                    + best / 100000 / 10.0 + " ms");
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 10; run++) {
+            long start = System.nanoTime();
+            loopPerAggregate();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println("EarthquakeAggregator: a loop per aggregate over the earthquakes "
+                + best / 100000 / 10.0 + " ms");
+    }
+
+    private String getIdOfStrongest(RegionQuery region) {
+        String id = null;
+        double max = Double.NEGATIVE_INFINITY;
+        for (Earthquake earthquake : mEarthquakes) {
+            if (region.matches(earthquake, NOW) && earthquake.getMagnitude() > max) {
+                max = earthquake.getMagnitude();
+                id = earthquake.getId();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * The aggregates the way they were computed before, a loop each.
+     */
+    private int loopPerAggregate() {
+        int[] buckets = new int[EarthquakeStats.MAGNITUDE_BUCKETS];
+        for (Earthquake earthquake : mEarthquakes) {
+            buckets[EarthquakeFormatter.getMagnitudeBucket(earthquake.getMagnitude())]++;
+        }
+        int lastDay = 0;
+        for (Earthquake earthquake : mEarthquakes) {
+            if (earthquake.getDate() >= NOW - EarthquakeStats.DAY) {
+                lastDay++;
+            }
+        }
+        int matches = 0;
+        for (RegionQuery region : mRegions) {
+            double max = Double.NaN;
+            for (Earthquake earthquake : mEarthquakes) {
+                if (region.matches(earthquake, NOW) && !(earthquake.getMagnitude() <= max)) {
+                    max = earthquake.getMagnitude();
+                }
+            }
+            double sum = 0;
+            for (Earthquake earthquake : mEarthquakes) {
+                if (region.matches(earthquake, NOW)) {
+                    sum += earthquake.getMagnitude();
+                    matches++;
+                }
+            }
+        }
+        return buckets[0] + lastDay + matches;
+    }
+
+    private void assertSameStats(EarthquakeStats expected, EarthquakeStats actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        for (int bucket = 0; bucket < EarthquakeStats.MAGNITUDE_BUCKETS; bucket++) {
+            assertEquals(expected.getMagnitudeCount(bucket), actual.getMagnitudeCount(bucket));
+        }
+        long from = NOW - 31 * EarthquakeStats.DAY;
+        assertArrayEquals(expected.getHourCounts(from, 32 * 24),
+                actual.getHourCounts(from, 32 * 24));
+        assertEquals(expected.getCountSince(NOW - EarthquakeStats.DAY),
+                actual.getCountSince(NOW - EarthquakeStats.DAY));
+        for (int region = 0; region < mRegions.size(); region++) {
+            assertEquals(expected.getRegionCount(region), actual.getRegionCount(region));
+            assertEquals(expected.getRegionMaxMagnitude(region),
+                    actual.getRegionMaxMagnitude(region), 0);
+            assertEquals(expected.getRegionMaxPlace(region), actual.getRegionMaxPlace(region));
+            assertEquals(expected.getRegionMeanMagnitude(region),
+                    actual.getRegionMeanMagnitude(region), 1e-9);
+        }
+    }
+
+    private static Earthquake quakeAt(String id, long date) {
+        return new Earthquake(id, 5, "Place", date, date, EarthquakeTable.EVENT_PAGE_PREFIX + id,
+                false, 0, 0, 10);
+    }
+}
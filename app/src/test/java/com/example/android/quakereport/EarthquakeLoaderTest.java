@@ -0,0 +1,127 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The loader driven by a fake client. The loader reads the clock, so the fixtures are moved
+ * to the present.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class EarthquakeLoaderTest {
+
+    private static final String BASE_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query"
+            + "?format=geojson&eventtype=earthquake";
+
+    private long mOffset;
+    private FakeHttpClient mHttpClient;
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.resetSingletons();
+        mOffset = System.currentTimeMillis() - Fixtures.NOW;
+        mHttpClient = new FakeHttpClient()
+                .answer("minmag=2.5&limit=100", 200, Fixtures.toGeoJson(
+                        Fixtures.parseGeoJson("usgs_minmag2.5_time_limit100.geojson"), mOffset));
+    }
+
+    @Test
+    public void loadInBackground_downloadsAndRendersTheQuery() throws Exception {
+        EarthquakeTable earthquakes = load("&orderby=time&minmag=2.5&limit=100");
+
+        assertEquals(1, mHttpClient.getRequests().size());
+        assertAnswer("usgs_minmag2.5_time_limit100.geojson", earthquakes);
+        for (int row = 0; row < earthquakes.size(); row++) {
+            assertNotNull(earthquakes.getRow(row));
+        }
+        assertEquals(earthquakes.size(), earthquakes.getStats().getCount());
+    }
+
+    @Test
+    public void loadInBackground_answersCoveredQueriesLocally() throws Exception {
+        load("&orderby=time&minmag=2.5&limit=100");
+
+        EarthquakeTable byTime = load("&orderby=time&minmag=4.5&limit=10");
+        EarthquakeTable byMagnitude = load("&orderby=magnitude&minmag=3&limit=10");
+
+        // the first download was not truncated, it covers both
+        assertEquals(1, mHttpClient.getRequests().size());
+        assertAnswer("usgs_minmag4.5_time_limit10.geojson", byTime);
+        assertAnswer("usgs_minmag3_magnitude_limit10.geojson", byMagnitude);
+    }
+
+    @Test
+    public void loadInBackground_offline_returnsTheStoredResult() throws Exception {
+        EarthquakeTable online = load("&orderby=time&minmag=2.5&limit=100");
+        mHttpClient = new FakeHttpClient();
+
+        EarthquakeTable offline = load("&orderby=time&minmag=2.5&limit=100");
+
+        Fixtures.assertSameEarthquakes(online, offline);
+    }
+
+    @Test
+    public void loadInBackground_offlineWithoutStore_returnsNothing() {
+        mHttpClient = new FakeHttpClient();
+
+        EarthquakeTable earthquakes = load("&orderby=time&minmag=2.5&limit=100");
+
+        assertTrue(earthquakes.isEmpty());
+        assertEquals(1, mHttpClient.getRequests().size());
+    }
+
+    @Test
+    public void loadInBackground_incompleteStore_isNotCovered() throws Exception {
+        // a full store of weak recent events, the strongest ones of the window are older
+        Earthquake template = Fixtures.parseGeoJson("usgs_45_days.geojson").get(0);
+        long now = System.currentTimeMillis();
+        List<Earthquake> recent = new ArrayList<>();
+        for (int i = 0; i < EarthquakeStore.MAX_ROWS; i++) {
+            long time = now - (i + 1) * 1000L;
+            recent.add(new Earthquake("recent" + i, 2, template.getLocation(), time, time,
+                    template.getWeb(), false, template.getLongitude(), template.getLatitude(),
+                    template.getDepth()));
+        }
+        mHttpClient = new FakeHttpClient()
+                .answer("updatedafter=", 200, Fixtures.toGeoJson(new ArrayList<Earthquake>(), 0))
+                .answer("orderby=time", 200, Fixtures.toGeoJson(recent, 0))
+                .answer("orderby=magnitude", 200, Fixtures.toGeoJson(
+                        Fixtures.parseGeoJson("usgs_minmag3_magnitude_limit10.geojson"), mOffset));
+        load("&orderby=time&minmag=0&limit=5000");
+
+        // the strongest events are dropped again right after their download
+        load("&orderby=magnitude&minmag=3&limit=10");
+        load("&orderby=magnitude&minmag=3&limit=10");
+
+        // the second query can not be answered from the store, it is downloaded again
+        int downloads = 0;
+        for (String url : mHttpClient.getRequests()) {
+            if (url.contains("orderby=magnitude")) {
+                downloads++;
+            }
+        }
+        assertEquals(2, downloads);
+    }
+
+    private EarthquakeTable load(String query) {
+        return new EarthquakeLoader(RuntimeEnvironment.application, BASE_URL + query,
+                mHttpClient).loadInBackground();
+    }
+
+    private void assertAnswer(String fixture, List<Earthquake> earthquakes) throws Exception {
+        Fixtures.assertSameEarthquakes(
+                Fixtures.shift(Fixtures.parseGeoJson(fixture), mOffset), earthquakes);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ordering and cancellation of the stages of {@link EarthquakePipeline}, and the throughput of
+ * overlapping loads against running them one after another. The stages of the throughput
+ * test sleep instead of working: a load mostly waits for the network and the disk.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakePipelineTest {
+
+    private static final int LOAD_COUNT = 8;
+
+    /** Time of each stage of a load in the throughput test, in milliseconds */
+    private static final long[] STAGE_MILLIS = {40, 10, 10};
+
+    private final EarthquakePipeline mPipeline = EarthquakePipeline.getInstance();
+    private final ExecutorService mLoaders = Executors.newCachedThreadPool();
+
+    @Test
+    public void run_userQueryGoesBeforeQueuedBackgroundWork() throws Exception {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<?> blocker = blockPersistStage(release);
+        List<Future<?>> loads = new ArrayList<>();
+        loads.add(submit(EarthquakePipeline.PRIORITY_BACKGROUND, new LoadCancellation(),
+                record(order, "background 1")));
+        awaitQueueLength(1);
+        loads.add(submit(EarthquakePipeline.PRIORITY_BACKGROUND, new LoadCancellation(),
+                record(order, "background 2")));
+        awaitQueueLength(2);
+        loads.add(submit(EarthquakePipeline.PRIORITY_USER, new LoadCancellation(),
+                record(order, "user")));
+        awaitQueueLength(3);
+
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        for (Future<?> load : loads) {
+            load.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(Arrays.asList("user", "background 1", "background 2"), order);
+        mLoaders.shutdown();
+    }
+
+    @Test
+    public void run_canceled_dropsTheQueuedTask() throws Exception {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<?> blocker = blockPersistStage(release);
+        LoadCancellation cancellation = new LoadCancellation();
+        Future<?> canceled = submit(EarthquakePipeline.PRIORITY_USER, cancellation,
+                record(order, "canceled"));
+        awaitQueueLength(1);
+
+        cancellation.cancel();
+
+        assertNull(canceled.get(5, TimeUnit.SECONDS));
+        assertEquals(0, mPipeline.getQueueLength(EarthquakePipeline.STAGE_PERSIST));
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.<String>emptyList(), order);
+        mLoaders.shutdown();
+    }
+
+    /**
+     * Runs the loads at once through the pipeline, then one after another on a single thread
+     * as the loader did before, the best of a few runs.
+     */
+    @Test
+    public void benchmark_overlappingLoads_fasterThanOneAfterAnother() throws Exception {
+        long serialBest = Long.MAX_VALUE;
+        long pipelinedBest = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            for (int load = 0; load < LOAD_COUNT; load++) {
+                for (long millis : STAGE_MILLIS) {
+                    Thread.sleep(millis);
+                }
+            }
+            serialBest = Math.min(serialBest, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            List<Future<?>> loads = new ArrayList<>();
+            for (int load = 0; load < LOAD_COUNT; load++) {
+                loads.add(mLoaders.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        LoadCancellation cancellation = new LoadCancellation();
+                        for (int stage = 0; stage < STAGE_MILLIS.length; stage++) {
+                            mPipeline.run(stage, EarthquakePipeline.PRIORITY_USER, cancellation,
+                                    sleep(STAGE_MILLIS[stage]));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> load : loads) {
+                load.get();
+            }
+            pipelinedBest = Math.min(pipelinedBest, System.nanoTime() - start);
+        }
+        System.out.println("EarthquakePipeline: " + LOAD_COUNT + " loads, one after another "
+                + serialBest / 1000000 + " ms, pipelined " + pipelinedBest / 1000000 + " ms");
+        assertTrue(pipelinedBest * 2 < serialBest);
+        mLoaders.shutdown();
+    }
+
+    /**
+     * Runs the task on the persist stage, which has a single thread, from a thread of its own.
+     */
+    private Future<?> submit(final int priority, final LoadCancellation cancellation,
+                             final Callable<Void> task) {
+        return mLoaders.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                return mPipeline.run(EarthquakePipeline.STAGE_PERSIST, priority, cancellation,
+                        task);
+            }
+        });
+    }
+
+    /**
+     * Holds the single thread of the persist stage until the latch is released.
+     */
+    private Future<?> blockPersistStage(final CountDownLatch release)
+            throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        Future<?> blocker = submit(EarthquakePipeline.PRIORITY_BACKGROUND,
+                new LoadCancellation(), new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        started.countDown();
+                        release.await();
+                        return null;
+                    }
+                });
+        started.await();
+        return blocker;
+    }
+
+    private void awaitQueueLength(int length) throws InterruptedException {
+        while (mPipeline.getQueueLength(EarthquakePipeline.STAGE_PERSIST) != length) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static Callable<Void> record(final List<String> order, final String name) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                order.add(name);
+                return null;
+            }
+        };
+    }
+
+    private static Callable<Void> sleep(final long millis) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                Thread.sleep(millis);
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Answers of {@link EarthquakeQueryEngine} against the answers of the server to the same
+ * queries, from a store holding 45 days of events while the queries ask for the last 30.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakeQueryEngineTest {
+
+    private static final long WINDOW_START = Fixtures.NOW - QueryUtils.DEFAULT_WINDOW;
+
+    private EarthquakeQueryEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.resetSingletons();
+        mEngine = EarthquakeQueryEngine.getInstance();
+        mEngine.load(new EarthquakeTable(Fixtures.parseGeoJson("usgs_45_days.geojson")));
+    }
+
+    @Test
+    public void query_answersLikeTheServer() throws Exception {
+        assertAnswer("usgs_minmag4.5_time_limit10.geojson", 4.5, "time", 10);
+        assertAnswer("usgs_minmag4.5_time_limit100.geojson", 4.5, "time", 100);
+        assertAnswer("usgs_minmag2.5_time_limit100.geojson", 2.5, "time", 100);
+        assertAnswer("usgs_minmag3_magnitude_limit10.geojson", 3, "magnitude", 10);
+        assertAnswer("usgs_minmag6_magnitude_limit100.geojson", 6, "magnitude", 100);
+        assertAnswer("usgs_minmag2.5_time-asc_limit5.geojson", 2.5, "time-asc", 5);
+    }
+
+    @Test
+    public void query_leavesOutTheRowsBeforeTheWindow() {
+        assertEquals(52, mEngine.query(WINDOW_START, 0, "time", 1000).size());
+        assertEquals(52, mEngine.query(WINDOW_START, 0, "magnitude-asc", 1000).size());
+        assertEquals(64, mEngine.query(Fixtures.NOW - 45 * 24 * 60 * 60 * 1000L, 0, "time-asc",
+                1000).size());
+    }
+
+    @Test
+    public void isCovered_afterASyncOfABroaderQuery() {
+        addCoverage(4.5, "time", 100);
+
+        assertTrue(isCovered(4.5, "time", 10));
+        assertTrue(isCovered(6, "magnitude", 100));
+        assertTrue(isCovered(5, "time", 100));
+    }
+
+    @Test
+    public void isCovered_notForLighterEventsNorALongerWindow() {
+        assertFalse(isCovered(4.5, "time", 10));
+
+        addCoverage(4.5, "time", 100);
+
+        assertFalse(isCovered(3, "time", 100));
+        assertFalse(isCovered(3, "magnitude", 100));
+        assertFalse(mEngine.isCovered(WINDOW_START - 1, 4.5, "time", 100,
+                mEngine.query(WINDOW_START - 1, 4.5, "time", 100), Fixtures.NOW));
+        // the oldest events of an ascending answer are never synced again
+        assertFalse(isCovered(4.5, "time-asc", 5));
+    }
+
+    @Test
+    public void isCovered_truncatedByTime_onlyNewerThanTheLastEvent() {
+        addCoverage(2.5, "time", 10);
+
+        assertTrue(isCovered(2.5, "time", 5));
+        assertTrue(isCovered(4.5, "time", 3));
+        assertFalse(isCovered(2.5, "time", 20));
+    }
+
+    @Test
+    public void isCovered_notOnceTheCoverageIsStale() {
+        addCoverage(4.5, "time", 100);
+
+        assertFalse(mEngine.isCovered(WINDOW_START, 4.5, "time", 10,
+                mEngine.query(WINDOW_START, 4.5, "time", 10),
+                Fixtures.NOW + EarthquakeQueryEngine.COVERAGE_FRESHNESS + 1));
+    }
+
+    private void assertAnswer(String fixture, double minMagnitude, String orderBy, int limit)
+            throws Exception {
+        Fixtures.assertSameEarthquakes(Fixtures.parseGeoJson(fixture),
+                mEngine.query(WINDOW_START, minMagnitude, orderBy, limit));
+    }
+
+    private void addCoverage(double minMagnitude, String orderBy, int limit) {
+        mEngine.addCoverage(WINDOW_START, minMagnitude, orderBy, limit,
+                mEngine.query(WINDOW_START, minMagnitude, orderBy, limit), Fixtures.NOW);
+    }
+
+    private boolean isCovered(double minMagnitude, String orderBy, int limit) {
+        return mEngine.isCovered(WINDOW_START, minMagnitude, orderBy, limit,
+                mEngine.query(WINDOW_START, minMagnitude, orderBy, limit), Fixtures.NOW);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saving and reading back the last result, and the snapshots which are not written again.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakeSnapshotTest {
+
+    private static final String QUERY_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query"
+            + "?format=geojson&eventtype=earthquake&orderby=time&minmag=2.5&limit=100";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private List<Earthquake> mEarthquakes;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = EarthquakeSnapshot.getFile(mFolder.getRoot());
+        mEarthquakes = Fixtures.parseGeoJson("usgs_minmag2.5_time_limit100.geojson");
+    }
+
+    @Test
+    public void writeAsync_readsBackTheResult() throws Exception {
+        EarthquakeSnapshot.writeAsync(mFile, QUERY_URL, new EarthquakeTable(mEarthquakes));
+        EarthquakeSnapshot.awaitWrites();
+
+        Fixtures.assertSameEarthquakes(mEarthquakes, EarthquakeSnapshot.read(mFile, QUERY_URL));
+        assertNull(EarthquakeSnapshot.read(mFile, QUERY_URL + "&minmag=3"));
+    }
+
+    @Test
+    public void writeIfChanged_sameResult_isNotWrittenAgain() {
+        assertTrue(EarthquakeSnapshot.write(mFile, QUERY_URL, new EarthquakeTable(mEarthquakes)));
+        assertTrue(mFile.setLastModified(0));
+
+        // a local answer builds a new table with the same rows
+        assertTrue(EarthquakeSnapshot.writeIfChanged(mFile, QUERY_URL,
+                new EarthquakeTable(mEarthquakes)));
+
+        assertEquals(0, mFile.lastModified());
+    }
+
+    @Test
+    public void writeIfChanged_revisedEvent_isWritten() {
+        assertTrue(EarthquakeSnapshot.write(mFile, QUERY_URL, new EarthquakeTable(mEarthquakes)));
+        assertTrue(mFile.setLastModified(0));
+
+        List<Earthquake> revised = new ArrayList<>(mEarthquakes);
+        Earthquake old = revised.get(3);
+        revised.set(3, new Earthquake(old.getId(), old.getMagnitude() + 0.1, old.getLocation(),
+                old.getDate(), old.getUpdated() + 1000, old.getWeb(), false, old.getLongitude(),
+                old.getLatitude(), old.getDepth()));
+        assertTrue(EarthquakeSnapshot.writeIfChanged(mFile, QUERY_URL,
+                new EarthquakeTable(revised)));
+
+        assertTrue(mFile.lastModified() != 0);
+        Fixtures.assertSameEarthquakes(revised, EarthquakeSnapshot.read(mFile, QUERY_URL));
+    }
+}
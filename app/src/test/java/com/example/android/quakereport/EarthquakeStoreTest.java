@@ -0,0 +1,95 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakeStoreTest {
+
+    private EarthquakeStore mStore;
+    private ArrayList<Earthquake> mEarthquakes;
+
+    @Before
+    public void setUp() throws Exception {
+        mStore = new EarthquakeStore(RuntimeEnvironment.application);
+        mEarthquakes = Fixtures.parseGeoJson("usgs_45_days.geojson");
+    }
+
+    @Test
+    public void query_returnsTheWindowNewestFirst() {
+        mStore.merge(mEarthquakes, Fixtures.NOW);
+
+        long startTime = Fixtures.NOW - 7 * 24 * 60 * 60 * 1000L;
+        List<Earthquake> expected = new ArrayList<>();
+        for (Earthquake earthquake : mEarthquakes) {
+            if (earthquake.getDate() >= startTime) {
+                expected.add(earthquake);
+            }
+        }
+        assertTrue(expected.size() > 0);
+        Fixtures.assertSameEarthquakes(expected, mStore.query(startTime));
+    }
+
+    @Test
+    public void merge_dropsTheEarthquakesOutOfTheDefaultWindow() {
+        mStore.merge(mEarthquakes, Fixtures.NOW);
+
+        List<Earthquake> expected = new ArrayList<>();
+        for (Earthquake earthquake : mEarthquakes) {
+            if (earthquake.getDate() >= Fixtures.NOW - QueryUtils.DEFAULT_WINDOW) {
+                expected.add(earthquake);
+            }
+        }
+        // 12 of the 64 events are 30 to 45 days old
+        assertEquals(52, expected.size());
+        Fixtures.assertSameEarthquakes(expected, mStore.query(0));
+    }
+
+    @Test
+    public void merge_laterTrimDropsTheEarthquakesWhichAgedOut() {
+        mStore.merge(mEarthquakes, Fixtures.NOW);
+        int stored = mStore.query(0).size();
+
+        // five days later, an empty delta still moves the window
+        long later = Fixtures.NOW + 5 * 24 * 60 * 60 * 1000L;
+        mStore.merge(new ArrayList<Earthquake>(), later);
+
+        EarthquakeTable earthquakes = mStore.query(0);
+        assertTrue(earthquakes.size() < stored);
+        for (int row = 0; row < earthquakes.size(); row++) {
+            assertTrue(earthquakes.getDate(row) >= later - QueryUtils.DEFAULT_WINDOW);
+        }
+    }
+
+    @Test
+    public void merge_aboveMaxRows_dropsTheOldestAndTellsIt() {
+        assertFalse(mStore.merge(mEarthquakes, Fixtures.NOW));
+
+        // one event a minute after now, newest first, more than the store keeps
+        Earthquake template = mEarthquakes.get(0);
+        List<Earthquake> many = new ArrayList<>();
+        for (int i = 0; i <= EarthquakeStore.MAX_ROWS; i++) {
+            long time = Fixtures.NOW + (EarthquakeStore.MAX_ROWS + 1 - i) * 60 * 1000L;
+            many.add(new Earthquake("many" + i, template.getMagnitude(), template.getLocation(),
+                    time, time, template.getWeb(), false, template.getLongitude(),
+                    template.getLatitude(), template.getDepth()));
+        }
+
+        assertTrue(mStore.merge(many, Fixtures.NOW));
+        EarthquakeTable earthquakes = mStore.query(0);
+        assertEquals(EarthquakeStore.MAX_ROWS, earthquakes.size());
+        Fixtures.assertSameEarthquakes(many.subList(0, EarthquakeStore.MAX_ROWS), earthquakes);
+    }
+}
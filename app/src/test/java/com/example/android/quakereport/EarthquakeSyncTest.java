@@ -0,0 +1,183 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Incremental syncs of the store, a fake client serving the delta fixture.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakeSyncTest {
+
+    private static final String BASE_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query"
+            + "?format=geojson&eventtype=earthquake";
+
+    private static final String QUERY_URL = BASE_URL + "&orderby=time&minmag=2.5&limit=100";
+
+    private static final byte[] EMPTY_RESPONSE =
+            "{\"type\":\"FeatureCollection\",\"features\":[]}".getBytes();
+
+    private FakeHttpClient mHttpClient;
+    private ArrayList<Earthquake> mFull;
+    private ArrayList<Earthquake> mDelta;
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.resetSingletons();
+        mFull = Fixtures.parseGeoJson("usgs_minmag2.5_time_limit100.geojson");
+        mDelta = Fixtures.parseGeoJson("usgs_delta.geojson");
+        mHttpClient = new FakeHttpClient()
+                .answer("updatedafter=" + Uri.encode(QueryUtils.formatUtc(maxUpdated(mFull))),
+                        200, Fixtures.read("usgs_delta.geojson"))
+                .answer("updatedafter=", 200, EMPTY_RESPONSE)
+                .answer("limit=100", 200, Fixtures.read("usgs_minmag2.5_time_limit100.geojson"));
+    }
+
+    @Test
+    public void sync_firstTime_downloadsTheWholeQuery() {
+        assertTrue(sync());
+
+        assertEquals(Collections.singletonList(QUERY_URL), mHttpClient.getRequests());
+        Fixtures.assertSameEarthquakes(mFull, store().query(0));
+    }
+
+    @Test
+    public void sync_afterwards_mergesTheChangesSinceTheNewestUpdate() {
+        sync();
+        assertTrue(sync());
+
+        String deltaUrl = mHttpClient.getRequests().get(1);
+        assertTrue(deltaUrl, deltaUrl.contains("minmag=2.5"));
+        assertTrue(deltaUrl, deltaUrl.contains("includedeleted=true"));
+        assertFalse(deltaUrl, deltaUrl.contains("orderby"));
+        Fixtures.assertSameEarthquakes(applyDelta(mFull, mDelta), store().query(0));
+    }
+
+    @Test
+    public void sync_withoutChanges_keepsTheStoreAndMovesOn() {
+        sync();
+        sync();
+        List<Earthquake> merged = store().query(0);
+
+        assertTrue(sync());
+
+        String url = mHttpClient.getRequests().get(2);
+        assertTrue(url, url.contains(
+                "updatedafter=" + Uri.encode(QueryUtils.formatUtc(maxUpdated(mDelta)))));
+        Fixtures.assertSameEarthquakes(merged, store().query(0));
+    }
+
+    @Test
+    public void sync_deltaWithoutData_isNotAFailure() {
+        sync();
+        FakeHttpClient noData = new FakeHttpClient().answer("updatedafter=", 204, null);
+
+        assertTrue(EarthquakeSync.sync(RuntimeEnvironment.application, noData, QUERY_URL,
+                LoadMetrics.NO_TRACE, new LoadCancellation(), null,
+                EarthquakePipeline.PRIORITY_USER, Fixtures.NOW));
+
+        Fixtures.assertSameEarthquakes(mFull, store().query(0));
+    }
+
+    @Test
+    public void sync_failedDelta_keepsTheMark() {
+        sync();
+        FakeHttpClient offline = new FakeHttpClient();
+
+        assertFalse(EarthquakeSync.sync(RuntimeEnvironment.application, offline, QUERY_URL,
+                LoadMetrics.NO_TRACE, new LoadCancellation(), null,
+                EarthquakePipeline.PRIORITY_USER, Fixtures.NOW));
+        assertTrue(sync());
+
+        // the delta asked again is the one after the full download
+        Fixtures.assertSameEarthquakes(applyDelta(mFull, mDelta), store().query(0));
+    }
+
+    @Test
+    public void sync_otherOrderAfterACutOffDownload_downloadsItInFull() throws Exception {
+        // the ten newest events of at least magnitude 3, the strongest are older
+        List<Earthquake> newest = new ArrayList<>();
+        for (Earthquake earthquake : mFull) {
+            if (earthquake.getMagnitude() >= 3 && newest.size() < 10) {
+                newest.add(earthquake);
+            }
+        }
+        String strongestFixture = "usgs_minmag3_magnitude_limit10.geojson";
+        String byTime = BASE_URL + "&orderby=time&minmag=3&limit=10";
+        String byMagnitude = BASE_URL + "&orderby=magnitude&minmag=3&limit=10";
+        FakeHttpClient httpClient = new FakeHttpClient()
+                .answer("updatedafter=", 200, EMPTY_RESPONSE)
+                .answer("orderby=time", 200, Fixtures.toGeoJson(newest, 0))
+                .answer("orderby=magnitude", 200, Fixtures.read(strongestFixture));
+
+        assertTrue(sync(httpClient, byTime));
+        assertTrue(sync(httpClient, byMagnitude));
+
+        // the new order is not a delta of the first download
+        assertEquals(byMagnitude, httpClient.getRequests().get(1));
+        EarthquakeQueryEngine engine = EarthquakeQueryEngine.getInstance();
+        engine.load(store().query(0));
+        Fixtures.assertSameEarthquakes(Fixtures.parseGeoJson(strongestFixture),
+                engine.query(0, 3, "magnitude", 10));
+    }
+
+    private boolean sync() {
+        return sync(mHttpClient, QUERY_URL);
+    }
+
+    private static boolean sync(FakeHttpClient httpClient, String queryUrl) {
+        return EarthquakeSync.sync(RuntimeEnvironment.application, httpClient, queryUrl,
+                LoadMetrics.NO_TRACE, new LoadCancellation(), null,
+                EarthquakePipeline.PRIORITY_USER, Fixtures.NOW);
+    }
+
+    private static EarthquakeStore store() {
+        return EarthquakeStore.getInstance(RuntimeEnvironment.application);
+    }
+
+    private static long maxUpdated(List<Earthquake> earthquakes) {
+        long updated = 0;
+        for (Earthquake earthquake : earthquakes) {
+            updated = Math.max(updated, earthquake.getUpdated());
+        }
+        return updated;
+    }
+
+    /**
+     * The store expected after the delta: revisions replace their event, deletions remove it,
+     * newest first.
+     */
+    private static List<Earthquake> applyDelta(List<Earthquake> full, List<Earthquake> delta) {
+        Map<String, Earthquake> events = new LinkedHashMap<>();
+        for (Earthquake earthquake : full) {
+            events.put(earthquake.getId(), earthquake);
+        }
+        for (Earthquake change : delta) {
+            if (change.isDeleted()) {
+                events.remove(change.getId());
+            } else {
+                events.put(change.getId(), change);
+            }
+        }
+        List<Earthquake> expected = new ArrayList<>(events.values());
+        Collections.sort(expected, EarthquakeOrder.forOrderBy("time"));
+        return expected;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link EarthquakeTable} as a drop-in list of earthquakes, and its heap use against the
+ * ArrayList of Earthquake objects it replaced.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EarthquakeTableTest {
+
+    /** Rows of the memory comparison, about a large USGS download */
+    private static final int ROW_COUNT = 20000;
+
+    @Test
+    public void get_returnsTheAddedEarthquakes() throws Exception {
+        List<Earthquake> earthquakes = Fixtures.parseGeoJson("usgs_45_days.geojson");
+
+        EarthquakeTable table = new EarthquakeTable(earthquakes);
+
+        Fixtures.assertSameEarthquakes(earthquakes, table);
+        Fixtures.assertSameEarthquakes(earthquakes, new EarthquakeTable(table));
+    }
+
+    @Test
+    public void getWeb_keepsUrlsWhichAreNotTheEventPage() {
+        EarthquakeTable table = new EarthquakeTable();
+        table.addRow("us1000abcd", 5, "Somewhere", Fixtures.NOW, Fixtures.NOW,
+                "https://example.com/us1000abcd", 0, 0, 10);
+        table.addRow("us1000abce", 5, "Somewhere", Fixtures.NOW, Fixtures.NOW,
+                EarthquakeTable.EVENT_PAGE_PREFIX + "us1000abce", 0, 0, 10);
+
+        assertEquals("https://example.com/us1000abcd", table.getWeb(0));
+        assertEquals(EarthquakeTable.EVENT_PAGE_PREFIX + "us1000abce", table.getWeb(1));
+        assertSame(table.getLocation(0), table.getLocation(1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void add_inTheMiddle_isNotSupported() throws Exception {
+        EarthquakeTable table = new EarthquakeTable(
+                Fixtures.parseGeoJson("usgs_45_days.geojson"));
+
+        table.add(0, table.get(1));
+    }
+
+    /**
+     * Both layouts hold the same rows, built the way the parser builds them: every row has
+     * its own place and URL strings.
+     */
+    @Test
+    public void heapSize_isLessThanHalfOfTheObjectList() throws Exception {
+        List<Earthquake> fixture = Fixtures.parseGeoJson("usgs_45_days.geojson");
+        ArrayList<Earthquake> objects = new ArrayList<>();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            Earthquake earthquake = fixture.get(i % fixture.size());
+            String id = earthquake.getId() + i;
+            objects.add(new Earthquake(id, earthquake.getMagnitude(),
+                    new String(earthquake.getLocation()), earthquake.getDate() - i * 1000L,
+                    earthquake.getUpdated(), EarthquakeTable.EVENT_PAGE_PREFIX + id, false,
+                    earthquake.getLongitude(), earthquake.getLatitude(), earthquake.getDepth()));
+        }
+        EarthquakeTable table = new EarthquakeTable(objects);
+
+        long objectBytes = HeapSize.of(objects);
+        long tableBytes = HeapSize.of(table);
+        System.out.println("EarthquakeTable: " + ROW_COUNT + " rows, ArrayList<Earthquake> "
+                + objectBytes / 1024 + " KiB, EarthquakeTable " + tableBytes / 1024 + " KiB");
+        assertTrue(tableBytes * 2 < objectBytes);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link EarthquakeHttpClient} answering without network. A request gets the response of the
+ * first rule whose text is part of its URL, or a 404. Subclasses can answer in other ways by
+ * overriding {@link #respond(URL)}. Every request URL is recorded.
+ */
+
+class FakeHttpClient implements EarthquakeHttpClient {
+
+    private final Map<String, FakeResponse> mRules = new LinkedHashMap<>();
+    private final List<String> mRequests = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Adds a rule, the body is served as it is (no Content-Encoding).
+     */
+    synchronized FakeHttpClient answer(String urlPart, int code, byte[] body) {
+        mRules.put(urlPart, new FakeResponse(code, body));
+        return this;
+    }
+
+    /**
+     * Gets the URLs requested so far, in order.
+     */
+    List<String> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    @Override
+    public Response get(URL url) throws IOException {
+        mRequests.add(url.toString());
+        return respond(url);
+    }
+
+    @Override
+    public Response getIfChanged(URL url, String eTag, String lastModified) throws IOException {
+        mRequests.add(url.toString());
+        return respond(url);
+    }
+
+    protected synchronized Response respond(URL url) throws IOException {
+        for (Map.Entry<String, FakeResponse> rule : mRules.entrySet()) {
+            if (url.toString().contains(rule.getKey())) {
+                return rule.getValue().copy();
+            }
+        }
+        return new FakeResponse(404, null);
+    }
+
+    /**
+     * Response with its whole body in memory.
+     */
+    static class FakeResponse implements Response {
+
+        private final int mCode;
+        private final byte[] mBody;
+        private final Map<String, String> mHeaders = new HashMap<>();
+        private volatile boolean mAborted;
+
+        FakeResponse(int code, byte[] body) {
+            mCode = code;
+            mBody = body != null ? body : new byte[0];
+        }
+
+        FakeResponse header(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        FakeResponse copy() {
+            FakeResponse copy = new FakeResponse(mCode, mBody);
+            copy.mHeaders.putAll(mHeaders);
+            return copy;
+        }
+
+        boolean isAborted() {
+            return mAborted;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return mHeaders.get("Content-Encoding");
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mHeaders.get(name);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(mBody);
+        }
+
+        @Override
+        public boolean isFromCache() {
+            return false;
+        }
+
+        @Override
+        public void abort() {
+            mAborted = true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
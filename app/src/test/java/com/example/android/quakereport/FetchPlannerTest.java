@@ -0,0 +1,177 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sharded downloads of {@link FetchPlanner} against a stub server answering like USGS: both
+ * ends of the window included, newest first. The server spends a fixed time per event it
+ * returns, so the shards downloaded in parallel are measured against a single request.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class FetchPlannerTest {
+
+    private static final long WINDOW = QueryUtils.DEFAULT_WINDOW;
+    private static final long START = Fixtures.NOW - WINDOW;
+    private static final int SHARD_COUNT = 4;
+    private static final int EVENT_COUNT = 4000;
+
+    /** Work of the server per returned event, in microseconds */
+    private static final long SERVER_COST_MICROS = 100;
+
+    // one event every WINDOW / EVENT_COUNT ms, so events fall right on the shard boundaries
+    private final List<Earthquake> mEvents = new ArrayList<>();
+    private StubServer mServer;
+    private UrlConnectionHttpClient mHttpClient;
+    private FetchPlanner mPlanner;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i <= EVENT_COUNT; i++) {
+            long time = START + i * (WINDOW / EVENT_COUNT);
+            String id = String.format(Locale.US, "t%05d", i);
+            mEvents.add(0, new Earthquake(id, 2.5 + (i % 50) / 10.0, "10km N of Place " + i % 97,
+                    time, time, EarthquakeTable.EVENT_PAGE_PREFIX + id, false,
+                    -180 + i % 360, -60 + i % 120, 10));
+        }
+        mServer = new StubServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Uri uri = Uri.parse(exchange.getRequestURI().toString());
+                List<Earthquake> answer = new ArrayList<>();
+                for (Earthquake earthquake : mEvents) {
+                    if (earthquake.getDate() >= parseUtc(uri.getQueryParameter("starttime"))
+                            && earthquake.getDate() <= parseUtc(uri.getQueryParameter("endtime"))) {
+                        answer.add(earthquake);
+                    }
+                }
+                try {
+                    Thread.sleep(answer.size() * SERVER_COST_MICROS / 1000);
+                    StubServer.respond(exchange, 200, Fixtures.toGeoJson(answer, 0));
+                } catch (InterruptedException | JSONException e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+        mHttpClient = new UrlConnectionHttpClient(5000, 5000);
+        mPlanner = new FetchPlanner(SHARD_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void fetch_sameAsSingleRequest_withoutDuplicatesOnBoundaries() {
+        List<Earthquake> single = QueryUtils.fetchData(mHttpClient, windowUrl());
+        List<Earthquake> sharded = mPlanner.fetch(mHttpClient, queryUrl(), START, Fixtures.NOW,
+                SHARD_COUNT, LoadMetrics.NO_TRACE, new LoadCancellation(), null);
+
+        assertNotNull(sharded);
+        assertEquals(EVENT_COUNT + 1, single.size());
+        assertEquals(single.size(), new HashSet<>(Fixtures.ids(sharded)).size());
+        Fixtures.assertSameEarthquakes(single, sharded);
+        assertEquals(1 + SHARD_COUNT, mServer.getRequestCount());
+    }
+
+    @Test
+    public void fetch_usesTheClientOfEachCall() {
+        byte[] empty = "{\"type\":\"FeatureCollection\",\"features\":[]}".getBytes();
+        FakeHttpClient first = new FakeHttpClient().answer("starttime", 200, empty);
+        FakeHttpClient second = new FakeHttpClient().answer("starttime", 200, empty);
+
+        mPlanner.fetch(first, queryUrl(), START, Fixtures.NOW, SHARD_COUNT,
+                LoadMetrics.NO_TRACE, new LoadCancellation(), null);
+        mPlanner.fetch(second, queryUrl(), START, Fixtures.NOW, SHARD_COUNT,
+                LoadMetrics.NO_TRACE, new LoadCancellation(), null);
+
+        assertEquals(SHARD_COUNT, first.getRequests().size());
+        assertEquals(SHARD_COUNT, second.getRequests().size());
+    }
+
+    @Test
+    public void merge_keepsAnEventListedInTwoShardsOnce() throws Exception {
+        List<Earthquake> earthquakes = Fixtures.parseGeoJson("usgs_45_days.geojson");
+        ArrayList<ArrayList<Earthquake>> shards = new ArrayList<>();
+        shards.add(new ArrayList<>(earthquakes.subList(0, 40)));
+        // the last event of the first shard, revised into the second one while downloading
+        shards.add(new ArrayList<>(earthquakes.subList(39, earthquakes.size())));
+
+        List<Earthquake> merged = FetchPlanner.merge(shards, EarthquakeOrder.forOrderBy("time"),
+                Integer.MAX_VALUE);
+
+        assertEquals(Fixtures.ids(earthquakes), Fixtures.ids(merged));
+    }
+
+    /**
+     * Measures the parallel shards against one request of the same window, the best of a few
+     * runs after a warm-up. Run alone for meaningful numbers, e.g. with --tests.
+     */
+    @Test
+    public void benchmark_shardedFetch_fasterThanSingleRequest() {
+        long singleBest = Long.MAX_VALUE;
+        long shardedBest = Long.MAX_VALUE;
+        for (int run = 0; run < 4; run++) {
+            long start = System.nanoTime();
+            QueryUtils.fetchData(mHttpClient, windowUrl());
+            long single = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            mPlanner.fetch(mHttpClient, queryUrl(), START, Fixtures.NOW, SHARD_COUNT,
+                    LoadMetrics.NO_TRACE, new LoadCancellation(), null);
+            long sharded = System.nanoTime() - start;
+            if (run > 0) {
+                singleBest = Math.min(singleBest, single);
+                shardedBest = Math.min(shardedBest, sharded);
+            }
+        }
+        System.out.println("FetchPlanner: " + (EVENT_COUNT + 1) + " events, single request "
+                + singleBest / 1000000 + " ms, " + SHARD_COUNT + " shards "
+                + shardedBest / 1000000 + " ms");
+        assertTrue(shardedBest < singleBest);
+    }
+
+    private String queryUrl() {
+        return mServer.urlString("/fdsnws/event/1/query?format=geojson&orderby=time&limit=20000");
+    }
+
+    private String windowUrl() {
+        return queryUrl() + "&starttime=" + Uri.encode(QueryUtils.formatUtc(START))
+                + "&endtime=" + Uri.encode(QueryUtils.formatUtc(Fixtures.NOW));
+    }
+
+    private static long parseUtc(String time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(time).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(time, e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.quakereport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Responses in the formats of the USGS query API (fdsnws/event/1), kept in src/test/resources.
+ * They were written for the tests, not recorded: "usgs_45_days" holds the events of the 45 days
+ * before {@link #NOW}, the "usgs_minmag..." files are what the server answers to the queries of
+ * the list (default window of 30 days) and "usgs_delta" is an incremental download an hour
+ * later, since the newest update of the 30 days.
+ */
+
+final class Fixtures {
+
+    /** Time the responses were built at, 2017-06-20T12:00:00.000Z */
+    static final long NOW = 1497960000000L;
+
+    private Fixtures() {
+    }
+
+    static InputStream open(String name) {
+        InputStream input = Fixtures.class.getClassLoader().getResourceAsStream(name);
+        assertNotNull("missing fixture " + name, input);
+        return input;
+    }
+
+    static byte[] read(String name) throws IOException {
+        InputStream input = open(name);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Parses a GeoJSON fixture with the parser of the app.
+     */
+    static ArrayList<Earthquake> parseGeoJson(String name) throws IOException {
+        return QueryUtils.extractEarthquakes(open(name), new LoadCancellation(), null);
+    }
+
+    /**
+     * Forgets the singletons holding a database or indexes, the context of a test does not
+     * outlive it.
+     */
+    static void resetSingletons() throws Exception {
+        for (Class<?> singleton : new Class<?>[]{EarthquakeStore.class,
+                EarthquakeQueryEngine.class}) {
+            Field instance = singleton.getDeclaredField("sInstance");
+            instance.setAccessible(true);
+            instance.set(null, null);
+        }
+    }
+
+    /**
+     * Writes the earthquakes as a GeoJSON response, their times moved by the offset. The tests
+     * going through code which reads the clock move the fixtures to the present this way.
+     */
+    static byte[] toGeoJson(List<? extends Earthquake> earthquakes, long offset)
+            throws JSONException {
+        JSONArray features = new JSONArray();
+        for (Earthquake earthquake : earthquakes) {
+            JSONObject properties = new JSONObject()
+                    .put("mag", earthquake.getMagnitude())
+                    .put("place", earthquake.getLocation())
+                    .put("time", earthquake.getDate() + offset)
+                    .put("updated", earthquake.getUpdated() + offset)
+                    .put("url", earthquake.getWeb())
+                    .put("status", earthquake.isDeleted() ? "deleted" : "reviewed");
+            JSONArray coordinates = new JSONArray()
+                    .put(earthquake.getLongitude())
+                    .put(earthquake.getLatitude())
+                    .put(earthquake.getDepth());
+            features.put(new JSONObject()
+                    .put("type", "Feature")
+                    .put("properties", properties)
+                    .put("geometry", new JSONObject()
+                            .put("type", "Point")
+                            .put("coordinates", coordinates))
+                    .put("id", earthquake.getId()));
+        }
+        return new JSONObject()
+                .put("type", "FeatureCollection")
+                .put("features", features)
+                .toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Copies the earthquakes with their times moved by the offset.
+     */
+    static List<Earthquake> shift(List<? extends Earthquake> earthquakes, long offset) {
+        List<Earthquake> shifted = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            shifted.add(new Earthquake(earthquake.getId(), earthquake.getMagnitude(),
+                    earthquake.getLocation(), earthquake.getDate() + offset,
+                    earthquake.getUpdated() + offset, earthquake.getWeb(), earthquake.isDeleted(),
+                    earthquake.getLongitude(), earthquake.getLatitude(), earthquake.getDepth()));
+        }
+        return shifted;
+    }
+
+    static List<String> ids(List<? extends Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    static void assertSameEarthquakes(List<? extends Earthquake> expected,
+                                      List<? extends Earthquake> actual) {
+        assertEquals(ids(expected), ids(actual));
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameEarthquake(expected.get(i), actual.get(i));
+        }
+    }
+
+    static void assertSameEarthquake(Earthquake expected, Earthquake actual) {
+        String id = expected.getId();
+        assertEquals(id, expected.getId(), actual.getId());
+        assertEquals(id, expected.getMagnitude(), actual.getMagnitude(), 0);
+        assertEquals(id, expected.getLocation(), actual.getLocation());
+        assertEquals(id, expected.getDate(), actual.getDate());
+        assertEquals(id, expected.getUpdated(), actual.getUpdated());
+        assertEquals(id, expected.getWeb(), actual.getWeb());
+        assertEquals(id, expected.isDeleted(), actual.isDeleted());
+        assertEquals(id, expected.getLongitude(), actual.getLongitude(), 0);
+        assertEquals(id, expected.getLatitude(), actual.getLatitude(), 0);
+        assertEquals(id, expected.getDepth(), actual.getDepth(), 0);
+    }
+}
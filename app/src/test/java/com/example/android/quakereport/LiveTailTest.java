@@ -0,0 +1,252 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Live mode against a stub server replaying versions of the summary feeds: every poll is a
+ * conditional request, and the new and revised events are merged into the displayed result.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class LiveTailTest {
+
+    private static final String QUERY_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query"
+            + "?format=geojson&eventtype=earthquake&orderby=time&minmag=0&limit=100";
+
+    /** Fast polls, the test does not wait for the real interval */
+    private static final long POLL_INTERVAL = 20;
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private long mNow;
+    private EarthquakeTable mBase;
+    // the feed served, with its version as ETag
+    private volatile byte[] mFeed;
+    private volatile int mVersion;
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    private StubServer mServer;
+    private final BlockingQueue<EarthquakeTable> mUpdates = new LinkedBlockingQueue<>();
+    private LiveTail mLiveTail;
+
+    @Before
+    public void setUp() throws Exception {
+        mNow = System.currentTimeMillis();
+        // the ten newest events of the fixture, the newest an hour ago, the second one within
+        // the day the live events are kept
+        List<Earthquake> events = Fixtures.parseGeoJson("usgs_minmag2.5_time_limit100.geojson")
+                .subList(0, 10);
+        mBase = new EarthquakeTable(Fixtures.shift(events,
+                mNow - 60 * 60 * 1000L - events.get(0).getDate()));
+        mServer = new StubServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String eTag = "\"" + mVersion + "\"";
+                if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    mNotModified.incrementAndGet();
+                    StubServer.respond(exchange, 304, null);
+                    return;
+                }
+                exchange.getResponseHeaders().set("ETag", eTag);
+                StubServer.respond(exchange, 200, mFeed);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (mLiveTail != null) {
+            mLiveTail.stop();
+        }
+        mServer.close();
+    }
+
+    @Test
+    public void poll_mergesEachVersionOfTheFeedOnce() throws Exception {
+        Earthquake revised = revise(mBase.get(1), 6.1, 1000);
+        final Earthquake first = quake("live1", mNow - 10 * 60 * 1000L);
+        serve(1, first, revised);
+        start(new RedirectingClient());
+        mLiveTail.setBase(mBase);
+
+        EarthquakeTable merged = awaitUpdate(new Condition() {
+            @Override
+            public boolean holds(EarthquakeTable earthquakes) {
+                return earthquakes.size() == 11 && "live1".equals(earthquakes.getId(0));
+            }
+        });
+        assertEquals(6.1, merged.getMagnitude(row(merged, revised.getId())), 0);
+
+        // the unchanged feed is not downloaded again
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mNotModified.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLL_INTERVAL);
+        }
+        assertTrue(mNotModified.get() >= 2);
+
+        final Earthquake second = quake("live2", mNow - 5 * 60 * 1000L);
+        serve(2, first, revised, second);
+        merged = awaitUpdate(new Condition() {
+            @Override
+            public boolean holds(EarthquakeTable earthquakes) {
+                return earthquakes.size() == 12;
+            }
+        });
+        assertEquals("live2", merged.getId(0));
+        assertEquals("live1", merged.getId(1));
+    }
+
+    @Test
+    public void setBase_keepsRowsNewerThanTheLiveRevision() throws Exception {
+        final Earthquake live = revise(mBase.get(1), 6.1, 1000);
+        serve(1, live);
+        start(new RedirectingClient());
+        mLiveTail.setBase(mBase);
+        awaitUpdate(new Condition() {
+            @Override
+            public boolean holds(EarthquakeTable earthquakes) {
+                return earthquakes.getMagnitude(row(earthquakes, live.getId())) == 6.1;
+            }
+        });
+
+        // a reload brings a later revision than the feed
+        List<Earthquake> reloaded = new ArrayList<>(mBase);
+        reloaded.set(1, revise(mBase.get(1), 6.4, 2000));
+        mLiveTail.setBase(new EarthquakeTable(reloaded));
+
+        awaitUpdate(new Condition() {
+            @Override
+            public boolean holds(EarthquakeTable earthquakes) {
+                return earthquakes.getMagnitude(row(earthquakes, live.getId())) == 6.4;
+            }
+        });
+    }
+
+    @Test
+    public void poll_unexpectedException_keepsPolling() throws Exception {
+        serve(1, quake("live1", mNow - 10 * 60 * 1000L));
+        start(new RedirectingClient() {
+            private boolean mFailed;
+
+            @Override
+            public Response getIfChanged(URL url, String eTag, String lastModified)
+                    throws IOException {
+                if (!mFailed) {
+                    mFailed = true;
+                    throw new IllegalStateException("first poll");
+                }
+                return super.getIfChanged(url, eTag, lastModified);
+            }
+        });
+        mLiveTail.setBase(mBase);
+
+        awaitUpdate(new Condition() {
+            @Override
+            public boolean holds(EarthquakeTable earthquakes) {
+                return earthquakes.size() == 11;
+            }
+        });
+    }
+
+    private void start(EarthquakeHttpClient httpClient) {
+        mLiveTail = new LiveTail(httpClient, QUERY_URL, new EarthquakeFormatter(
+                new int[EarthquakeStats.MAGNITUDE_BUCKETS]), new LiveTail.Listener() {
+            @Override
+            public void onLiveUpdate(EarthquakeTable earthquakes) {
+                mUpdates.add(earthquakes);
+            }
+        }, POLL_INTERVAL);
+        mLiveTail.start();
+    }
+
+    private void serve(int version, Earthquake... events) throws Exception {
+        List<Earthquake> feed = new ArrayList<>();
+        for (Earthquake event : events) {
+            feed.add(event);
+        }
+        mFeed = Fixtures.toGeoJson(feed, 0);
+        mVersion = version;
+    }
+
+    /**
+     * Waits for a table handed to the listener which meets the condition.
+     */
+    private EarthquakeTable awaitUpdate(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            // the updates are posted to the main thread
+            Robolectric.flushForegroundThreadScheduler();
+            EarthquakeTable earthquakes = mUpdates.poll(10, TimeUnit.MILLISECONDS);
+            if (earthquakes != null && condition.holds(earthquakes)) {
+                return earthquakes;
+            }
+        }
+        fail("no such update in " + TIMEOUT_MS + " ms");
+        return null;
+    }
+
+    private static int row(EarthquakeTable earthquakes, String id) {
+        for (int row = 0; row < earthquakes.size(); row++) {
+            if (earthquakes.getId(row).equals(id)) {
+                return row;
+            }
+        }
+        throw new AssertionError(id + " not displayed");
+    }
+
+    private static Earthquake quake(String id, long date) {
+        return new Earthquake(id, 4.2, "Live place", date, date,
+                EarthquakeTable.EVENT_PAGE_PREFIX + id, false, 0, 0, 10);
+    }
+
+    private static Earthquake revise(Earthquake earthquake, double magnitude, long later) {
+        return new Earthquake(earthquake.getId(), magnitude, earthquake.getLocation(),
+                earthquake.getDate(), earthquake.getUpdated() + later, earthquake.getWeb(),
+                false, earthquake.getLongitude(), earthquake.getLatitude(),
+                earthquake.getDepth());
+    }
+
+    private interface Condition {
+        boolean holds(EarthquakeTable earthquakes);
+    }
+
+    /**
+     * Sends the requests for the USGS feeds to the stub server.
+     */
+    private class RedirectingClient implements EarthquakeHttpClient {
+        private final UrlConnectionHttpClient mHttpClient =
+                new UrlConnectionHttpClient(1000, 1000);
+
+        @Override
+        public Response get(URL url) throws IOException {
+            return mHttpClient.get(mServer.url(url.getPath()));
+        }
+
+        @Override
+        public Response getIfChanged(URL url, String eTag, String lastModified)
+                throws IOException {
+            return mHttpClient.getIfChanged(mServer.url(url.getPath()), eTag, lastModified);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Canceling loads with {@link LoadCancellation} while a stub server drips the body of its first
+ * response, 10 bytes every 5 ms (the whole feed would take 20 s). Later responses are sent at
+ * once. The dripped body is chunked like the USGS query answers: with a Content-Length below
+ * 64 KiB, disconnecting the HttpURLConnection of the JDK drains the body to keep the socket
+ * instead of closing it, which the one of Android does not do.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class LoadCancellationTest {
+
+    private static final int DRIP_BYTES = 10;
+    private static final long DRIP_INTERVAL_MS = 5;
+
+    /** Time a canceled load may take to return (class loading included), a quarter of the body */
+    private static final long CANCEL_TIMEOUT_MS = 5000;
+
+    private byte[] mBody;
+    private final AtomicInteger mResponseCount = new AtomicInteger();
+    private StubServer mServer;
+    private UrlConnectionHttpClient mHttpClient;
+    private final ExecutorService mLoaders = Executors.newCachedThreadPool();
+
+    @Before
+    public void setUp() throws IOException {
+        mBody = Fixtures.read("usgs_45_days.geojson");
+        mServer = new StubServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (mResponseCount.getAndIncrement() > 0) {
+                    StubServer.respond(exchange, 200, mBody);
+                    return;
+                }
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream body = exchange.getResponseBody();
+                try {
+                    for (int i = 0; i < mBody.length; i += DRIP_BYTES) {
+                        body.write(mBody, i, Math.min(DRIP_BYTES, mBody.length - i));
+                        body.flush();
+                        Thread.sleep(DRIP_INTERVAL_MS);
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+        mHttpClient = new UrlConnectionHttpClient(5000, 5000);
+    }
+
+    @After
+    public void tearDown() {
+        mLoaders.shutdownNow();
+        mServer.close();
+    }
+
+    @Test
+    public void cancel_whileTheBodyIsRead_returnsAtOnce() throws Exception {
+        LoadCancellation cancellation = new LoadCancellation();
+        Future<ArrayList<Earthquake>> load = startLoad(cancellation);
+        awaitBytesSent(100);
+
+        long start = System.nanoTime();
+        cancellation.cancel();
+        ArrayList<Earthquake> earthquakes = load.get(CANCEL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        System.out.println("LoadCancellation: returned " + elapsedMs + " ms after cancel, "
+                + mServer.getBytesSent() + " of " + mBody.length + " bytes sent");
+        assertNull(earthquakes);
+        assertTrue(mServer.getBytesSent() < mBody.length / 2);
+    }
+
+    @Test
+    public void cancel_beforeTheRequest_doesNotConnect() throws Exception {
+        LoadCancellation cancellation = new LoadCancellation();
+        cancellation.cancel();
+
+        assertNull(QueryUtils.fetchData(mHttpClient, url(), LoadMetrics.NO_TRACE, cancellation));
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    @Test
+    public void cancel_ofTheOwner_letsAWaiterDownloadOnItsOwn() throws Exception {
+        LoadCancellation owner = new LoadCancellation();
+        Future<ArrayList<Earthquake>> ownerLoad = startLoad(owner);
+        awaitBytesSent(100);
+        Future<ArrayList<Earthquake>> waiterLoad = startLoad(new LoadCancellation());
+        // lets the waiter join the request in flight
+        Thread.sleep(100);
+
+        owner.cancel();
+
+        assertNull(ownerLoad.get(CANCEL_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(64, waiterLoad.get(CANCEL_TIMEOUT_MS, TimeUnit.MILLISECONDS).size());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void cancel_ofAWaiter_leavesTheOwnerLoading() throws Exception {
+        Future<ArrayList<Earthquake>> ownerLoad = startLoad(new LoadCancellation());
+        awaitBytesSent(100);
+        LoadCancellation waiter = new LoadCancellation();
+        Future<ArrayList<Earthquake>> waiterLoad = startLoad(waiter);
+        Thread.sleep(100);
+
+        waiter.cancel();
+
+        assertNull(waiterLoad.get(CANCEL_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(ownerLoad.isDone());
+        assertEquals(1, mServer.getRequestCount());
+        ownerLoad.cancel(true);
+    }
+
+    private Future<ArrayList<Earthquake>> startLoad(final LoadCancellation cancellation) {
+        return mLoaders.submit(new Callable<ArrayList<Earthquake>>() {
+            @Override
+            public ArrayList<Earthquake> call() {
+                return QueryUtils.fetchData(mHttpClient, url(), LoadMetrics.NO_TRACE,
+                        cancellation);
+            }
+        });
+    }
+
+    private void awaitBytesSent(long bytes) throws InterruptedException {
+        while (mServer.getBytesSent() < bytes) {
+            Thread.sleep(DRIP_INTERVAL_MS);
+        }
+    }
+
+    private String url() {
+        return mServer.urlString("/fdsnws/event/1/query?format=geojson");
+    }
+}
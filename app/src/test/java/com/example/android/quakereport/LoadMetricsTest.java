@@ -0,0 +1,139 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Recording of {@link LoadMetrics}: the counters of the finished loads, their lines in the log
+ * file, and the main thread never waiting for the file to be written.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class LoadMetricsTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        LoadMetrics.setEnabled(false, null);
+    }
+
+    @Test
+    public void finish_appendsOneLinePerLoad_inOrder() throws Exception {
+        File logDir = mFolder.newFolder();
+        LoadMetrics.setEnabled(true, logDir);
+
+        for (int i = 1; i <= 3; i++) {
+            LoadMetrics.Trace trace = LoadMetrics.begin();
+            trace.addResponse("geojson", i, i, i, false);
+            trace.finish();
+        }
+        LoadMetrics.awaitLogWrites();
+
+        List<String> lines = readLines(new File(logDir, "metrics.log"));
+        assertEquals(3, lines.size());
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(lines.get(i - 1), lines.get(i - 1).contains(" features=" + i + " "));
+        }
+    }
+
+    @Test
+    public void onRowBound_countsTheFirstRowOfALoadOnce() {
+        LoadMetrics.setEnabled(true, null);
+        long before = sum(LoadMetrics.getHistogram(LoadMetrics.STAGE_FIRST_ROW_BOUND));
+
+        LoadMetrics.begin();
+        LoadMetrics.onRowBound();
+        LoadMetrics.onRowBound();
+
+        assertEquals(before + 1, sum(LoadMetrics.getHistogram(LoadMetrics.STAGE_FIRST_ROW_BOUND)));
+    }
+
+    /**
+     * The log file is a named pipe nobody reads yet, so writing it blocks until the test opens
+     * it: meanwhile, finishing a load and binding rows must not wait.
+     */
+    @Test(timeout = 10000)
+    public void finish_doesNotHoldTheLockWhileTheLogIsWritten() throws Exception {
+        File logDir = mFolder.newFolder();
+        File logFile = new File(logDir, "metrics.log");
+        assumeTrue(mkfifo(logFile));
+        LoadMetrics.setEnabled(true, logDir);
+
+        LoadMetrics.begin().finish();
+        ExecutorService mainThread = Executors.newSingleThreadExecutor();
+        try {
+            long bound = mainThread.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    LoadMetrics.begin();
+                    LoadMetrics.onRowBound();
+                    return sum(LoadMetrics.getHistogram(LoadMetrics.STAGE_FIRST_ROW_BOUND));
+                }
+            }).get(2, TimeUnit.SECONDS);
+            assertTrue(bound > 0);
+        } finally {
+            mainThread.shutdownNow();
+        }
+
+        // reading the pipe lets the pending line through
+        List<String> lines = readLines(logFile);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains(" features=0 "));
+        LoadMetrics.awaitLogWrites();
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static boolean mkfifo(File file) {
+        try {
+            Process process = new ProcessBuilder("mkfifo", file.getPath()).start();
+            return process.waitFor() == 0;
+        } catch (Exception e) {
+            // not a system with named pipes
+            return false;
+        }
+    }
+
+    private static long sum(long[] histogram) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        return total;
+    }
+}
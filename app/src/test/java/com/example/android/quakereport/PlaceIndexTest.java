@@ -0,0 +1,91 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Prefix and substring searches of {@link PlaceIndex}, ignoring case, accents and the
+ * punctuation around the query.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PlaceIndexTest {
+
+    private static final String[] PLACES = {
+            "10km SW of Ridgecrest, CA",
+            "3km N of Cambridge, New Zealand",
+            "56km E of Sand Point, Alaska",
+            "Ndoi Island, Fiji",
+            "5km S of Volcán, Panama",
+            "Alaska Peninsula",
+    };
+
+    private PlaceIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new PlaceIndex(PLACES);
+    }
+
+    @Test
+    public void search_prefix_matchesTheStartOfAWord() {
+        assertEquals(places("10km SW of Ridgecrest, CA"), search("ridge", true));
+        assertEquals(places("10km SW of Ridgecrest, CA", "3km N of Cambridge, New Zealand"),
+                search("CA", true));
+        assertEquals(places(), search("aska", true));
+        // the accent is ignored in the place and in the query
+        assertEquals(places("5km S of Volcán, Panama"), search("volcan", true));
+        assertEquals(places("5km S of Volcán, Panama"), search("VOLCÁN", true));
+    }
+
+    @Test
+    public void search_infix_matchesAnywhere() {
+        assertEquals(places("10km SW of Ridgecrest, CA", "3km N of Cambridge, New Zealand"),
+                search("ridge", false));
+        // shorter than a trigram
+        assertEquals(places("Ndoi Island, Fiji"), search("ij", false));
+        assertEquals(places(), search("tokyo", false));
+    }
+
+    @Test
+    public void search_punctuationAroundTheQuery_isIgnored() {
+        List<String> alaska = places("56km E of Sand Point, Alaska", "Alaska Peninsula");
+        assertEquals(alaska, search("Alaska,", true));
+        assertEquals(alaska, search("Alaska, ", true));
+        assertEquals(alaska, search(" (alaska)", false));
+        assertEquals(places("56km E of Sand Point, Alaska"), search("Point, Alaska.", true));
+    }
+
+    @Test
+    public void search_onlyPunctuation_matchesEverything() {
+        assertEquals(places(PLACES), search(" , ", true));
+        assertEquals(places(PLACES), search("", false));
+    }
+
+    private List<String> search(String query, boolean wordPrefix) {
+        boolean[] matches = mIndex.search(query, wordPrefix);
+        List<String> places = new ArrayList<>();
+        for (int placeId = 0; placeId < matches.length; placeId++) {
+            if (matches[placeId]) {
+                places.add(PLACES[placeId]);
+            }
+        }
+        return places;
+    }
+
+    private static List<String> places(String... places) {
+        List<String> list = new ArrayList<>();
+        for (String place : places) {
+            list.add(place);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The streaming GeoJSON parser against the org.json one it replaced.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class QueryUtilsTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void extractEarthquakes_sameAsJsonObjectParser() throws Exception {
+        String json = new String(Fixtures.read("usgs_45_days.geojson"), UTF_8);
+
+        List<Earthquake> expected = parseWithJsonObjects(json);
+        List<Earthquake> actual = QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(json.getBytes(UTF_8)), new LoadCancellation(), null);
+
+        assertEquals(64, expected.size());
+        Fixtures.assertSameEarthquakes(expected, actual);
+    }
+
+    @Test
+    public void fetchData_noData_isAnEmptyList() {
+        FakeHttpClient httpClient = new FakeHttpClient().answer("query", 204, null);
+
+        List<Earthquake> earthquakes = QueryUtils.fetchData(httpClient,
+                "https://earthquake.usgs.gov/fdsnws/event/1/query?format=csv&minmag=9");
+
+        assertEquals(Collections.<Earthquake>emptyList(), earthquakes);
+    }
+
+    @Test
+    public void fetchData_sameUrlTwiceAtOnce_makesOneRequest() throws Exception {
+        final CountDownLatch requested = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FakeHttpClient httpClient = new FakeHttpClient() {
+            @Override
+            protected Response respond(URL url) throws IOException {
+                // not synchronized, a second request would come in and be counted
+                requested.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return new FakeResponse(200,
+                        Fixtures.read("usgs_minmag2.5_time_limit100.geojson"));
+            }
+        };
+        final String url = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson";
+        final List<List<Earthquake>> results =
+                Collections.synchronizedList(new ArrayList<List<Earthquake>>());
+        Runnable fetch = new Runnable() {
+            @Override
+            public void run() {
+                results.add(QueryUtils.fetchData(httpClient, url));
+            }
+        };
+        Thread first = new Thread(fetch);
+        Thread second = new Thread(fetch);
+
+        first.start();
+        assertTrue(requested.await(5, TimeUnit.SECONDS));
+        second.start();
+        // the second caller waits, either for the request in flight or in the client
+        long deadline = System.currentTimeMillis() + 5000;
+        while (second.getState() != Thread.State.WAITING
+                && second.getState() != Thread.State.TIMED_WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        first.join(5000);
+        second.join(5000);
+
+        assertEquals(1, httpClient.getRequests().size());
+        assertEquals(2, results.size());
+        assertEquals(52, results.get(0).size());
+        assertSame(results.get(0), results.get(1));
+    }
+
+    @Test
+    public void extractEarthquakes_deletedEvent() throws Exception {
+        List<Earthquake> earthquakes = Fixtures.parseGeoJson("usgs_delta.geojson");
+
+        int deleted = 0;
+        for (Earthquake earthquake : earthquakes) {
+            if (earthquake.isDeleted()) {
+                deleted++;
+                assertEquals("ci38768277", earthquake.getId());
+            }
+        }
+        assertEquals(1, deleted);
+    }
+
+    @Test
+    public void extractEarthquakes_malformedNumber_skipsOnlyThatEarthquake() throws Exception {
+        String json = "{\"type\":\"FeatureCollection\",\"features\":["
+                + feature("us1", "4.5") + "," + feature("us2", "\"4,6\"") + ","
+                + feature("us3", "4.7") + "]}";
+
+        List<Earthquake> earthquakes = QueryUtils.extractEarthquakes(
+                stream(json), new LoadCancellation(), null);
+
+        assertEquals(Arrays.asList("us1", "us3"), Fixtures.ids(earthquakes));
+    }
+
+    @Test(expected = IOException.class)
+    public void extractEarthquakes_unexpectedShape_fails() throws Exception {
+        String json = "{\"type\":\"FeatureCollection\",\"features\":["
+                + feature("us1", "4.5") + ",[]]}";
+
+        QueryUtils.extractEarthquakes(stream(json), new LoadCancellation(), null);
+    }
+
+    @Test
+    public void getStartTime_readsTheStartTimeOfTheQuery() {
+        assertEquals(Fixtures.NOW - QueryUtils.DEFAULT_WINDOW, QueryUtils.getStartTime(
+                Uri.parse("https://x/query?format=geojson"), Fixtures.NOW));
+        assertEquals(Fixtures.NOW, QueryUtils.getStartTime(
+                Uri.parse("https://x/query?starttime=2017-06-20T12:00:00.000"), 0));
+        assertEquals(Fixtures.NOW, QueryUtils.getStartTime(
+                Uri.parse("https://x/query?starttime=2017-06-20T12:00:00Z"), 0));
+        assertEquals(Fixtures.NOW - 12 * 60 * 60 * 1000L, QueryUtils.getStartTime(
+                Uri.parse("https://x/query?starttime=2017-06-20"), 0));
+    }
+
+    private static String feature(String id, String magnitude) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude
+                + ",\"place\":\"Somewhere\",\"time\":1497900000000,"
+                + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + id + "\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[1.5,2.5,10]},"
+                + "\"id\":\"" + id + "\"}";
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(UTF_8));
+    }
+
+    /**
+     * The parsing of the original app, on the whole response String with org.json.
+     */
+    private static List<Earthquake> parseWithJsonObjects(String json) throws Exception {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        JSONArray features = new JSONObject(json).getJSONArray("features");
+        for (int i = 0; i < features.length(); i++) {
+            JSONObject feature = features.getJSONObject(i);
+            JSONObject properties = feature.getJSONObject("properties");
+            JSONArray coordinates = feature.getJSONObject("geometry").getJSONArray("coordinates");
+            earthquakes.add(new Earthquake(feature.getString("id"),
+                    properties.getDouble("mag"), properties.getString("place"),
+                    properties.getLong("time"), properties.getLong("updated"),
+                    properties.getString("url"), "deleted".equals(properties.getString("status")),
+                    coordinates.getDouble(0), coordinates.getDouble(1), coordinates.getDouble(2)));
+        }
+        return earthquakes;
+    }
+}
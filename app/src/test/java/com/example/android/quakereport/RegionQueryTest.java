@@ -0,0 +1,60 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saved region queries: reading them, and their coverage of one another.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class RegionQueryTest {
+
+    @Test
+    public void parse_readsTheSevenFields() {
+        RegionQuery query = RegionQuery.parse("San Francisco Bay Area;36.5;38.5;-123;-121;2.5;7");
+
+        assertEquals("San Francisco Bay Area", query.getName());
+        assertEquals(2.5, query.getMinMagnitude(), 0);
+        assertEquals(Fixtures.NOW - 7 * 24 * 60 * 60 * 1000L, query.getStartTime(Fixtures.NOW));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_missingField_isRejected() {
+        RegionQuery.parse("Italy;36;47;6;19;3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_notANumber_isRejected() {
+        RegionQuery.parse("Italy;36;47;6;19;M3;7");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_minLongitudeAboveMax_isRejected() {
+        // a box across the antimeridian, which USGS does not accept this way
+        RegionQuery.parse("Aleutians;50;56;170;-165;3;7");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_minLatitudeAboveMax_isRejected() {
+        RegionQuery.parse("Italy;47;36;6;19;3;7");
+    }
+
+    @Test
+    public void covers_insideTheBoxAtOrAboveTheMagnitudeWithinTheWindow() {
+        RegionQuery california = RegionQuery.parse("California;32;42;-125;-114;2.5;7");
+
+        assertTrue(california.covers(
+                RegionQuery.parse("San Francisco Bay Area;36.5;38.5;-123;-121;2.5;7")));
+        assertTrue(california.covers(california));
+        assertFalse(california.covers(RegionQuery.parse("Bay Area;36.5;38.5;-123;-121;2;7")));
+        assertFalse(california.covers(RegionQuery.parse("Bay Area;36.5;38.5;-123;-121;3;8")));
+        assertFalse(california.covers(RegionQuery.parse("Nevada;36;42;-120;-113;2.5;7")));
+    }
+}
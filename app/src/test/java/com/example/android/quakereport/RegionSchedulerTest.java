@@ -0,0 +1,283 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RegionScheduler} against a stub server answering CSV queries over a world of random
+ * events, 80 ms after each request. Sixteen saved regions: six parents, each child inside a
+ * parent, at or above its magnitude, within its window.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class RegionSchedulerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int EVENT_COUNT = 40000;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final int MAX_CONNECTIONS = 4;
+
+    /** Time the server spends before answering, in milliseconds */
+    private static final long SERVER_LATENCY = 80;
+
+    private final double[] mLatitudes = new double[EVENT_COUNT];
+    private final double[] mLongitudes = new double[EVENT_COUNT];
+    private final double[] mMagnitudes = new double[EVENT_COUNT];
+    private final long[] mTimes = new long[EVENT_COUNT];
+    private final List<RegionQuery> mRegions = new ArrayList<>();
+
+    private final AtomicInteger mActiveRequests = new AtomicInteger();
+    private final AtomicInteger mMaxActiveRequests = new AtomicInteger();
+    private StubServer mServer;
+    private RegionScheduler mScheduler;
+
+    @Before
+    public void setUp() throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            mLatitudes[i] = -60 + random.nextDouble() * 120;
+            mLongitudes[i] = -180 + random.nextDouble() * 360;
+            mMagnitudes[i] = 2 + random.nextDouble() * 5;
+            mTimes[i] = Fixtures.NOW - (long) (random.nextDouble() * 30 * DAY);
+        }
+        double[][] parents = new double[6][];
+        for (int i = 0; i < 16; i++) {
+            int parent = (i / 8) * 3 + i % 8;
+            if (i % 8 < 3) {
+                double latitude = -50 + random.nextDouble() * 60;
+                double longitude = -170 + random.nextDouble() * 280;
+                parents[parent] = new double[]{latitude, longitude};
+                mRegions.add(new RegionQuery("P" + i, latitude, latitude + 40, longitude,
+                        longitude + 60, 3, 7));
+            } else {
+                double[] box = parents[(i / 8) * 3 + i % 3];
+                mRegions.add(new RegionQuery("C" + i, box[0] + 5 + random.nextDouble() * 10,
+                        box[0] + 25, box[1] + 5, box[1] + 5 + random.nextDouble() * 40, 3.5,
+                        i % 2 == 0 ? 7 : 3));
+            }
+        }
+
+        mServer = new StubServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int active = mActiveRequests.incrementAndGet();
+                synchronized (mMaxActiveRequests) {
+                    mMaxActiveRequests.set(Math.max(mMaxActiveRequests.get(), active));
+                }
+                try {
+                    byte[] body = answer(Uri.parse(exchange.getRequestURI().toString()));
+                    Thread.sleep(SERVER_LATENCY);
+                    StubServer.respond(exchange, 200, body);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    mActiveRequests.decrementAndGet();
+                }
+            }
+        });
+        mScheduler = new RegionScheduler(new UrlConnectionHttpClient(5000, 5000),
+                MAX_CONNECTIONS);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void load_sameAsFilteringEveryEvent() {
+        ArrayList<RegionScheduler.RegionResult> results = load(mRegions, Fixtures.NOW);
+
+        assertEquals(mRegions.size(), results.size());
+        for (RegionScheduler.RegionResult result : results) {
+            assertEquals(result.getQuery().toString(), bruteForce(result.getQuery(), Fixtures.NOW),
+                    new HashSet<>(Fixtures.ids(result.getEarthquakes())));
+        }
+    }
+
+    @Test
+    public void load_downloadsOnlyTheRegionsNoOtherCovers() {
+        ArrayList<RegionScheduler.RegionResult> results = load(mRegions, Fixtures.NOW);
+
+        assertEquals(6, mServer.getRequestCount());
+        for (RegionScheduler.RegionResult result : results) {
+            assertEquals(result.getQuery().getName().startsWith("C"), result.isShared());
+        }
+        assertTrue(mMaxActiveRequests.get() <= MAX_CONNECTIONS);
+    }
+
+    @Test
+    public void load_eventMovedByANewerRevision_followsTheNewestRevision() throws Exception {
+        RegionQuery west = new RegionQuery("West", 0, 10, 0, 10, 3, 7);
+        RegionQuery east = new RegionQuery("East", 0, 10, 5, 15, 3, 7);
+        Earthquake inBoth = event("both", 7, 1);
+        Earthquake moved = event("moved", 6, 1);
+        Earthquake movedEast = event("moved", 12, 2);
+        FakeHttpClient httpClient = new FakeHttpClient()
+                .answer("minlongitude=0.0", 200,
+                        Fixtures.toGeoJson(Arrays.asList(inBoth, moved), 0))
+                .answer("minlongitude=5.0", 200,
+                        Fixtures.toGeoJson(Arrays.asList(inBoth, movedEast), 0));
+
+        ArrayList<RegionScheduler.RegionResult> results = new RegionScheduler(httpClient,
+                MAX_CONNECTIONS).load(Arrays.asList(west, east), "https://x/query", "geojson",
+                Fixtures.NOW, LoadMetrics.NO_TRACE, new LoadCancellation());
+
+        assertEquals(Collections.singletonList("both"),
+                Fixtures.ids(results.get(0).getEarthquakes()));
+        assertEquals(Arrays.asList("both", "moved"), Fixtures.ids(results.get(1).getEarthquakes()));
+        assertEquals(12, results.get(1).getEarthquakes().get(1).getLongitude(), 0);
+    }
+
+    /**
+     * Loads the first 1, 2, 4, 8 and 16 regions with a request per region, all at once, then
+     * with the scheduler. Run alone for meaningful times, e.g. with --tests.
+     */
+    @Ignore("timing benchmark, too slow for the unit tests; remove to run it alone")
+    @Test
+    public void benchmark_scalingFrom1To16Regions() {
+        // warm-up
+        load(mRegions.subList(0, 2), Fixtures.NOW);
+        System.out.println("RegionScheduler: regions, separate requests (ms requests max"
+                + " connections), scheduler (ms requests max connections)");
+        for (int count = 1; count <= mRegions.size(); count *= 2) {
+            List<RegionQuery> regions = mRegions.subList(0, count);
+            // the windows end elsewhere each time, nothing is coalesced with the warm-up
+            long now = Fixtures.NOW + count;
+
+            int[] separate = measure(regions, now, false);
+            int[] scheduled = measure(regions, now, true);
+
+            System.out.println("RegionScheduler: " + count + ", " + separate[0] + " "
+                    + separate[1] + " " + separate[2] + ", " + scheduled[0] + " " + scheduled[1]
+                    + " " + scheduled[2]);
+            assertEquals(count, separate[1]);
+            assertTrue(scheduled[1] <= separate[1]);
+            assertTrue(scheduled[2] <= MAX_CONNECTIONS);
+        }
+    }
+
+    /**
+     * Loads the regions and measures it.
+     * @return the time in milliseconds, the requests and the most requests at once
+     */
+    private int[] measure(List<RegionQuery> regions, final long now, boolean scheduled) {
+        int requests = mServer.getRequestCount();
+        mMaxActiveRequests.set(0);
+        long start = System.nanoTime();
+        if (scheduled) {
+            load(regions, now);
+        } else {
+            List<Thread> threads = new ArrayList<>();
+            for (final RegionQuery region : regions) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        QueryUtils.fetchData(new UrlConnectionHttpClient(5000, 5000),
+                                region.toUrl(baseUrl(), "csv", RegionScheduler.MAX_LIMIT, now));
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return new int[]{(int) ((System.nanoTime() - start) / 1000000),
+                mServer.getRequestCount() - requests, mMaxActiveRequests.get()};
+    }
+
+    private ArrayList<RegionScheduler.RegionResult> load(List<RegionQuery> regions, long now) {
+        return mScheduler.load(regions, baseUrl(), "csv", now, LoadMetrics.NO_TRACE,
+                new LoadCancellation());
+    }
+
+    private String baseUrl() {
+        return mServer.urlString("/fdsnws/event/1/query");
+    }
+
+    private Set<String> bruteForce(RegionQuery region, long now) {
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            if (region.matches(mMagnitudes[i], mTimes[i], mLatitudes[i], mLongitudes[i], now)) {
+                ids.add("e" + i);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Answers the query the way USGS filters, in CSV.
+     */
+    private byte[] answer(Uri uri) {
+        double minLatitude = Double.parseDouble(uri.getQueryParameter("minlatitude"));
+        double maxLatitude = Double.parseDouble(uri.getQueryParameter("maxlatitude"));
+        double minLongitude = Double.parseDouble(uri.getQueryParameter("minlongitude"));
+        double maxLongitude = Double.parseDouble(uri.getQueryParameter("maxlongitude"));
+        double minMagnitude = Double.parseDouble(uri.getQueryParameter("minmagnitude"));
+        long startTime = parseUtc(uri.getQueryParameter("starttime"));
+        StringBuilder csv = new StringBuilder(
+                "time,latitude,longitude,depth,mag,id,updated,place,type,status\n");
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            if (mLatitudes[i] >= minLatitude && mLatitudes[i] <= maxLatitude
+                    && mLongitudes[i] >= minLongitude && mLongitudes[i] <= maxLongitude
+                    && mMagnitudes[i] >= minMagnitude && mTimes[i] >= startTime) {
+                String time = QueryUtils.formatUtc(mTimes[i]) + "Z";
+                csv.append(time).append(',').append(mLatitudes[i]).append(',')
+                        .append(mLongitudes[i]).append(",10,").append(mMagnitudes[i])
+                        .append(",e").append(i).append(',').append(time)
+                        .append(",\"Somewhere, Earth\",earthquake,reviewed\n");
+            }
+        }
+        return csv.toString().getBytes(UTF_8);
+    }
+
+    private static Earthquake event(String id, double longitude, long updated) {
+        return new Earthquake(id, 4, "Somewhere", Fixtures.NOW - DAY, Fixtures.NOW - DAY + updated,
+                EarthquakeTable.EVENT_PAGE_PREFIX + id, false, longitude, 5, 10);
+    }
+
+    private static long parseUtc(String time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(time).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(time, e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queries of {@link SpatialIndex} against a scan of every row, and the spatial queries of
+ * {@link EarthquakeQueryEngine}, whose index is only built when they are first asked.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SpatialIndexTest {
+
+    private EarthquakeTable mEarthquakes;
+    private SpatialIndex mIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        mEarthquakes = new EarthquakeTable(Fixtures.parseGeoJson("usgs_45_days.geojson"));
+        // a row without coordinates is left out
+        mEarthquakes.addRow("us1000nnnn", 4.2, "Unknown", Fixtures.NOW, Fixtures.NOW,
+                EarthquakeTable.EVENT_PAGE_PREFIX + "us1000nnnn", Double.NaN, Double.NaN, 10);
+        mIndex = new SpatialIndex(mEarthquakes);
+    }
+
+    @Test
+    public void withinRadius_sameAsAScan() {
+        // Ridgecrest, CA and Ndoi Island, Fiji (near the antimeridian)
+        for (double[] center : new double[][]{{35.62, -117.67}, {-20.65, -178.68}}) {
+            for (double radiusKm : new double[]{10, 150, 1000, 20000}) {
+                List<Integer> expected = new ArrayList<>();
+                for (int row = 0; row < mEarthquakes.size(); row++) {
+                    if (!Double.isNaN(mEarthquakes.getLatitude(row))
+                            && SpatialIndex.distanceKm(center[0], center[1],
+                            mEarthquakes.getLatitude(row), mEarthquakes.getLongitude(row))
+                            <= radiusKm) {
+                        expected.add(row);
+                    }
+                }
+                assertArrayEquals(radiusKm + " km", toArray(expected),
+                        sorted(mIndex.withinRadius(center[0], center[1], radiusKm)));
+            }
+        }
+    }
+
+    @Test
+    public void inBoundingBox_acrossTheAntimeridian() {
+        int[] rows = mIndex.inBoundingBox(-40, 0, 170, -170);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int row = 0; row < mEarthquakes.size(); row++) {
+            double latitude = mEarthquakes.getLatitude(row);
+            double longitude = mEarthquakes.getLongitude(row);
+            if (latitude >= -40 && latitude <= 0 && (longitude >= 170 || longitude <= -170)) {
+                expected.add(row);
+            }
+        }
+        assertArrayEquals(toArray(expected), sorted(rows));
+    }
+
+    @Test
+    public void nearest_nearestFirst() {
+        int[] rows = mIndex.nearest(38.43, 141.30, 5);
+
+        assertEquals(5, rows.length);
+        double previous = 0;
+        for (int row = 0; row < mEarthquakes.size(); row++) {
+            if (Double.isNaN(mEarthquakes.getLatitude(row))) {
+                continue;
+            }
+            boolean returned = Arrays.binarySearch(sorted(rows), row) >= 0;
+            double distance = distanceKm(row, 38.43, 141.30);
+            if (!returned) {
+                // nothing left out is nearer than the furthest returned
+                assertFalse(distance < distanceKm(rows[4], 38.43, 141.30));
+            }
+        }
+        for (int row : rows) {
+            double distance = distanceKm(row, 38.43, 141.30);
+            assertTrue(distance >= previous);
+            previous = distance;
+        }
+        assertEquals(mEarthquakes.size() - 1, mIndex.nearest(0, 0, 1000).length);
+        assertEquals(0, mIndex.nearest(0, 0, 0).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nearest_negativeCount_throws() {
+        mIndex.nearest(0, 0, -1);
+    }
+
+    @Test
+    public void engine_searchesTheLastLoadedEarthquakes() throws Exception {
+        Fixtures.resetSingletons();
+        EarthquakeQueryEngine engine = EarthquakeQueryEngine.getInstance();
+        engine.load(mEarthquakes);
+        assertEquals(mEarthquakes.size() - 1, engine.withinRadius(0, 0, 20040).size());
+
+        engine.load(new EarthquakeTable(mEarthquakes.subList(0, 10)));
+
+        assertEquals(10, engine.withinRadius(0, 0, 20040).size());
+        assertEquals(10, engine.inBoundingBox(-90, 90, -180, 180).size());
+        assertEquals(3, engine.nearest(0, 0, 3).size());
+    }
+
+    private double distanceKm(int row, double latitude, double longitude) {
+        return SpatialIndex.distanceKm(latitude, longitude, mEarthquakes.getLatitude(row),
+                mEarthquakes.getLongitude(row));
+    }
+
+    private static int[] sorted(int[] rows) {
+        int[] copy = rows.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    private static int[] toArray(List<Integer> rows) {
+        int[] array = new int[rows.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = rows.get(i);
+        }
+        return array;
+    }
+}
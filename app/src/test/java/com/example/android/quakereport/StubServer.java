@@ -0,0 +1,98 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP server on the loopback interface standing in for USGS. It counts the requests and the
+ * body bytes it sends, and serves each request on its own thread.
+ */
+
+final class StubServer implements Closeable {
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    StubServer(final HttpHandler handler) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequestCount.incrementAndGet();
+                exchange.setStreams(null, new FilterOutputStream(exchange.getResponseBody()) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        // counted first, a client which got the bytes sees them counted
+                        mBytesSent.incrementAndGet();
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        mBytesSent.addAndGet(len);
+                        out.write(b, off, len);
+                    }
+                });
+                try {
+                    handler.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    /**
+     * Sends a whole response.
+     */
+    static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        if (body == null || body.length == 0) {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    URL url(String pathAndQuery) throws IOException {
+        return new URL(urlString(pathAndQuery));
+    }
+
+    String urlString(String pathAndQuery) {
+        InetSocketAddress address = mServer.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort()
+                + pathAndQuery;
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /** Body bytes sent so far, headers excluded */
+    long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    @Override
+    public void close() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Conditional requests of {@link UrlConnectionHttpClient} against a stub server, counting the
+ * body bytes it sends, and the compressed bodies read as the bytes transferred and decoded.
+ * (The platform HttpResponseCache only works with the HttpURLConnection of Android, it is
+ * tested on a device by HttpResponseCacheTest.)
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class UrlConnectionHttpClientTest {
+
+    private static final String ETAG = "\"1497960000000\"";
+    private static final String LAST_MODIFIED = "Tue, 20 Jun 2017 12:00:00 GMT";
+
+    private byte[] mBody;
+    // the Content-Encoding of the responses, null for the body as is
+    private volatile String mContentEncoding;
+    private final List<String> mValidators = Collections.synchronizedList(new ArrayList<String>());
+    private StubServer mServer;
+    private UrlConnectionHttpClient mHttpClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mBody = Fixtures.read("usgs_45_days.geojson");
+        mServer = new StubServer(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String eTag = exchange.getRequestHeaders().getFirst("If-None-Match");
+                String lastModified = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+                mValidators.add(eTag + " " + lastModified);
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+                if (ETAG.equals(eTag)) {
+                    StubServer.respond(exchange, 304, null);
+                } else if (mContentEncoding != null) {
+                    exchange.getResponseHeaders().set("Content-Encoding", mContentEncoding);
+                    StubServer.respond(exchange, 200, compress(mBody, mContentEncoding));
+                } else {
+                    StubServer.respond(exchange, 200, mBody);
+                }
+            }
+        });
+        mHttpClient = new UrlConnectionHttpClient(1000, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void getIfChanged_withoutCopy_downloadsTheBody() throws Exception {
+        EarthquakeHttpClient.Response response =
+                mHttpClient.getIfChanged(mServer.url("/feed.geojson"), null, null);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals(ETAG, response.getHeader("ETag"));
+            assertEquals(64, QueryUtils.extractEarthquakes(response.getBody(),
+                    new LoadCancellation(), null).size());
+        } finally {
+            response.close();
+        }
+        assertEquals(Collections.singletonList("null null"), mValidators);
+        assertEquals(mBody.length, mServer.getBytesSent());
+    }
+
+    @Test
+    public void getIfChanged_unchanged_answers304WithoutBody() throws Exception {
+        EarthquakeHttpClient.Response response =
+                mHttpClient.getIfChanged(mServer.url("/feed.geojson"), ETAG, LAST_MODIFIED);
+        try {
+            assertEquals(304, response.getCode());
+        } finally {
+            response.close();
+        }
+        assertEquals(Collections.singletonList(ETAG + " " + LAST_MODIFIED), mValidators);
+        assertEquals(0, mServer.getBytesSent());
+    }
+
+    @Test
+    public void getIfChanged_changed_downloadsTheNewBody() throws Exception {
+        EarthquakeHttpClient.Response response =
+                mHttpClient.getIfChanged(mServer.url("/feed.geojson"), "\"1497950000000\"", null);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals(64, QueryUtils.extractEarthquakes(response.getBody(),
+                    new LoadCancellation(), null).size());
+        } finally {
+            response.close();
+        }
+        assertEquals(mBody.length, mServer.getBytesSent());
+    }
+
+    @Test
+    public void fetchData_countsTheBytesOfEachRequest() throws Exception {
+        String url = mServer.urlString("/fdsnws/event/1/query?format=geojson");
+
+        QueryUtils.fetchData(mHttpClient, url);
+        QueryUtils.fetchData(mHttpClient, url);
+
+        // no cache on the JVM, both requests are downloaded
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(2L * mBody.length, mServer.getBytesSent());
+    }
+
+    @Test
+    public void get_gzip_countsTheCompressedAndTheDecodedBytes() throws Exception {
+        assertDecoded("gzip");
+    }
+
+    @Test
+    public void get_deflate_countsTheCompressedAndTheDecodedBytes() throws Exception {
+        assertDecoded("deflate");
+    }
+
+    /**
+     * Reads a compressed response the way {@link QueryUtils} does: the bytes transferred are
+     * the compressed ones the server sent, the bytes decoded are the ones of the feed.
+     */
+    private void assertDecoded(String contentEncoding) throws Exception {
+        mContentEncoding = contentEncoding;
+        EarthquakeHttpClient.Response response = mHttpClient.get(mServer.url("/feed.geojson"));
+        CountingInputStream transferred;
+        CountingInputStream decoded;
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals(contentEncoding, response.getContentEncoding());
+            transferred = new CountingInputStream(response.getBody());
+            decoded = new CountingInputStream(
+                    QueryUtils.decode(transferred, response.getContentEncoding()));
+            assertEquals(64, QueryUtils.extractEarthquakes(decoded,
+                    new LoadCancellation(), null).size());
+        } finally {
+            response.close();
+        }
+        int compressed = compress(mBody, contentEncoding).length;
+        assertTrue(compressed < mBody.length);
+        assertEquals(compressed, mServer.getBytesSent());
+        assertEquals(compressed, transferred.getCount());
+        assertEquals(mBody.length, decoded.getCount());
+    }
+
+    private static byte[] compress(byte[] body, String contentEncoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream output = "gzip".equals(contentEncoding)
+                ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes);
+        output.write(body);
+        output.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.android.quakereport.benchmark;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Copies classes of the Android framework jar so they run on a plain JVM. The Android libcore
+ * has System.arraycopy() overloads for primitive arrays (e.g. char[] in JsonReader), their
+ * calls are turned into calls of the single JDK method, like Robolectric does.
+ * Usage: JvmCompat android-all.jar outputDirectory class...
+ */
+
+public final class JvmCompat {
+
+    private static final String SYSTEM = "java/lang/System";
+    private static final String ARRAYCOPY = "arraycopy";
+    private static final String JDK_ARRAYCOPY = "(Ljava/lang/Object;ILjava/lang/Object;II)V";
+
+    private JvmCompat() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        ZipFile jar = new ZipFile(args[0]);
+        try {
+            for (int i = 2; i < args.length; i++) {
+                String path = args[i].replace('.', '/') + ".class";
+                ZipEntry entry = jar.getEntry(path);
+                if (entry == null) {
+                    throw new IOException(path + " is not in " + args[0]);
+                }
+                byte[] patched = patch(read(jar.getInputStream(entry)));
+                File output = new File(args[1], path);
+                if (!output.getParentFile().isDirectory() && !output.getParentFile().mkdirs()) {
+                    throw new IOException("cannot create " + output.getParent());
+                }
+                OutputStream out = new FileOutputStream(output);
+                try {
+                    out.write(patched);
+                } finally {
+                    out.close();
+                }
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static byte[] patch(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassVisitor(Opcodes.ASM5, writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc,
+                                             String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM5,
+                        super.visitMethod(access, name, desc, signature, exceptions)) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name,
+                                                String desc, boolean itf) {
+                        if (owner.equals(SYSTEM) && name.equals(ARRAYCOPY)) {
+                            desc = JDK_ARRAYCOPY;
+                        }
+                        super.visitMethodInsn(opcode, owner, name, desc, itf);
+                    }
+                };
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.quakereport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Feeds of the benchmarks, in the USGS response formats. The feed of 100 events is checked in
+ * (src/main/resources/usgs_100.geojson), the larger ones repeat its features with new ids,
+ * each copy a minute older, so the parsers see the same mix of values at every size.
+ * A checked-in feed of 100k features would be about 70 MB.
+ */
+
+final class BenchmarkFeeds {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Header of the USGS "format=csv" responses */
+    private static final String CSV_HEADER = "time,latitude,longitude,depth,mag,magType,nst,"
+            + "gap,dmin,rms,net,id,updated,place,type,horizontalError,depthError,magError,"
+            + "magNst,status,locationSource,magSource";
+
+    private BenchmarkFeeds() {
+    }
+
+    /**
+     * Gets a GeoJSON response of size features, newest first.
+     */
+    static byte[] geoJson(int size) throws IOException, JSONException {
+        JSONObject feed = new JSONObject(readResource("usgs_100.geojson"));
+        feed.put("features", features(feed.getJSONArray("features"), size));
+        return feed.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Gets the same events as {@link #geoJson(int)} as a CSV response.
+     */
+    static byte[] csv(int size) throws IOException, JSONException {
+        JSONArray features = features(
+                new JSONObject(readResource("usgs_100.geojson")).getJSONArray("features"), size);
+        StringBuilder csv = new StringBuilder(CSV_HEADER).append('\n');
+        for (int i = 0; i < features.length(); i++) {
+            JSONObject feature = features.getJSONObject(i);
+            JSONObject properties = feature.getJSONObject("properties");
+            JSONArray coordinates = feature.getJSONObject("geometry").getJSONArray("coordinates");
+            String place = properties.getString("place");
+            csv.append(QueryUtils.formatUtc(properties.getLong("time"))).append("Z,")
+                    .append(coordinates.getDouble(1)).append(',')
+                    .append(coordinates.getDouble(0)).append(',')
+                    .append(coordinates.getDouble(2)).append(',')
+                    .append(properties.getDouble("mag")).append(',')
+                    .append(properties.getString("magType")).append(",,")
+                    .append(properties.optInt("gap")).append(",,")
+                    .append(properties.optDouble("rms")).append(',')
+                    .append(properties.getString("net")).append(',')
+                    .append(feature.getString("id")).append(',')
+                    .append(QueryUtils.formatUtc(properties.getLong("updated"))).append("Z,")
+                    .append(place.contains(",") ? '"' + place + '"' : place)
+                    .append(",earthquake,,,,,")
+                    .append(properties.getString("status")).append(',')
+                    .append(properties.getString("net")).append(',')
+                    .append(properties.getString("net")).append('\n');
+        }
+        return csv.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Gets the events of {@link #geoJson(int)}, parsed by the app.
+     */
+    static ArrayList<Earthquake> earthquakes(int size) throws IOException, JSONException {
+        return QueryUtils.extractEarthquakes(new ByteArrayInputStream(geoJson(size)),
+                new LoadCancellation(), null);
+    }
+
+    private static JSONArray features(JSONArray features, int size) throws JSONException {
+        JSONArray copies = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            int copy = i / features.length();
+            JSONObject feature = new JSONObject(features.getJSONObject(i % features.length())
+                    .toString());
+            if (copy > 0) {
+                String id = feature.getString("id") + "x" + copy;
+                JSONObject properties = feature.getJSONObject("properties");
+                feature.put("id", id);
+                properties.put("url", EarthquakeTable.EVENT_PAGE_PREFIX + id);
+                properties.put("time", properties.getLong("time") - copy * 60 * 1000L);
+                properties.put("updated", properties.getLong("updated") - copy * 60 * 1000L);
+            }
+            copies.put(feature);
+        }
+        return copies;
+    }
+
+    private static String readResource(String name) throws IOException {
+        InputStream input = BenchmarkFeeds.class.getClassLoader().getResourceAsStream(name);
+        if (input == null) {
+            throw new IOException("missing resource " + name);
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return new String(bytes.toByteArray(), UTF_8);
+        } finally {
+            input.close();
+        }
+    }
+}
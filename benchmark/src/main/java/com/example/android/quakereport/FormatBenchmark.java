@@ -0,0 +1,67 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+/**
+ * Formatting of the list rows by {@link EarthquakeFormatter}, and its helpers on their own:
+ * the split of the location and the color of the magnitude circle.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FormatBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private EarthquakeTable mTable;
+    private EarthquakeFormatter mFormatter;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mTable = new EarthquakeTable(BenchmarkFeeds.earthquakes(size));
+        // the values do not matter, the app resolves them from the resources
+        int[] magnitudeColors = new int[EarthquakeStats.MAGNITUDE_BUCKETS];
+        for (int i = 0; i < magnitudeColors.length; i++) {
+            magnitudeColors[i] = 0xff000000 | i * 0x101010;
+        }
+        mFormatter = new EarthquakeFormatter(magnitudeColors);
+    }
+
+    @Benchmark
+    public void formatRows(Blackhole blackhole) {
+        for (int row = 0; row < mTable.size(); row++) {
+            blackhole.consume(mFormatter.format(mTable, row));
+        }
+    }
+
+    @Benchmark
+    public void splitLocations(Blackhole blackhole) {
+        for (int row = 0; row < mTable.size(); row++) {
+            String location = mTable.getLocation(row);
+            blackhole.consume(EarthquakeFormatter.getLocationOffset(location));
+            blackhole.consume(EarthquakeFormatter.getPrimaryLocation(location));
+        }
+    }
+
+    @Benchmark
+    public int getMagnitudeColor() {
+        int colors = 0;
+        for (int row = 0; row < mTable.size(); row++) {
+            colors ^= mFormatter.getMagnitudeColor(mTable.getMagnitude(row));
+        }
+        return colors;
+    }
+}
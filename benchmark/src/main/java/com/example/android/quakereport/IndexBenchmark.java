@@ -0,0 +1,82 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+
+/**
+ * Building and querying the {@link SpatialIndex} of the epicenters and the {@link PlaceIndex}
+ * of the places.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class IndexBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private EarthquakeTable mTable;
+    private SpatialIndex mSpatialIndex;
+    private String[] mPlaces;
+    private PlaceIndex mPlaceIndex;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mTable = new EarthquakeTable(BenchmarkFeeds.earthquakes(size));
+        mSpatialIndex = new SpatialIndex(mTable);
+        // the place dictionary of the table, each place once
+        LinkedHashSet<String> places = new LinkedHashSet<>();
+        for (int row = 0; row < mTable.size(); row++) {
+            places.add(mTable.getLocation(row));
+        }
+        mPlaces = places.toArray(new String[places.size()]);
+        mPlaceIndex = new PlaceIndex(mPlaces);
+    }
+
+    @Benchmark
+    public SpatialIndex buildSpatialIndex() {
+        return new SpatialIndex(mTable);
+    }
+
+    @Benchmark
+    public int[] withinRadius() {
+        // around Ridgecrest, CA
+        return mSpatialIndex.withinRadius(35.62, -117.67, 500);
+    }
+
+    @Benchmark
+    public int[] inBoundingBoxAcrossTheAntimeridian() {
+        return mSpatialIndex.inBoundingBox(-40, 0, 170, -170);
+    }
+
+    @Benchmark
+    public int[] nearest() {
+        return mSpatialIndex.nearest(38.43, 141.30, 10);
+    }
+
+    @Benchmark
+    public PlaceIndex buildPlaceIndex() {
+        return new PlaceIndex(mPlaces);
+    }
+
+    @Benchmark
+    public boolean[] searchPlacePrefix() {
+        return mPlaceIndex.search("ridge", true);
+    }
+
+    @Benchmark
+    public boolean[] searchPlaceSubstring() {
+        return mPlaceIndex.search("alask", false);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Parsing of whole responses: the GeoJSON parser of QueryUtils and the CSV parser.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParseBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private byte[] mGeoJson;
+    private byte[] mCsv;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mGeoJson = BenchmarkFeeds.geoJson(size);
+        mCsv = BenchmarkFeeds.csv(size);
+    }
+
+    @Benchmark
+    public ArrayList<Earthquake> extractEarthquakes() throws IOException {
+        return QueryUtils.extractEarthquakes(new ByteArrayInputStream(mGeoJson),
+                new LoadCancellation(), null);
+    }
+
+    @Benchmark
+    public ArrayList<Earthquake> parseCsv() throws IOException {
+        return CsvEarthquakeParser.parse(new ByteArrayInputStream(mCsv),
+                new LoadCancellation(), null);
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Cold start: the last result read back from the binary snapshot against the same result
+ * parsed from a saved GeoJSON response, both from a file. Writing the snapshot is measured
+ * too, once for a new result and once for a result already saved, which is not written again.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SnapshotBenchmark {
+
+    private static final String QUERY_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query"
+            + "?format=geojson&eventtype=earthquake&orderby=time&minmag=0&limit=";
+
+    /** Rows of the result, the list shows a few thousand at most */
+    @Param({"100", "1000", "5000"})
+    public int size;
+
+    private File mDirectory;
+    private File mSnapshotFile;
+    private File mGeoJsonFile;
+    private File mWrittenFile;
+    private String mQueryUrl;
+    private EarthquakeTable mTable;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mDirectory = File.createTempFile("snapshot", "benchmark");
+        if (!mDirectory.delete() || !mDirectory.mkdir()) {
+            throw new IOException("could not create " + mDirectory);
+        }
+        mQueryUrl = QUERY_URL + size;
+        mTable = new EarthquakeTable(BenchmarkFeeds.earthquakes(size));
+
+        mSnapshotFile = new File(mDirectory, "read.snapshot");
+        if (!EarthquakeSnapshot.write(mSnapshotFile, mQueryUrl, mTable)) {
+            throw new IOException("could not write " + mSnapshotFile);
+        }
+        mGeoJsonFile = new File(mDirectory, "read.geojson");
+        FileOutputStream output = new FileOutputStream(mGeoJsonFile);
+        try {
+            output.write(BenchmarkFeeds.geoJson(size));
+        } finally {
+            output.close();
+        }
+        // the snapshot the write benchmarks replace, the last one written by the app
+        mWrittenFile = new File(mDirectory, "write.snapshot");
+        EarthquakeSnapshot.write(mWrittenFile, mQueryUrl, mTable);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public EarthquakeTable readSnapshot() {
+        return EarthquakeSnapshot.read(mSnapshotFile, mQueryUrl);
+    }
+
+    @Benchmark
+    public EarthquakeTable parseGeoJson() throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(mGeoJsonFile));
+        try {
+            return new EarthquakeTable(QueryUtils.extractEarthquakes(input,
+                    new LoadCancellation(), null));
+        } finally {
+            input.close();
+        }
+    }
+
+    @Benchmark
+    public boolean writeSnapshot() {
+        return EarthquakeSnapshot.write(mWrittenFile, mQueryUrl, mTable);
+    }
+
+    @Benchmark
+    public boolean writeUnchangedSnapshot() {
+        return EarthquakeSnapshot.writeIfChanged(mWrittenFile, mQueryUrl, mTable);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The columnar {@link EarthquakeTable} against the list of Earthquake objects it replaced:
+ * filling it, copying it and scanning a column.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TableBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private ArrayList<Earthquake> mEarthquakes;
+    private EarthquakeTable mTable;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mEarthquakes = BenchmarkFeeds.earthquakes(size);
+        mTable = new EarthquakeTable(mEarthquakes);
+    }
+
+    @Benchmark
+    public EarthquakeTable fillTable() {
+        return new EarthquakeTable(mEarthquakes);
+    }
+
+    @Benchmark
+    public EarthquakeTable copyTable() {
+        return new EarthquakeTable(mTable);
+    }
+
+    @Benchmark
+    public double scanTableMagnitudes() {
+        double sum = 0;
+        for (int row = 0; row < mTable.size(); row++) {
+            sum += mTable.getMagnitude(row);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double scanObjectMagnitudes() {
+        double sum = 0;
+        for (int i = 0; i < mEarthquakes.size(); i++) {
+            sum += mEarthquakes.get(i).getMagnitude();
+        }
+        return sum;
+    }
+}